@@ -0,0 +1,114 @@
+// ===================================================================
+// AdmissionPolicy
+// What a car does about the line it finds, instead of always waiting
+// for a spot in the waiting area:
+//   policy=block   waits outside until a spot frees up (the default,
+//                  and the only policy that can stall a producer)
+//   policy=reject  drives away when the waiting area is full
+//   policy=balk    once balk_from cars wait, drives away with a chance
+//                  that grows with the line: (waiting - balk_from + 1)
+//                  / (capacity - balk_from + 1), so always when full
+//   patience_ms=N  with any policy, a car that has waited N ms without
+//                  getting a bay gives up and leaves (reneges)
+// The balk draw hashes the seed with the car id, so producer lanes
+// share no random generator and the same seed balks the same cars.
+// Every car that shows up is logged ARRIVED; cars that leave without
+// a wash are then logged REJECTED, BALKED or RENEGED.
+//
+// -Dcarwash.admission="policy=balk balk_from=2 patience_ms=4000 seed=7"
+// ===================================================================
+class AdmissionPolicy {
+
+    static final String PROPERTY = "carwash.admission";
+
+    String policy = "block";
+    int balk_from = 1;
+    long patience_ms = 0; // 0 = cars never give up
+    long seed = 1;
+
+    /** Blocking, no reneging, unless -Dcarwash.admission says otherwise. */
+    static AdmissionPolicy fromProperty() {
+        String spec = System.getProperty(PROPERTY);
+        return spec == null || spec.isEmpty() ? new AdmissionPolicy() : parse(spec);
+    }
+
+    static AdmissionPolicy parse(String spec) {
+        AdmissionPolicy a = new AdmissionPolicy();
+        for (String token : spec.trim().split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + token);
+            }
+            String key = token.substring(0, eq);
+            String value = token.substring(eq + 1);
+            switch (key) {
+                case "policy":
+                    if (!value.equals("block") && !value.equals("reject") && !value.equals("balk")) {
+                        throw new IllegalArgumentException("Unknown admission policy: " + value);
+                    }
+                    a.policy = value;
+                    break;
+                case "balk_from":
+                    a.balk_from = Integer.parseInt(value);
+                    break;
+                case "patience_ms":
+                    a.patience_ms = Long.parseLong(value);
+                    break;
+                case "seed":
+                    a.seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown admission key: " + key);
+            }
+        }
+        if (a.balk_from < 0 || a.patience_ms < 0) {
+            throw new IllegalArgumentException("balk_from and patience_ms can't be negative: " + spec);
+        }
+        return a;
+    }
+
+    /** True when a car that finds the waiting area full waits for a spot. */
+    boolean blocks() {
+        return policy.equals("block");
+    }
+
+    /**
+     * Null if the car joins a line of `waiting` cars, otherwise why it
+     * drives away (REJECTED or BALKED).
+     */
+    EventKind turnAway(Car car, int waiting, int capacity) {
+        if (blocks()) {
+            return null;
+        }
+        if (waiting >= capacity) {
+            return whenFull();
+        }
+        if (policy.equals("balk") && waiting >= balk_from) {
+            double chance = (double) (waiting - balk_from + 1) / (capacity - balk_from + 1);
+            if (new SplitMix64(seed ^ car.id * 0x9E3779B97F4A7C15L).nextDouble() < chance) {
+                return EventKind.BALKED;
+            }
+        }
+        return null;
+    }
+
+    // Why a car leaves when there is no spot at all
+    EventKind whenFull() {
+        return policy.equals("balk") ? EventKind.BALKED : EventKind.REJECTED;
+    }
+
+    /** True once a waiting car has run out of patience. */
+    boolean outOfPatience(Object car, long now_nanos) {
+        return patience_ms > 0 && car instanceof Car
+                && now_nanos - ((Car) car).arrival_nanos >= patience_ms * 1_000_000L;
+    }
+
+    @Override
+    public String toString() {
+        String s = "Admission: " + policy;
+        if (policy.equals("balk")) {
+            s += " from " + balk_from + " waiting (seed " + seed + ")";
+        }
+        return patience_ms > 0 ? s + ", cars give up after " + patience_ms + " ms" : s;
+    }
+}
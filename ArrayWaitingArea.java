@@ -0,0 +1,235 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+// ===================================================================
+// ArrayWaitingArea
+// The original circular Object[] guarded by two locks and two
+// counting semaphores (free spots / waiting cars).
+// ===================================================================
+class ArrayWaitingArea implements WaitingArea {
+
+    private final int waiting_area_size;
+    private final Object waiting_area[];
+    public int waiting_inptr = 0, waiting_outptr = 0;
+
+    Semaphore waiting_area_counter;                     // Free spots
+    Semaphore service_bays_counter = new Semaphore(0); // Cars waiting for a pump
+
+    // ReentrantLocks instead of synchronized so virtual threads never pin
+    private final WatchedLock produce_lock = new WatchedLock("produce_lock");
+    private final WatchedLock consume_lock = new WatchedLock("consume_lock");
+    private final AtomicInteger count = new AtomicInteger();
+
+    // close() floods both semaphores so every blocked thread wakes up
+    static final int CLOSE_PERMITS = 1 << 24;
+    private volatile boolean closed = false;
+
+    ArrayWaitingArea(int waiting_area_size) {
+        this.waiting_area_size = waiting_area_size;
+        this.waiting_area = new Object[waiting_area_size];
+        waiting_area_counter = new Semaphore(waiting_area_size);
+    }
+
+    @Override
+    public boolean put(Object car) throws InterruptedException {
+        waiting_area_counter.acquire(); // Wait for a spot
+        return insert(car);
+    }
+
+    @Override
+    public boolean offer(Object car) {
+        return waiting_area_counter.tryAcquire() && insert(car);
+    }
+
+    // Caller already holds the car's free-spot permit
+    private boolean insert(Object car) {
+        produce_lock.lock();
+        try {
+            if (closed) {
+                return false; // Checked under the lock, so nothing gets in after close()
+            }
+            waiting_area[waiting_inptr] = car;
+            waiting_inptr = (waiting_inptr + 1) % waiting_area_size;
+            count.incrementAndGet(); // Under the lock, so close() sees every car that got in
+        } finally {
+            produce_lock.unlock();
+        }
+
+        service_bays_counter.release(); // Signal car is ready
+        return true;
+    }
+
+    // Waits for one spot, then takes whatever other spots are free, so a
+    // batch costs one produce_lock round trip instead of one per car
+    @Override
+    public int putAll(Object[] cars, int from, int n) throws InterruptedException {
+        int done = 0;
+        while (done < n) {
+            waiting_area_counter.acquire();
+            int spots = 1 + waiting_area_counter.tryAcquireUpTo(n - done - 1);
+            if (!insertRun(cars, from + done, spots)) {
+                return done;
+            }
+            done += spots;
+        }
+        return done;
+    }
+
+    @Override
+    public int offerAll(Object[] cars, int from, int n) {
+        int spots = waiting_area_counter.tryAcquireUpTo(n);
+        return spots > 0 && insertRun(cars, from, spots) ? spots : 0;
+    }
+
+    // Caller already holds a free-spot permit for each of the cars
+    private boolean insertRun(Object[] cars, int from, int spots) {
+        produce_lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            for (int i = 0; i < spots; i++) {
+                waiting_area[waiting_inptr] = cars[from + i];
+                waiting_inptr = (waiting_inptr + 1) % waiting_area_size;
+            }
+            count.addAndGet(spots);
+        } finally {
+            produce_lock.unlock();
+        }
+
+        service_bays_counter.release(spots);
+        return true;
+    }
+
+    @Override
+    public Object take() throws InterruptedException {
+        service_bays_counter.acquire(); // Wait for a car
+        return removeNext();
+    }
+
+    @Override
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!service_bays_counter.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return removeNext();
+    }
+
+    // Borrows a waiting-car permit to look at the head; gives it back if
+    // the head car stays
+    @Override
+    public Object pollIf(Predicate<Object> test) {
+        if (!service_bays_counter.tryAcquire()) {
+            return null;
+        }
+        Object car = null;
+        consume_lock.lock();
+        try {
+            if (count.get() > 0 && test.test(waiting_area[waiting_outptr])) {
+                car = waiting_area[waiting_outptr];
+                waiting_area[waiting_outptr] = null;
+                waiting_outptr = (waiting_outptr + 1) % waiting_area_size;
+                count.decrementAndGet();
+            }
+        } finally {
+            consume_lock.unlock();
+        }
+
+        if (car == null) {
+            service_bays_counter.release();
+            return null;
+        }
+        waiting_area_counter.release();
+        return car;
+    }
+
+    // Caller already holds a service_bays_counter permit. Once closed the
+    // permits are no longer one per car, so the count decides.
+    private Object removeNext() {
+        Object car;
+        consume_lock.lock();
+        try {
+            if (count.get() == 0) {
+                return null; // Only possible once closed: nothing left
+            }
+            car = waiting_area[waiting_outptr];
+            waiting_area[waiting_outptr] = null;
+            waiting_outptr = (waiting_outptr + 1) % waiting_area_size;
+            count.decrementAndGet();
+        } finally {
+            consume_lock.unlock();
+        }
+
+        waiting_area_counter.release(); // Signal queue spot is free
+        return car;
+    }
+
+    @Override
+    public void close() {
+        produce_lock.lock();
+        try {
+            closed = true;
+        } finally {
+            produce_lock.unlock();
+        }
+        waiting_area_counter.release(CLOSE_PERMITS);
+        service_bays_counter.release(CLOSE_PERMITS);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public int capacity() {
+        return waiting_area_size;
+    }
+
+    long getProduceContention() {
+        return produce_lock.getContendedCount();
+    }
+
+    // waiting_outptr, waiting_inptr and the cars in between, so a
+    // restored line sits in the very same slots
+    @Override
+    public void save(DataOutput out, long now_nanos) throws IOException {
+        out.writeInt(waiting_outptr);
+        out.writeInt(waiting_inptr);
+        out.writeInt(count.get());
+        for (int i = 0; i < count.get(); i++) {
+            Snapshot.writeCar(out, (Car) waiting_area[(waiting_outptr + i) % waiting_area_size], now_nanos);
+        }
+    }
+
+    @Override
+    public void restore(DataInput in, long now_nanos) throws IOException {
+        waiting_outptr = in.readInt();
+        waiting_inptr = in.readInt();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            waiting_area[(waiting_outptr + i) % waiting_area_size] = Snapshot.readCar(in, now_nanos);
+        }
+        count.set(n);
+        waiting_area_counter.tryAcquireUpTo(n);
+        service_bays_counter.release(n);
+    }
+
+    // Spots and cars are released by the other side, so they have no holders
+    @Override
+    public void watch(Watchdog dog) {
+        dog.watch(waiting_area_counter.watch("free spots", false));
+        dog.watch(service_bays_counter.watch("waiting cars", false));
+        dog.watch(produce_lock);
+        dog.watch(consume_lock);
+    }
+}
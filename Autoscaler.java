@@ -0,0 +1,214 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ===================================================================
+// Autoscaler
+// Opens and closes bays while the simulation runs, the way staff open
+// another lane when the line grows. Every interval_ms it looks at
+//   - cars waiting per open bay, and
+//   - p99 time in queue over the last window_ms,
+// and opens a bay when either is at or above its "up" threshold, or
+// closes one when both are at or below the lower "down" threshold.
+// The gap between the two thresholds is the hysteresis; after every
+// change it waits cooldown_ms before deciding again, and then logs
+// how the queue and p99 wait moved since the change.
+//
+// Bays are opened and closed by shared_queue.openBay()/closeBay(),
+// which resize the bay semaphore; the slots for max bays are set up
+// front so the bay array never has to be copied while pumps use it.
+//
+// -Dcarwash.autoscale="min=1 max=8 queue_up=1 queue_down=0.25
+//                      p99_up_ms=2000 p99_down_ms=500 cooldown_ms=3000"
+// ===================================================================
+class Autoscaler {
+
+    static final String PROPERTY = "carwash.autoscale";
+
+    int min_bays = 1;
+    int max_bays = 8;
+    double queue_up = 1.0;    // Cars waiting per open bay
+    double queue_down = 0.25;
+    long p99_up_ms = 2000;
+    long p99_down_ms = 500;
+    long cooldown_ms = 3000;
+    long window_ms = -1;      // Defaults to cooldown_ms
+    long interval_ms = 250;
+
+    private shared_queue sq;
+    private Executor executor; // Runs the pumps of newly opened bays
+    private EventLog log;
+    private ScheduledExecutorService ticker;
+
+    // --- Only touched on the ticker thread ---
+    private final LatencyRecorder[] window = new LatencyRecorder[64]; // One copy per tick, oldest overwritten
+    private int ticks = 0;
+    private long cooldown_until = 0;
+    private int changes = 0, fewest_bays, most_bays;
+
+    // The last change, reported once its cooldown is over
+    private LatencyRecorder at_change;
+    private String change;
+    private double p99_before_ms;
+    private int queue_before;
+
+    /** Null unless -Dcarwash.autoscale is set. */
+    static Autoscaler fromProperty() {
+        String spec = System.getProperty(PROPERTY);
+        return spec == null || spec.isEmpty() ? null : parse(spec);
+    }
+
+    /** Bay slots a station needs: max if autoscaling can go above num_of_service_bays. */
+    static int maxBaysFromProperty(int num_of_service_bays) {
+        Autoscaler scaler = fromProperty();
+        return scaler == null ? num_of_service_bays : Math.max(num_of_service_bays, scaler.max_bays);
+    }
+
+    static Autoscaler parse(String spec) {
+        Autoscaler a = new Autoscaler();
+        for (String token : spec.trim().split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + token);
+            }
+            String key = token.substring(0, eq);
+            String value = token.substring(eq + 1);
+            switch (key) {
+                case "min":
+                    a.min_bays = Integer.parseInt(value);
+                    break;
+                case "max":
+                    a.max_bays = Integer.parseInt(value);
+                    break;
+                case "queue_up":
+                    a.queue_up = Double.parseDouble(value);
+                    break;
+                case "queue_down":
+                    a.queue_down = Double.parseDouble(value);
+                    break;
+                case "p99_up_ms":
+                    a.p99_up_ms = Long.parseLong(value);
+                    break;
+                case "p99_down_ms":
+                    a.p99_down_ms = Long.parseLong(value);
+                    break;
+                case "cooldown_ms":
+                    a.cooldown_ms = Long.parseLong(value);
+                    break;
+                case "window_ms":
+                    a.window_ms = Long.parseLong(value);
+                    break;
+                case "interval_ms":
+                    a.interval_ms = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown autoscale key: " + key);
+            }
+        }
+        if (a.min_bays < 1 || a.max_bays < a.min_bays) {
+            throw new IllegalArgumentException("Autoscale needs 1 <= min <= max: " + spec);
+        }
+        if (a.queue_down >= a.queue_up || a.p99_down_ms >= a.p99_up_ms) {
+            throw new IllegalArgumentException("Autoscale down thresholds must be below the up ones: " + spec);
+        }
+        if (a.window_ms < 0) {
+            a.window_ms = a.cooldown_ms;
+        }
+        return a;
+    }
+
+    /** Reads -Dcarwash.autoscale and starts scaling sq; null if it isn't set. */
+    static Autoscaler startFromProperty(shared_queue sq, Executor executor, EventLog log) {
+        Autoscaler scaler = fromProperty();
+        if (scaler != null) {
+            scaler.start(sq, executor, log);
+        }
+        return scaler;
+    }
+
+    /** Checks the station every interval_ms on a daemon thread. */
+    void start(shared_queue sq, Executor executor, EventLog log) {
+        this.sq = sq;
+        this.executor = executor;
+        this.log = log;
+        fewest_bays = most_bays = sq.num_of_service_bays;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Autoscaler");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, interval_ms, interval_ms, TimeUnit.MILLISECONDS);
+        log.info(String.format("Autoscaler: %d to %d bays, up at %.2f cars/bay or p99 %d ms,"
+                + " down at %.2f cars/bay and p99 %d ms, cooldown %d ms", min_bays, max_bays, queue_up,
+                p99_up_ms, queue_down, p99_down_ms, cooldown_ms));
+    }
+
+    private void tick() {
+        try {
+            // 1. Window p99: samples since the copy taken window_ms ago
+            LatencyRecorder now = sq.metrics.time_in_queue.copy();
+            int keep = (int) Math.min(window.length - 1, Math.max(1, window_ms / interval_ms));
+            window[ticks % window.length] = now;
+            LatencyRecorder oldest = window[Math.max(0, ticks - keep) % window.length];
+            ticks++;
+            double p99_ms = now.percentileSince(oldest, 99) / 1e6;
+
+            int bays = sq.num_of_service_bays;
+            int queue = sq.metrics.getQueueDepth();
+            double per_bay = (double) queue / bays;
+            if (ticks <= keep || sq.isShutdown() || System.nanoTime() < cooldown_until) {
+                return; // Not before a full window, once arrivals stop, nor while the last change settles
+            }
+
+            // 2. Report what the last change did
+            if (change != null) {
+                log.info(String.format("Autoscaler: since %s: p99 wait %.0f -> %.0f ms, queue %d -> %d", change,
+                        p99_before_ms, now.percentileSince(at_change, 99) / 1e6, queue_before, queue));
+                change = null;
+            }
+
+            // 3. Decide, with a dead band between the up and down thresholds
+            if (bays < max_bays && (per_bay >= queue_up || p99_ms >= p99_up_ms)) {
+                Pump pump = sq.openBay();
+                if (pump != null) {
+                    executor.execute(pump);
+                }
+                changed(now, "opening bay " + (bays + 1), bays + 1, p99_ms, queue, per_bay);
+            } else if (bays > min_bays && per_bay <= queue_down && p99_ms <= p99_down_ms) {
+                sq.closeBay();
+                changed(now, "closing bay " + bays, bays - 1, p99_ms, queue, per_bay);
+            }
+        } catch (RuntimeException e) {
+            log.error("Autoscaler: " + e); // Keep ticking; a thrown task would stop the schedule
+        }
+    }
+
+    private void changed(LatencyRecorder now, String what, int bays, double p99_ms, int queue, double per_bay) {
+        log.info(String.format("Autoscaler: %s (%.2f cars/bay, p99 wait %.0f ms), %d bays open", what, per_bay,
+                p99_ms, bays));
+        changes++;
+        fewest_bays = Math.min(fewest_bays, bays);
+        most_bays = Math.max(most_bays, bays);
+        cooldown_until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cooldown_ms);
+        at_change = now;
+        change = what;
+        p99_before_ms = p99_ms;
+        queue_before = queue;
+    }
+
+    public String getSummary() {
+        return String.format("Autoscaler: %d changes, %d to %d bays open", changes, fewest_bays, most_bays);
+    }
+
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            try {
+                ticker.awaitTermination(1, TimeUnit.SECONDS); // So getSummary() sees the last tick
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
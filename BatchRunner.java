@@ -0,0 +1,368 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ===================================================================
+// BatchRunner
+// Headless parameter sweep for capacity planning. Every combination
+// of waiting-area size, pump count and arrival rate is run on its own
+// shared_queue (own waiting area, bays, metrics and quiet event log),
+// --parallel of them at a time, and the results are written as one
+// CSV or JSON table.
+//   - Cars are generated: Poisson arrivals at the given rate (cars/s),
+//     --service wash times, --cars cars per run, the same --seed for
+//     every combination so they all see the same traffic.
+//   - --speedup K runs every gap and wash K times faster; the results
+//     are scaled back, so they are always in station seconds. A speedup
+//     that leaves less than 5 ms between cars is refused.
+//   - -Dcarwash.admission lets cars drive away or give up; the lost
+//     customers get their own columns, to weigh waiting-area size
+//     against throughput.
+//
+// Usage: java BatchRunner --waiting 5,10 --pumps 2..6 --rate 1..4:0.5
+//            [--cars N] [--service SPEC] [--seed S] [--speedup K] [--parallel N]
+//            [--out results.csv|results.json] [--workload EXTRA...]
+// Ranges are "a..b" or "a..b:step"; lists are comma separated.
+// ===================================================================
+public class BatchRunner {
+
+    // --- One combination of the sweep ---
+    static final class Scenario {
+        final int waiting;
+        final int pumps;
+        final double rate; // Cars per second
+
+        Scenario(int waiting, int pumps, double rate) {
+            this.waiting = waiting;
+            this.pumps = pumps;
+            this.rate = rate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "waiting=%d pumps=%d rate=%.2f/s", waiting, pumps, rate);
+        }
+    }
+
+    // --- What one run measured, in station time ---
+    static final class Result {
+        final Scenario scenario;
+        final long arrivals, served;
+        final long rejected, balked, reneged; // Lost customers, see -Dcarwash.admission
+        final double throughput;  // Cars per second
+        final double utilization; // Mean over the bays, 0..1
+        final int max_queue;
+        final double queue_p50_ms, queue_p99_ms, queue_p999_ms;
+        final double to_bay_p99_ms, service_mean_ms;
+        final double wall_s;
+
+        Result(Scenario scenario, StationMetrics m, long elapsed_nanos, int speedup) {
+            this.scenario = scenario;
+            this.arrivals = m.getArrivals();
+            this.served = m.getServed();
+            this.rejected = m.getRejected();
+            this.balked = m.getBalked();
+            this.reneged = m.getReneged();
+            this.throughput = served / (elapsed_nanos / 1e9 * speedup);
+            double[] u = m.getBayUtilization();
+            double sum = 0;
+            for (int i = 0; i < scenario.pumps; i++) {
+                sum += u[i];
+            }
+            this.utilization = sum / scenario.pumps;
+            this.max_queue = m.getMaxQueueDepth();
+            this.queue_p50_ms = m.time_in_queue.percentile(50) * speedup / 1e6;
+            this.queue_p99_ms = m.time_in_queue.percentile(99) * speedup / 1e6;
+            this.queue_p999_ms = m.time_in_queue.percentile(99.9) * speedup / 1e6;
+            this.to_bay_p99_ms = m.time_to_bay.percentile(99) * speedup / 1e6;
+            this.service_mean_ms = m.service_time.mean() * speedup / 1e6;
+            this.wall_s = elapsed_nanos / 1e9;
+        }
+    }
+
+    static final String[] COLUMNS = { "waiting", "pumps", "rate_per_s", "arrivals", "served", "rejected", "balked",
+            "reneged", "throughput_per_s",
+            "utilization", "max_queue", "queue_p50_ms", "queue_p99_ms", "queue_p999_ms", "to_bay_p99_ms",
+            "service_mean_ms", "wall_s" };
+
+    static final double MIN_SCALED_GAP_MS = 5; // Shortest mean sped-up arrival gap
+
+    private final List<Scenario> scenarios;
+    private final String workload; // Everything but the arrival rate
+    private final int speedup;
+    private final int parallel;
+
+    BatchRunner(List<Scenario> scenarios, String workload, int speedup, int parallel) {
+        this.scenarios = scenarios;
+        this.workload = workload;
+        this.speedup = speedup;
+        this.parallel = parallel;
+    }
+
+    /** Runs every scenario, --parallel at a time; results come back in sweep order. */
+    public List<Result> run(PrintStream progress) throws InterruptedException, ExecutionException {
+        ExecutorService runners = Executors.newFixedThreadPool(parallel);
+        AtomicInteger done = new AtomicInteger();
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Scenario s : scenarios) {
+            futures.add(runners.submit(() -> {
+                Result r = runOne(s);
+                progress.printf(Locale.ROOT, "[%d/%d] %s: %.2f cars/s, p99 wait %.0f ms (%.1f s)%n",
+                        done.incrementAndGet(), scenarios.size(), s, r.throughput, r.queue_p99_ms, r.wall_s);
+                return r;
+            }));
+        }
+        runners.shutdown();
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Future<Result> f : futures) {
+                results.add(f.get());
+            }
+        } finally {
+            runners.shutdownNow(); // One run failed: don't wait for the rest
+        }
+        return results;
+    }
+
+    // One isolated station: nothing is shared with the other runs
+    private Result runOne(Scenario s) throws InterruptedException {
+        EventLog log = new EventLog(); // No sinks: runs are quiet
+        shared_queue sq = new shared_queue(s.waiting, s.pumps, log);
+        sq.timing = new SimulationTiming(0, Math.round((double) SimulationTiming.DEFAULT.login_ms / speedup), 0);
+        if (sq.admission.patience_ms > 0) {
+            // Station time, like the gaps
+            sq.admission.patience_ms = Math.max(1, Math.round((double) sq.admission.patience_ms / speedup));
+        }
+        String spec = String.format(Locale.ROOT, "%s arrivals=poisson:%.3f", workload, 1000.0 / s.rate);
+        // -Dcarwash.lanes splits the traffic over entry lanes, each sped up on its own
+        CarProducer[] lanes = CarProducer.fromProperty(sq, WorkloadGenerator.parse(spec), this::scaled);
+
+        ExecutionMode mode = ExecutionMode.fromProperty();
+        mode.checkProducers(lanes.length);
+        ExecutorService executor = mode.newExecutor();
+        long start = System.nanoTime();
+        for (CarProducer lane : lanes) {
+            executor.execute(lane);
+        }
+        for (int i = 0; i < s.pumps; i++) {
+            executor.execute(new Pump(sq, "Pump " + (i + 1), i));
+        }
+        try {
+            sq.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+            log.close();
+            sq.metrics.close();
+        }
+        return new Result(s, sq.metrics, System.nanoTime() - start, speedup);
+    }
+
+    // The generated cars with every gap and wash divided by speedup. Washes are
+    // rounded; gaps keep the exact sped-up arrival time and sleep up to it, so
+    // the remainders carry forward instead of adding up to a higher rate.
+    private Iterator<?> scaled(Iterator<?> cars) {
+        return new Iterator<Car>() {
+            private long arrival_ms;   // Unscaled arrival time of the last car
+            private long scaled_ms;    // Scaled arrival time it was given
+
+            @Override
+            public boolean hasNext() {
+                return cars.hasNext();
+            }
+
+            @Override
+            public Car next() {
+                Car c = (Car) cars.next();
+                arrival_ms += c.gap_ms;
+                long at = Math.round((double) arrival_ms / speedup);
+                long gap = at - scaled_ms;
+                scaled_ms = at;
+                return new Car(c.id, c.name, gap, Math.round((double) c.service_ms / speedup), c.service_class,
+                        c.wash_type);
+            }
+        };
+    }
+
+    // -----------------------------------------------------------------
+    //  Output
+    // -----------------------------------------------------------------
+
+    static Object[] row(Result r) {
+        return new Object[] { r.scenario.waiting, r.scenario.pumps, r.scenario.rate, r.arrivals, r.served, r.rejected,
+                r.balked, r.reneged, r.throughput, r.utilization, r.max_queue, r.queue_p50_ms, r.queue_p99_ms, r.queue_p999_ms,
+                r.to_bay_p99_ms, r.service_mean_ms, r.wall_s };
+    }
+
+    static void writeCsv(List<Result> results, PrintStream out) {
+        out.println(String.join(",", COLUMNS));
+        for (Result r : results) {
+            Object[] values = row(r);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                sb.append(i == 0 ? "" : ",").append(format(values[i]));
+            }
+            out.println(sb);
+        }
+    }
+
+    static void writeJson(List<Result> results, PrintStream out) {
+        out.println("[");
+        for (int r = 0; r < results.size(); r++) {
+            Object[] values = row(results.get(r));
+            StringBuilder sb = new StringBuilder("  {");
+            for (int i = 0; i < values.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append('"').append(COLUMNS[i]).append("\": ").append(format(values[i]));
+            }
+            out.println(sb.append(r + 1 < results.size() ? "}," : "}"));
+        }
+        out.println("]");
+    }
+
+    // Always a '.' decimal point, whatever the default locale
+    private static String format(Object value) {
+        return value instanceof Double ? String.format(Locale.ROOT, "%.3f", (Double) value) : value.toString();
+    }
+
+    // -----------------------------------------------------------------
+    //  Sweep spec
+    // -----------------------------------------------------------------
+
+    /** "5,10", "2..6" or "1..4:0.5", or a mix: "1,2,5..8". */
+    static List<Double> values(String spec) {
+        List<Double> values = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            int dots = part.indexOf("..");
+            if (dots < 0) {
+                values.add(Double.parseDouble(part.trim()));
+                continue;
+            }
+            String[] to_step = part.substring(dots + 2).split(":");
+            double from = Double.parseDouble(part.substring(0, dots).trim());
+            double to = Double.parseDouble(to_step[0].trim());
+            double step = to_step.length > 1 ? Double.parseDouble(to_step[1].trim()) : 1;
+            if (step <= 0 || to < from) {
+                throw new IllegalArgumentException("Bad range: " + part);
+            }
+            for (int i = 0; from + i * step <= to + 1e-9; i++) {
+                values.add(from + i * step);
+            }
+        }
+        return values;
+    }
+
+    static List<Scenario> sweep(String waiting, String pumps, String rate) {
+        List<Scenario> scenarios = new ArrayList<>();
+        for (double w : values(waiting)) {
+            for (double p : values(pumps)) {
+                for (double r : values(rate)) {
+                    if (w < 1 || p < 1 || r <= 0) {
+                        throw new IllegalArgumentException("Waiting, pumps and rate must be positive");
+                    }
+                    scenarios.add(new Scenario((int) w, (int) p, r));
+                }
+            }
+        }
+        return scenarios;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java BatchRunner --waiting 5,10 --pumps 2..6 --rate 1..4:0.5 [--cars N]"
+                    + " [--service SPEC] [--seed S] [--speedup K] [--parallel N] [--out FILE.csv|FILE.json]"
+                    + " [--workload EXTRA...]");
+            return;
+        }
+
+        String waiting = "5", pumps = "3", rate = "3";
+        String service = "lognormal:" + SimulationTiming.DEFAULT.service_ms + ":0.4";
+        long cars = 200, seed = 1;
+        int speedup = 1;
+        int parallel = Runtime.getRuntime().availableProcessors();
+        String out = null, extra = "";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--waiting":
+                    waiting = args[++i];
+                    break;
+                case "--pumps":
+                    pumps = args[++i];
+                    break;
+                case "--rate":
+                    rate = args[++i];
+                    break;
+                case "--cars":
+                    cars = Long.parseLong(args[++i]);
+                    break;
+                case "--service":
+                    service = args[++i];
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--speedup":
+                    speedup = Integer.parseInt(args[++i]);
+                    break;
+                case "--parallel":
+                    parallel = Integer.parseInt(args[++i]);
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                case "--workload":
+                    extra = String.join(" ", Arrays.asList(args).subList(i + 1, args.length));
+                    i = args.length;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (speedup < 1 || parallel < 1) {
+            throw new IllegalArgumentException("--speedup and --parallel must be at least 1");
+        }
+
+        String workload = String.format("service=%s cars=%d seed=%d %s", service, cars, seed, extra).trim();
+        List<Scenario> scenarios = sweep(waiting, pumps, rate);
+        for (Scenario s : scenarios) {
+            // Sleeps overshoot by a fraction of a millisecond; on gaps this short that is a different rate
+            double gap_ms = 1000.0 / s.rate / speedup;
+            if (speedup > 1 && gap_ms < MIN_SCALED_GAP_MS) {
+                throw new IllegalArgumentException(String.format(Locale.ROOT,
+                        "--speedup %d leaves %.1f ms between cars at %.2f cars/s; keep it at or below %d",
+                        speedup, gap_ms, s.rate, Math.max(1, (int) (1000.0 / s.rate / MIN_SCALED_GAP_MS))));
+            }
+        }
+        System.err.printf("%d runs, %d at a time, workload: %s%n", scenarios.size(), parallel, workload);
+
+        long start = System.nanoTime();
+        List<Result> results = new BatchRunner(scenarios, workload, speedup, parallel).run(System.err);
+        System.err.printf(Locale.ROOT, "Sweep finished in %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+        if (out == null) {
+            writeCsv(results, System.out);
+            return;
+        }
+        try (PrintStream file = new PrintStream(new FileOutputStream(out), false, "UTF-8")) {
+            if (out.endsWith(".json")) {
+                writeJson(results, file);
+            } else {
+                writeCsv(results, file);
+            }
+        } catch (IOException e) {
+            System.err.println("Can't write " + out + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ===================================================================
+// BayDispatcher
+// Picks a bay for each car when bays differ. Every bay keeps the time
+// it is expected to become free, counting the cars already committed
+// to it, and a FIFO of the pumps waiting for it.
+//   - "sed" (shortest expected delay): the bay where this car would be
+//     finished soonest, even if that means waiting for a fast bay
+//     instead of taking a slow free one.
+//   - "round-robin": the first capable free bay from a rotating hint,
+//     otherwise the next capable bay in turn; blind to bay speed.
+// Pumps only hold the lock while choosing; they wait on a Condition.
+// For the Watchdog, a pump waiting for its bay waits on the pumps in
+// the bays.
+// ===================================================================
+class BayDispatcher implements Watched {
+
+    static final String BAYS_PROPERTY = "carwash.bays";
+    static final String POLICY_PROPERTY = "carwash.dispatch";
+
+    private final BayProfile[] bays;
+    private final boolean shortest_expected_delay;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bay_freed = lock.newCondition();
+    private final boolean[] busy;
+    private final long[] free_at_ms;           // When the bay should be free, committed cars included
+    private final ArrayDeque<Object>[] queued; // Pumps committed to each bay, in order
+    private int hint = 0;
+    private final Thread[] occupant;        // Pump thread in each bay
+    private final Map<Thread, Long> waiting_since = new ConcurrentHashMap<>();
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    BayDispatcher(BayProfile[] bays, String policy) {
+        if (!policy.equals("sed") && !policy.equals("round-robin")) {
+            throw new IllegalArgumentException("Unknown dispatch policy: " + policy);
+        }
+        this.bays = bays;
+        this.shortest_expected_delay = policy.equals("sed");
+        this.busy = new boolean[bays.length];
+        this.free_at_ms = new long[bays.length];
+        this.occupant = new Thread[bays.length];
+        this.queued = new ArrayDeque[bays.length];
+        for (int i = 0; i < bays.length; i++) {
+            queued[i] = new ArrayDeque<>();
+        }
+    }
+
+    /** Null unless -Dcarwash.bays is set; shared_queue then keeps its lock-free path. */
+    static BayDispatcher fromProperty(int num_of_service_bays) {
+        String spec = System.getProperty(BAYS_PROPERTY);
+        if (spec == null || spec.isEmpty()) {
+            return null;
+        }
+        return new BayDispatcher(BayProfile.parse(spec, num_of_service_bays),
+                System.getProperty(POLICY_PROPERTY, "sed"));
+    }
+
+    /** Blocks until the chosen bay is free, claims it and returns its index. */
+    int acquire(Object car, long service_ms) throws InterruptedException {
+        WashType type = WashType.of(car);
+        Object me = new Object();
+        lock.lock();
+        try {
+            // 1. Choose, and commit to the bay so the next car sees it as later
+            long now = nowMs();
+            int bay = shortest_expected_delay ? shortestExpectedDelay(type, service_ms, now) : roundRobin(type);
+            free_at_ms[bay] = Math.max(now, free_at_ms[bay]) + bays[bay].serviceMs(type, service_ms);
+            queued[bay].add(me);
+
+            // 2. Wait for our turn at that bay
+            Thread thread = Thread.currentThread();
+            try {
+                if (busy[bay] || queued[bay].peek() != me) {
+                    waiting_since.put(thread, System.nanoTime());
+                }
+                while (busy[bay] || queued[bay].peek() != me) {
+                    bay_freed.await(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                queued[bay].remove(me);
+                bay_freed.signalAll();
+                throw e;
+            } finally {
+                waiting_since.remove(thread);
+            }
+            queued[bay].poll();
+            busy[bay] = true;
+            occupant[bay] = thread;
+            return bay;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(int bay) {
+        lock.lock();
+        try {
+            busy[bay] = false;
+            occupant[bay] = null;
+            if (queued[bay].isEmpty()) {
+                free_at_ms[bay] = Math.min(free_at_ms[bay], nowMs()); // Finished early: free now
+            }
+            bay_freed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String watchName() {
+        return "bay dispatcher";
+    }
+
+    @Override
+    public Map<Thread, Long> waitingSince() {
+        return waiting_since;
+    }
+
+    @Override
+    public Collection<Thread> holders() {
+        List<Thread> in_bays = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Thread t : occupant) {
+                if (t != null) {
+                    in_bays.add(t);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return in_bays;
+    }
+
+    /** Time the car actually spends washing on that bay. */
+    long serviceMs(int bay, Object car, long service_ms) {
+        return bays[bay].serviceMs(WashType.of(car), service_ms);
+    }
+
+    private int shortestExpectedDelay(WashType type, long service_ms, long now) {
+        int best = -1;
+        long best_done = Long.MAX_VALUE;
+        for (int i = 0; i < bays.length; i++) {
+            if (!bays[i].canServe(type)) {
+                continue;
+            }
+            long done = Math.max(now, free_at_ms[i]) + bays[i].serviceMs(type, service_ms);
+            if (done < best_done) {
+                best = i;
+                best_done = done;
+            }
+        }
+        return best;
+    }
+
+    private int roundRobin(WashType type) {
+        int start = hint;
+        hint = (hint + 1) % bays.length;
+        for (int i = 0; i < bays.length; i++) {
+            int bay = (start + i) % bays.length;
+            if (bays[bay].canServe(type) && !busy[bay] && queued[bay].isEmpty()) {
+                return bay;
+            }
+        }
+        for (int i = 0; i < bays.length; i++) {
+            int bay = (start + i) % bays.length;
+            if (bays[bay].canServe(type)) {
+                return bay;
+            }
+        }
+        throw new IllegalStateException("No bay offers " + type);
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
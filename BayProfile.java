@@ -0,0 +1,66 @@
+// ===================================================================
+// BayProfile
+// What one bay can do: a service rate per wash type, 0 = not offered.
+// A touchless bay might wash basic cars at rate 2 and not detail at
+// all; a full-detail bay does both, more slowly.
+// ===================================================================
+final class BayProfile {
+
+    static final BayProfile STANDARD = new BayProfile(new double[] { 1.0, 1.0 });
+
+    private final double[] rates; // Indexed by WashType.ordinal()
+
+    BayProfile(double[] rates) {
+        this.rates = rates;
+    }
+
+    boolean canServe(WashType type) {
+        return rates[type.ordinal()] > 0;
+    }
+
+    /** How long a wash of service_ms (at rate 1, basic) takes on this bay. */
+    long serviceMs(WashType type, long service_ms) {
+        return Math.round(service_ms * type.work / rates[type.ordinal()]);
+    }
+
+    /**
+     * Parses "2*basic@2,2*basic@0.8+detail@1": two bays washing basic cars
+     * at double speed, then two that do both (basic a bit slower).
+     */
+    static BayProfile[] parse(String spec, int num_of_service_bays) {
+        BayProfile[] bays = new BayProfile[num_of_service_bays];
+        int bay = 0;
+        for (String entry : spec.split(",")) {
+            int n = 1;
+            int star = entry.indexOf('*');
+            if (star >= 0) {
+                n = Integer.parseInt(entry.substring(0, star).trim());
+                entry = entry.substring(star + 1);
+            }
+            double[] rates = new double[WashType.values().length];
+            for (String offer : entry.split("\\+")) {
+                String[] tr = offer.split("@");
+                rates[WashType.valueOf(tr[0].trim().toUpperCase()).ordinal()] = Double.parseDouble(tr[1]);
+            }
+            for (int i = 0; i < n; i++) {
+                if (bay == num_of_service_bays) {
+                    throw new IllegalArgumentException("More bay profiles than bays: " + spec);
+                }
+                bays[bay++] = new BayProfile(rates);
+            }
+        }
+        while (bay < num_of_service_bays) {
+            bays[bay++] = STANDARD; // Unlisted bays are ordinary ones
+        }
+        for (WashType type : WashType.values()) {
+            boolean served = false;
+            for (BayProfile b : bays) {
+                served |= b.canServe(type);
+            }
+            if (!served) {
+                throw new IllegalArgumentException("No bay offers " + type.name().toLowerCase() + " washes: " + spec);
+            }
+        }
+        return bays;
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// ===================================================================
+// BlockingQueueWaitingArea
+// A plain java.util.concurrent.ArrayBlockingQueue, as a baseline. It
+// has no close(), so blocked calls wake up every CLOSE_CHECK_MS to
+// look at the closed flag.
+// ===================================================================
+class BlockingQueueWaitingArea implements WaitingArea {
+
+    private static final long CLOSE_CHECK_MS = 10;
+
+    private final ArrayBlockingQueue<Object> queue;
+    private volatile boolean closed = false;
+
+    BlockingQueueWaitingArea(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public boolean put(Object car) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(car, CLOSE_CHECK_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean offer(Object car) {
+        return !closed && queue.offer(car);
+    }
+
+    @Override
+    public Object take() throws InterruptedException {
+        while (true) {
+            Object car = queue.poll(CLOSE_CHECK_MS, TimeUnit.MILLISECONDS);
+            if (car != null || closed && queue.isEmpty()) {
+                return car;
+            }
+        }
+    }
+
+    @Override
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int capacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+}
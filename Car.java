@@ -0,0 +1,56 @@
+// ===================================================================
+// Car
+// One car in the simulation. Immutable: produce() stamps the arrival
+// time by making a copy, so a car can be handed between threads
+// without any locking.
+//   id, name           - C1, C2, ... (the name is what the log prints)
+//   gap_ms             - time since the previous car arrived
+//   service_ms         - length of a basic wash on a rate-1 bay
+//   service_class      - queue priority, see ServiceClass
+//   wash_type          - the wash it asked for, see WashType
+//   arrival_nanos      - when it joined the waiting area, 0 before that
+// ===================================================================
+final class Car {
+
+    final long id;
+    final String name;
+    final long gap_ms;
+    final long service_ms;
+    final ServiceClass service_class;
+    final WashType wash_type;
+    final long arrival_nanos;
+
+    Car(long id, String name, long gap_ms, long service_ms, ServiceClass service_class, WashType wash_type) {
+        this(id, name, gap_ms, service_ms, service_class, wash_type, 0);
+    }
+
+    private Car(long id, String name, long gap_ms, long service_ms, ServiceClass service_class, WashType wash_type,
+            long arrival_nanos) {
+        this.id = id;
+        this.name = name;
+        this.gap_ms = gap_ms;
+        this.service_ms = service_ms;
+        this.service_class = service_class;
+        this.wash_type = wash_type;
+        this.arrival_nanos = arrival_nanos;
+    }
+
+    /** A standard, basic-wash car that follows the station's fixed timing. */
+    static Car named(long id, String name, SimulationTiming timing) {
+        return new Car(id, name, timing.arrival_ms, timing.service_ms, ServiceClass.STANDARD, WashType.BASIC);
+    }
+
+    /** Generated cars pass through; anything else (a typed-in name) becomes a named car. */
+    static Car from(Object item, long id, SimulationTiming timing) {
+        return item instanceof Car ? (Car) item : named(id, item.toString(), timing);
+    }
+
+    Car arrivedAt(long nanos) {
+        return new Car(id, name, gap_ms, service_ms, service_class, wash_type, nanos);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// ===================================================================
+// CarProducer (The Producer)
+// Turns each car name (or generated Car) into a Car and brings it to
+// the station. A Runnable, so it can run on a platform or a virtual
+// thread. Every front end runs this same producer.
+// With -Dcarwash.lanes=<lanes>[:<batch>] several producers (entry
+// lanes) feed the one waiting area. Each lane has its own share of
+// the cars and nothing else in common with the other lanes: cars
+// that arrive back to back are staged in the lane and put into the
+// waiting area together (WaitingArea.putAll), so lanes meet once per
+// batch instead of once per car. A lane never holds a staged car
+// while it sleeps for the next arrival, nor while the station is
+// paused for a snapshot; save() then records how far it has got.
+// ===================================================================
+class CarProducer implements Runnable {
+
+    static final String LANES_PROPERTY = "carwash.lanes";
+    static final int DEFAULT_BATCH = 8;
+
+    shared_queue sq;
+    Iterator<?> cars; // Car names, or a WorkloadGenerator streaming Cars
+
+    private final int lane, lanes;          // Which lane this is, of how many
+    private final Car[] staged;             // Arrived, not yet in the waiting area
+    private final AtomicInteger open_lanes; // The last lane to finish drains the station
+    private long last_id;                   // Id of this lane's last car so far
+
+    CarProducer(shared_queue sq, String car_names[]) {
+
+        this(sq, Arrays.asList(car_names).iterator());
+    }
+
+    CarProducer(shared_queue sq, Iterator<?> cars) {
+
+        this(sq, cars, 0, 1, 1, new AtomicInteger(1));
+    }
+
+    private CarProducer(shared_queue sq, Iterator<?> cars, int lane, int lanes, int batch, AtomicInteger open_lanes) {
+
+        this.sq = sq;
+        this.cars = cars;
+        this.lane = lane;
+        this.lanes = lanes;
+        this.staged = new Car[batch];
+        this.open_lanes = open_lanes;
+        this.last_id = lane + 1 - lanes; // Named cars keep their place in the whole list
+        sq.laneStarted(this);
+
+    }
+
+    // Where this lane has got to: its place, batch size, last car id and
+    // its car source. Only called while the lane waits at its safe point.
+    void save(DataOutput out) throws IOException {
+
+        out.writeInt(lane);
+        out.writeInt(lanes);
+        out.writeInt(staged.length);
+        out.writeLong(last_id);
+        cars = Snapshot.writeSource(out, cars);
+    }
+
+    static CarProducer restore(shared_queue sq, DataInput in, AtomicInteger open_lanes) throws IOException {
+
+        int lane = in.readInt();
+        int lanes = in.readInt();
+        int batch = in.readInt();
+        long last_id = in.readLong();
+        CarProducer p = new CarProducer(sq, Snapshot.readSource(in), lane, lanes, batch, open_lanes);
+        p.last_id = last_id;
+        return p;
+    }
+
+    /** The producers asked for by -Dcarwash.lanes; one unbatched lane when unset. */
+    static CarProducer[] fromProperty(shared_queue sq, Iterator<?> cars) {
+
+        return fromProperty(sq, cars, Function.identity());
+    }
+
+    // each_lane wraps every lane's share, e.g. BatchRunner's speed-up
+    static CarProducer[] fromProperty(shared_queue sq, Iterator<?> cars, Function<Iterator<?>, Iterator<?>> each_lane) {
+
+        String spec = System.getProperty(LANES_PROPERTY);
+        if (spec == null) {
+            return new CarProducer[] { new CarProducer(sq, each_lane.apply(cars)) };
+        }
+        String[] parts = spec.split(":");
+        int lanes = Integer.parseInt(parts[0].trim());
+        int batch = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : DEFAULT_BATCH;
+        if (lanes < 1 || batch < 1) {
+            throw new IllegalArgumentException("Lanes and batch size must be at least 1: " + spec);
+        }
+        return lanes(sq, split(cars, lanes), batch, each_lane);
+    }
+
+    static CarProducer[] lanes(shared_queue sq, List<Iterator<?>> per_lane, int batch,
+            Function<Iterator<?>, Iterator<?>> each_lane) {
+
+        AtomicInteger open_lanes = new AtomicInteger(per_lane.size());
+        CarProducer[] producers = new CarProducer[per_lane.size()];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new CarProducer(sq, each_lane.apply(per_lane.get(i)), i, producers.length, batch,
+                    open_lanes);
+        }
+        return producers;
+    }
+
+    // A WorkloadGenerator forks one generator per lane (same mix, 1/lanes
+    // of the rate). Anything else must be finite, e.g. typed car names,
+    // and is dealt round-robin: lane i gets cars i, i + lanes, ...
+    static List<Iterator<?>> split(Iterator<?> cars, int lanes) {
+
+        List<Iterator<?>> per_lane = new ArrayList<>();
+        if (lanes == 1) {
+            per_lane.add(cars);
+        } else if (cars instanceof WorkloadGenerator) {
+            for (int i = 0; i < lanes; i++) {
+                per_lane.add(((WorkloadGenerator) cars).lane(i, lanes));
+            }
+        } else {
+            List<List<Object>> dealt = new ArrayList<>();
+            for (int i = 0; i < lanes; i++) {
+                dealt.add(new ArrayList<>());
+            }
+            for (int i = 0; cars.hasNext(); i++) {
+                dealt.get(i % lanes).add(cars.next());
+            }
+            for (List<Object> share : dealt) {
+                per_lane.add(share.iterator());
+            }
+        }
+        return per_lane;
+    }
+
+    @Override
+    public void run() {
+
+        Thread thread = Thread.currentThread();
+        String thread_name = thread.getName();
+        // So thread dumps and the watchdog name it
+        thread.setName(lanes == 1 ? "Car arrivals" : "Car arrivals (lane " + (lane + 1) + ")");
+        try {
+            int n = 0;
+            while (cars.hasNext()) {
+
+                // 0. Between two arrivals, with nothing staged, wait out a pause
+                if (sq.isPausing()) {
+                    boolean open = n == 0 || sq.publish(staged, n);
+                    n = 0;
+                    if (!open) {
+                        break;
+                    }
+                    sq.safePoint(false);
+                }
+                Car car = Car.from(cars.next(), last_id += lanes, sq.timing);
+                // 1. Publish what is staged before sleeping for this car
+                if (n > 0 && car.gap_ms > 0) {
+                    boolean open = sq.publish(staged, n);
+                    n = 0;
+                    if (!open) {
+                        break; // The station is shutting down
+                    }
+                }
+                // 2. Arrive, then stage; a full stage is published at once
+                n = sq.arrive(car, staged, n);
+                if (n < 0) {
+                    n = 0;
+                    break;
+                }
+                if (n == staged.length) {
+                    boolean open = sq.publish(staged, n);
+                    n = 0;
+                    if (!open) {
+                        break;
+                    }
+                }
+            }
+            if (n > 0) {
+                sq.publish(staged, n);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sq.log.error("Car arrivals were interrupted");
+        } finally {
+            thread.setName(thread_name);
+            Arrays.fill(staged, null);
+            sq.laneFinished(this);
+            if (open_lanes.decrementAndGet() == 0) {
+                sq.drain(); // No more arrivals: pumps finish the queue and stop
+            }
+        }
+    }
+
+}
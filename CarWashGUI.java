@@ -0,0 +1,425 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ===================================================================
+// CarWashGUI (The Main Window and Controller)
+// This class builds the GUI and follows the station through its
+// event log (see stationView); the engine never calls into it.
+// ===================================================================
+class CarWashGUI extends JFrame {
+
+    private static final long serialVersionUID = 1L;
+
+    // --- GUI Components ---
+    private JLabel[] pumpLabels;        // Array of labels to show pump status
+    private JPanel pumpsPanel;          // Holds the pump labels; rebuilt for every run
+    private JTextArea logArea;          // The log at the bottom
+    private JLabel waitingCarsLabel;   // Shows number of cars in queue
+    
+    private JPanel inputPanel;
+    private JTextField waitingField, pumpsField, carsField;
+    private JComboBox<String> modeBox;  // platform / virtual / pool:N
+    private JButton startButton;
+    private JButton stopButton;         // Stops the pumps after their current car
+    private JButton pauseButton;        // Pause / Resume at a safe point
+    private JButton saveButton;         // Saves a paused run, see Checkpointer
+    private boolean paused = false;     // Only touched on the EDT
+    private CoalescingRenderer renderer; // Repaints at a fixed rate, see below
+
+    // --- Simulation Components ---
+    private shared_queue sq;
+    private CarProducer[] cars_producers; // One per entry lane
+    private Pump[] pumps_consumer;
+    private ExecutorService executor; // Runs the producer and the pumps
+
+    public CarWashGUI() {
+        // 1. --- Basic Window Setup ---
+        setTitle("Car Wash Simulator");
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setLayout(new BorderLayout(5, 5)); // Add 5px gaps
+        
+        // Use a nice modern look if available
+        try {
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+        } catch (Exception e) {
+            System.out.println("Could not set LookAndFeel");
+        }
+
+        // 2. --- Input Panel (Top) ---
+        inputPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 5));
+        waitingField = new JTextField("5", 3); // 5 = default, 3 = width
+        pumpsField = new JTextField("3", 3);
+        carsField = new JTextField("C1 C2 C3 C4 C5 C6 C7", 20);
+        carsField.setToolTipText("Car names, or a workload like: arrivals=poisson:300 service=lognormal:1000:0.4 cars=50 seed=7");
+        modeBox = new JComboBox<>(new String[] { "platform", "virtual", "pool:4" });
+        modeBox.setEditable(true); // Any "pool:N" can be typed in
+        modeBox.setSelectedItem(System.getProperty(ExecutionMode.PROPERTY, "platform"));
+        startButton = new JButton("Start Simulation");
+        stopButton = new JButton("Stop");
+        stopButton.setEnabled(false);
+        pauseButton = new JButton("Pause");
+        pauseButton.setEnabled(false);
+        saveButton = new JButton("Save");
+        saveButton.setEnabled(false);
+        saveButton.setToolTipText("Saves the paused run; resume it with -Dcarwash.resume=<file>");
+
+        inputPanel.add(new JLabel("Waiting Area:"));
+        inputPanel.add(waitingField);
+        inputPanel.add(new JLabel("Pumps:"));
+        inputPanel.add(pumpsField);
+        inputPanel.add(new JLabel("Cars:"));
+        inputPanel.add(carsField);
+        inputPanel.add(new JLabel("Threads:"));
+        inputPanel.add(modeBox);
+        inputPanel.add(startButton);
+        inputPanel.add(stopButton);
+        inputPanel.add(pauseButton);
+        inputPanel.add(saveButton);
+        add(inputPanel, BorderLayout.NORTH);
+
+        // 3. --- Log Panel (Bottom) ---
+        logArea = new JTextArea(15, 50); // 15 rows high
+        logArea.setEditable(false);
+        JScrollPane logScrollPane = new JScrollPane(logArea);
+        add(logScrollPane, BorderLayout.SOUTH);
+
+        // 4. --- Waiting Label (West) ---
+        waitingCarsLabel = new JLabel("<html>Waiting<br>Cars: 0</html>"); // Use HTML for line break
+        waitingCarsLabel.setFont(new Font("Arial", Font.BOLD, 16));
+        waitingCarsLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        add(waitingCarsLabel, BorderLayout.WEST);
+        renderer = new CoalescingRenderer(waitingCarsLabel, logArea, CoalescingRenderer.DEFAULT_FPS);
+
+        // 5. --- Add the "Start" button logic ---
+        startButton.addActionListener(e -> startSimulation());
+        stopButton.addActionListener(e -> stopSimulation());
+        pauseButton.addActionListener(e -> togglePause());
+        saveButton.addActionListener(e -> saveSimulation());
+
+        // 6. --- Finalize ---
+        pack(); // Smartly resize window to fit components
+        setLocationRelativeTo(null); // Center on screen
+        setVisible(true);
+    }
+    
+    /**
+     * This is called by the "Start" button.
+     */
+    private void startSimulation() {
+        // 1. Disable button to prevent re-clicks
+        startButton.setEnabled(false);
+        
+        // 2. Get user input (none when -Dcarwash.resume carries on a saved run)
+        String resume = System.getProperty(Checkpointer.RESUME_PROPERTY);
+        int waitingSize = Integer.parseInt(waitingField.getText());
+        int numPumps = Integer.parseInt(pumpsField.getText());
+        String carsText = carsField.getText().trim();
+        Iterator<?> cars;
+        ExecutionMode mode;
+        try {
+            // "arrivals=poisson:300 service=lognormal:1000:0.4 cars=50" generates the cars
+            cars = carsText.contains("=")
+                    ? WorkloadGenerator.parse(carsText)
+                    : Arrays.asList(carsText.split(" ")).iterator();
+            mode = ExecutionMode.parse((String) modeBox.getSelectedItem());
+            executor = mode.newExecutor();
+        } catch (RuntimeException ex) {
+            logMessage("Error: " + ex.getMessage());
+            startButton.setEnabled(true);
+            return;
+        }
+        
+        // 3. Create the simulation objects, passing "this" (the GUI)
+        //    Log lines reach the GUI in batches through the event log
+        EventLog log = new EventLog(new GuiSink(this::logMessage)).withFileSinkFromProperty();
+        int maxPumps;
+        try {
+            if (resume != null) {
+                sq = shared_queue.restore(Paths.get(resume), log);
+                numPumps = sq.num_of_service_bays;
+                cars_producers = sq.lanes();
+                log.info("Resumed " + resume + ": " + sq.metrics.getServed() + " cars served so far");
+                updateWaitingCount(sq.metrics.getQueueDepth());
+            } else {
+                sq = new shared_queue(waitingSize, numPumps, log);
+                cars_producers = CarProducer.fromProperty(sq, cars); // -Dcarwash.lanes
+            }
+            mode.checkProducers(cars_producers.length);
+            // No car moves before the tasks start, so the view misses nothing
+            log.addSink(stationView(sq.metrics.getQueueDepth())); // Not 0 when resumed
+            maxPumps = Autoscaler.maxBaysFromProperty(numPumps); // Bays the autoscaler may open
+        } catch (IllegalArgumentException | IOException ex) {
+            logMessage("Error: " + ex.getMessage());
+            log.close();
+            executor.shutdown();
+            startButton.setEnabled(true);
+            return;
+        }
+        
+        // 4. Create the GUI for the Pumps (Center)
+        showPumps(maxPumps, numPumps);
+        sq.metrics.registerMBean("gui");
+        sq.metrics.startReporterFromProperty(log::info);
+        
+        // 5. Create and start all tasks on the chosen executor
+        //    (the producer goes first so a small pool can't starve it;
+        //    the watchdog, if any, before both)
+        Watchdog watchdog = Watchdog.startFromProperty(sq, log);
+        sq.allowPausing(); // For the Pause button
+        Checkpointer checkpointer = Checkpointer.startFromProperty(sq, log);
+        pumps_consumer = new Pump[numPumps];
+        for (CarProducer lane : cars_producers) {
+            executor.execute(lane);
+        }
+        
+        for (int i = 0; i < numPumps; i++) {
+            String pumpName = "Pump " + (i + 1);
+            // Give the Pump its index (i) so it can update the correct label
+            pumps_consumer[i] = new Pump(sq, pumpName, i); 
+            executor.execute(pumps_consumer[i]);
+        }
+        log.info("Running on " + mode + " threads");
+        if (!sq.admission.blocks() || sq.admission.patience_ms > 0) {
+            log.info(sq.admission.toString());
+        }
+        Autoscaler scaler = Autoscaler.startFromProperty(sq, executor, log);
+        stopButton.setEnabled(true);
+        pauseButton.setEnabled(true);
+        
+        // 6. Create a simple "watcher" thread to re-enable the button
+        ExecutorService runExecutor = executor;
+        shared_queue runQueue = sq;
+        new Thread(() -> {
+            try {
+                // Pumps come and go with the autoscaler, so wait for the station first
+                runQueue.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                if (scaler != null) {
+                    scaler.close();
+                    log.info(scaler.getSummary());
+                }
+                if (watchdog != null) {
+                    watchdog.close();
+                    log.info(watchdog.getSummary());
+                }
+                if (checkpointer != null) {
+                    checkpointer.close();
+                    log.info(checkpointer.getSummary());
+                }
+                runExecutor.shutdown(); // No new tasks; wait for the current ones
+                runExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                log.info("All cars processed; simulation ends");
+                log.info(runQueue.metrics.getSnapshot());
+                runQueue.metrics.close();
+                log.close(); // Flush what is left before re-enabling Start
+                // Re-enable the button on the EDT
+                SwingUtilities.invokeLater(() -> {
+                    startButton.setEnabled(true);
+                    stopButton.setEnabled(false);
+                    pauseButton.setEnabled(false);
+                    pauseButton.setText("Pause");
+                    saveButton.setEnabled(false);
+                    paused = false;
+                });
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                logMessage("Watcher thread interrupted; simulation may be incomplete.");
+            }
+        }).start();
+        
+        // 7. Re-draw the window to show the new pumps panel
+        revalidate();
+        pack();
+    }
+
+    // One label per pump; pumps from open on wait for the autoscaler
+    private void showPumps(int count, int open) {
+        if (pumpsPanel != null) {
+            remove(pumpsPanel); // From the previous run
+        }
+        pumpsPanel = new JPanel(new GridLayout(count, 1, 5, 5)); // Grid with gaps
+        pumpsPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        pumpLabels = new JLabel[count];
+        
+        for (int i = 0; i < count; i++) {
+            pumpLabels[i] = new JLabel("Pump " + (i + 1) + (i < open ? ": FREE" : ": CLOSED"));
+            pumpLabels[i].setFont(new Font("Arial", Font.BOLD, 14));
+            pumpLabels[i].setOpaque(true); // Needed to show background color
+            pumpLabels[i].setBackground(i < open ? Color.GREEN : Color.LIGHT_GRAY);
+            pumpLabels[i].setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            pumpsPanel.add(pumpLabels[i]);
+        }
+        add(pumpsPanel, BorderLayout.CENTER);
+        renderer.setPumpLabels(pumpLabels);
+    }
+
+    /**
+     * Plays a recorded trace (-Dcarwash.trace) back into this window at
+     * speed times the recorded pace: the log, the pump labels and the
+     * waiting count, exactly as they moved during the run.
+     */
+    public void replay(Path prefix, double speed) {
+        startButton.setEnabled(false);
+        new Thread(() -> {
+            try {
+                // 1. First pass: how many pumps the run had
+                int pumps = 1;
+                try (TraceReader reader = new TraceReader(prefix)) {
+                    while (reader.hasNext()) {
+                        SimEvent e = reader.next();
+                        pumps = Math.max(pumps, e.pump_index + 1);
+                    }
+                }
+                int count = pumps;
+                SwingUtilities.invokeAndWait(() -> {
+                    showPumps(count, count);
+                    revalidate();
+                    pack();
+                });
+
+                // 2. Second pass: drive the window from the events, as a live run does
+                GuiSink log = new GuiSink(this::logMessage);
+                StationListener view = stationView(0);
+                TraceReplayer.replay(prefix, speed, batch -> {
+                    log.write(batch);
+                    view.write(batch);
+                });
+                logMessage("Replay finished");
+            } catch (Exception ex) {
+                logMessage("Error: can't replay " + prefix + ": " + ex.getMessage());
+            } finally {
+                SwingUtilities.invokeLater(() -> startButton.setEnabled(true));
+            }
+        }, "Trace replay").start();
+    }
+
+    // Pump labels and the waiting count, from the station's events (on
+    // the log's drainer thread; the renderer does the drawing), counting
+    // on from the cars already waiting
+    private StationListener stationView(int alreadyWaiting) {
+        return new StationListener() {
+            private int waiting = alreadyWaiting; // Arrived and not in a bay yet
+
+            @Override
+            public void arrived(Object car) {
+                updateWaitingCount(++waiting);
+            }
+
+            @Override
+            public void bayTaken(String pump, int pumpIndex, Object car, int bay) {
+                updateWaitingCount(Math.max(0, --waiting));
+                updatePumpStatus(pumpIndex, pump + ": " + car, true);
+            }
+
+            @Override
+            public void left(Object car, EventKind why) {
+                updateWaitingCount(Math.max(0, --waiting));
+            }
+
+            @Override
+            public void bayFreed(String pump, int pumpIndex, Object car, int bay) {
+                updatePumpStatus(pumpIndex, pump + ": FREE", false);
+            }
+
+            @Override
+            public void bayOpened(String pump, int pumpIndex, int bay) {
+                updatePumpStatus(pumpIndex, pump + ": FREE", false);
+            }
+
+            @Override
+            public void bayClosed(String pump, int pumpIndex, int bay) {
+                closePump(pumpIndex, pump + ": CLOSED");
+            }
+        };
+    }
+
+    /**
+     * This is called by the "Stop" button. Cars still waiting are not
+     * served; the watcher thread above reports the end of the run.
+     */
+    private void stopSimulation() {
+        stopButton.setEnabled(false);
+        List<Car> unserved = sq.shutdownNow();
+        sq.log.info("Stopping; " + unserved.size() + " waiting cars will not be served");
+        updateWaitingCount(0);
+        if (paused) {
+            togglePause(); // Lets the pumps see the shutdown
+        }
+    }
+
+    /**
+     * This is called by the "Pause" / "Resume" button. Pausing waits for
+     * the pumps to finish their washes, so it runs off the EDT.
+     */
+    private void togglePause() {
+        shared_queue runQueue = sq;
+        if (paused) {
+            paused = false;
+            saveButton.setEnabled(false);
+            pauseButton.setText("Pause");
+            runQueue.resume();
+            return;
+        }
+        pauseButton.setEnabled(false);
+        new Thread(() -> {
+            try {
+                boolean done = runQueue.pause(Checkpointer.PAUSE_TIMEOUT_MS);
+                runQueue.log.info(done ? "Paused at a safe point" : "Could not pause: the station didn't settle");
+                SwingUtilities.invokeLater(() -> {
+                    paused = done;
+                    pauseButton.setText(done ? "Resume" : "Pause");
+                    pauseButton.setEnabled(true);
+                    saveButton.setEnabled(done);
+                });
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Pause").start();
+    }
+
+    /**
+     * This is called by the "Save" button while paused. The file is the
+     * one -Dcarwash.checkpoint names, carwash.snap by default.
+     */
+    private void saveSimulation() {
+        Checkpointer settings = Checkpointer.fromProperty();
+        Path file = settings != null ? settings.file : new Checkpointer().file;
+        try {
+            sq.save(file);
+            sq.log.info("Saved to " + file + "; resume with -Dcarwash.resume=" + file);
+        } catch (IOException | RuntimeException ex) {
+            sq.log.error("Can't save " + file + ": " + ex.getMessage());
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  THREAD-SAFE HELPER METHODS
+    //  Called from the event log's sinks, never by the engine itself.
+    //  They only record the latest state; the renderer draws it at
+    //  most DEFAULT_FPS times a second, so no EDT task is posted here.
+    // -----------------------------------------------------------------
+
+    public void logMessage(String message) {
+        renderer.log(message);
+    }
+
+    public void updatePumpStatus(int pumpIndex, String text, boolean isBusy) {
+        renderer.updatePump(pumpIndex, text, isBusy);
+    }
+
+    // A pump whose bay the autoscaler closed
+    public void closePump(int pumpIndex, String text) {
+        renderer.closePump(pumpIndex, text);
+    }
+
+    public void updateWaitingCount(int count) {
+        renderer.updateWaiting(count);
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ===================================================================
+// Checkpointer
+// Saves a threaded station to a snapshot file every every_ms, so a
+// long run survives the JVM dying; -Dcarwash.resume=<file> carries on
+// from the last save. Each save pauses the station at a safe point
+// (see shared_queue.pause), writes it and lets it go again.
+//   file=<path>    where to save (default carwash.snap)
+//   every_ms=N     how often (default 60000)
+//   stop=true      save once, after every_ms, and end the run there;
+//                  the cars still waiting go into the snapshot instead
+//                  of being served
+//
+// -Dcarwash.checkpoint="file=run.snap every_ms=30000"
+// ===================================================================
+class Checkpointer {
+
+    static final String PROPERTY = "carwash.checkpoint";
+    static final String RESUME_PROPERTY = "carwash.resume";
+    static final long PAUSE_TIMEOUT_MS = 60_000; // Longer than any wash
+
+    Path file = Paths.get("carwash.snap");
+    long every_ms = 60_000;
+    boolean stop = false;
+
+    private shared_queue sq;
+    private EventLog log;
+    private ScheduledExecutorService ticker;
+
+    // --- Only touched on the ticker thread ---
+    private int saves = 0, failures = 0;
+    private long longest_pause_nanos = 0;
+
+    /** Null unless -Dcarwash.checkpoint is set. */
+    static Checkpointer fromProperty() {
+        String spec = System.getProperty(PROPERTY);
+        return spec == null ? null : parse(spec);
+    }
+
+    static Checkpointer parse(String spec) {
+        Checkpointer c = new Checkpointer();
+        for (String token : spec.trim().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue; // -Dcarwash.checkpoint alone: the defaults
+            }
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + token);
+            }
+            String key = token.substring(0, eq);
+            String value = token.substring(eq + 1);
+            switch (key) {
+                case "file":
+                    c.file = Paths.get(value);
+                    break;
+                case "every_ms":
+                    c.every_ms = Long.parseLong(value);
+                    break;
+                case "stop":
+                    c.stop = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown checkpoint key: " + key);
+            }
+        }
+        if (c.every_ms <= 0) {
+            throw new IllegalArgumentException("every_ms must be positive: " + spec);
+        }
+        return c;
+    }
+
+    /** Starts saving if -Dcarwash.checkpoint is set; call before the pumps start. */
+    static Checkpointer startFromProperty(shared_queue sq, EventLog log) {
+        Checkpointer c = fromProperty();
+        if (c != null) {
+            c.start(sq, log);
+        }
+        return c;
+    }
+
+    void start(shared_queue sq, EventLog log) {
+        if (!sq.canSave()) {
+            throw new IllegalArgumentException("Checkpoints need an array, ring or priority waiting area");
+        }
+        this.sq = sq;
+        this.log = log;
+        sq.allowPausing();
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+        if (stop) {
+            ticker.schedule(this::checkpoint, every_ms, TimeUnit.MILLISECONDS);
+        } else {
+            ticker.scheduleWithFixedDelay(this::checkpoint, every_ms, every_ms, TimeUnit.MILLISECONDS);
+        }
+        log.info("Checkpoint: saving to " + file + (stop ? " after " : " every ") + every_ms + " ms");
+    }
+
+    private void checkpoint() {
+        if (sq.isShutdown()) {
+            return; // Draining: nothing left worth resuming
+        }
+        long start = System.nanoTime();
+        try {
+            if (!sq.pause(PAUSE_TIMEOUT_MS)) {
+                failures++;
+                log.error("Checkpoint: the station didn't reach a safe point in " + PAUSE_TIMEOUT_MS + " ms");
+                return;
+            }
+            try {
+                sq.save(file);
+                saves++;
+                log.info(String.format("Checkpoint: saved %s (%d bytes, paused %.1f ms)", file, Files.size(file),
+                        (System.nanoTime() - start) / 1e6));
+                if (stop) {
+                    log.info("Checkpoint: stopping; the " + sq.shutdownNow().size()
+                            + " waiting cars are in the snapshot instead");
+                }
+            } finally {
+                longest_pause_nanos = Math.max(longest_pause_nanos, System.nanoTime() - start);
+                sq.resume();
+            }
+        } catch (IOException e) {
+            failures++;
+            log.error("Checkpoint: can't save " + file + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getSummary() {
+        return String.format("Checkpoint: %d saves to %s, %d failed, longest pause %.1f ms", saves, file, failures,
+                longest_pause_nanos / 1e6);
+    }
+
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            try {
+                ticker.awaitTermination(PAUSE_TIMEOUT_MS, TimeUnit.MILLISECONDS); // Never cut a save short
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
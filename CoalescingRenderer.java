@@ -0,0 +1,174 @@
+import javax.swing.*;
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// ===================================================================
+// CoalescingRenderer
+// Sits between the simulation threads and the Swing components.
+// Threads only overwrite the latest state (per pump, waiting count)
+// or queue log lines; a Swing Timer repaints at a fixed frame rate
+// and only touches what changed since the last frame. However fast
+// events arrive, the EDT does at most one small job per frame and
+// the log keeps only the newest MAX_LOG_LINES lines. Messages queued
+// faster than frames drain them are capped the same way: the oldest
+// are dropped and counted.
+// ===================================================================
+class CoalescingRenderer {
+
+    public static final int DEFAULT_FPS = 30;
+    public static final int MAX_LOG_LINES = 1000;
+
+    // Latest state of one pump label
+    private static final class PumpView {
+        final String text;
+        final boolean busy;
+        final boolean closed; // Bay closed by the autoscaler
+
+        PumpView(String text, boolean busy, boolean closed) {
+            this.text = text;
+            this.busy = busy;
+            this.closed = closed;
+        }
+    }
+
+    private final JLabel waitingLabel;
+    private final JTextArea logArea;
+    private final Timer timer;
+
+    // --- Written by any thread ---
+    private volatile AtomicReferenceArray<PumpView> pumps = new AtomicReferenceArray<>(0);
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ConcurrentLinkedQueue<String> pendingLines = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger(); // Messages, each at least one line
+    private final AtomicInteger droppedSinceFrame = new AtomicInteger();
+    private final LongAdder droppedLines = new LongAdder();
+
+    // --- Only touched on the EDT ---
+    private JLabel[] pumpLabels = new JLabel[0];
+    private PumpView[] shown = new PumpView[0];
+    private int shownWaiting = -1;
+    private final ArrayDeque<String> logView = new ArrayDeque<>();
+
+    CoalescingRenderer(JLabel waitingLabel, JTextArea logArea, int fps) {
+        this.waitingLabel = waitingLabel;
+        this.logArea = logArea;
+        this.timer = new Timer(1000 / fps, e -> render());
+        this.timer.setCoalesce(true); // Skip frames rather than queue them
+        this.timer.start();
+    }
+
+    /** Called on the EDT when a new run creates its pump labels. */
+    public void setPumpLabels(JLabel[] labels) {
+        pumpLabels = labels;
+        shown = new PumpView[labels.length];
+        pumps = new AtomicReferenceArray<>(labels.length);
+    }
+
+    // -----------------------------------------------------------------
+    //  Called from simulation threads: no Swing work, no EDT tasks
+    // -----------------------------------------------------------------
+
+    public void updatePump(int pumpIndex, String text, boolean isBusy) {
+        AtomicReferenceArray<PumpView> current = pumps;
+        if (pumpIndex >= 0 && pumpIndex < current.length()) {
+            current.set(pumpIndex, new PumpView(text, isBusy, false)); // Latest wins
+        }
+    }
+
+    public void closePump(int pumpIndex, String text) {
+        AtomicReferenceArray<PumpView> current = pumps;
+        if (pumpIndex >= 0 && pumpIndex < current.length()) {
+            current.set(pumpIndex, new PumpView(text, false, true));
+        }
+    }
+
+    public void updateWaiting(int count) {
+        waiting.set(count);
+    }
+
+    public void log(String lines) {
+        pendingLines.add(lines);
+        if (pendingCount.incrementAndGet() > MAX_LOG_LINES && pendingLines.poll() != null) {
+            pendingCount.decrementAndGet(); // The view couldn't show it anyway
+            droppedSinceFrame.incrementAndGet();
+            droppedLines.increment();
+        }
+    }
+
+    /** Log messages dropped before they were shown. */
+    public long getDroppedLines() {
+        return droppedLines.sum();
+    }
+
+    // -----------------------------------------------------------------
+    //  One frame, on the EDT
+    // -----------------------------------------------------------------
+
+    private void render() {
+        // 1. Pumps: only labels whose state changed
+        AtomicReferenceArray<PumpView> current = pumps;
+        for (int i = 0; i < shown.length && i < current.length(); i++) {
+            PumpView v = current.get(i);
+            if (v != null && v != shown[i]) {
+                pumpLabels[i].setText(v.text);
+                pumpLabels[i].setBackground(v.closed ? Color.LIGHT_GRAY : v.busy ? Color.RED : Color.GREEN);
+                shown[i] = v;
+            }
+        }
+
+        // 2. Waiting count
+        int w = waiting.get();
+        if (w != shownWaiting) {
+            waitingLabel.setText("<html>Waiting<br>Cars: " + w + "</html>");
+            shownWaiting = w;
+        }
+
+        // 3. Log: everything queued since the last frame, in one update
+        if (pendingLines.isEmpty()) {
+            return;
+        }
+        StringBuilder added = new StringBuilder();
+        boolean trimmed = false;
+        int dropped = droppedSinceFrame.getAndSet(0);
+        if (dropped > 0) {
+            logView.addLast("(" + dropped + " messages dropped, the log couldn't keep up)");
+            added.append(logView.getLast()).append('\n');
+            if (logView.size() > MAX_LOG_LINES) {
+                logView.removeFirst();
+                trimmed = true;
+            }
+        }
+        String block;
+        while ((block = pendingLines.poll()) != null) {
+            pendingCount.decrementAndGet();
+            for (String line : block.split("\n", -1)) {
+                logView.addLast(line);
+                if (logView.size() > MAX_LOG_LINES) {
+                    logView.removeFirst();
+                    trimmed = true; // The whole view is rebuilt, added isn't needed
+                } else if (!trimmed) {
+                    added.append(line).append('\n');
+                }
+            }
+        }
+
+        if (trimmed) {
+            StringBuilder all = new StringBuilder();
+            for (String line : logView) {
+                all.append(line).append('\n');
+            }
+            logArea.setText(all.toString());
+        } else {
+            logArea.append(added.toString());
+        }
+        logArea.setCaretPosition(logArea.getDocument().getLength());
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+}
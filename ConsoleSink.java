@@ -0,0 +1,66 @@
+import java.io.PrintStream;
+import java.util.List;
+
+// ===================================================================
+// ConsoleSink
+// One print per batch, with the same ANSI colors ServiceStationMain uses.
+// ===================================================================
+class ConsoleSink implements EventSink {
+
+    private static final String RESET = "\u001B[0m";
+    private static final String RED = "\u001B[31m";
+    private static final String GREEN = "\u001B[32m";
+    private static final String YELLOW = "\u001B[33m";
+    private static final String BLUE = "\u001B[34m";
+    private static final String PURPLE = "\u001B[35m";
+    private static final String CYAN = "\u001B[36m";
+    private static final String BRIGHT_GREEN = "\u001B[92m";
+    private static final String BRIGHT_YELLOW = "\u001B[93m";
+
+    private final PrintStream out;
+    private final boolean colors;
+
+    ConsoleSink(PrintStream out, boolean colors) {
+        this.out = out;
+        this.colors = colors;
+    }
+
+    @Override
+    public void write(List<SimEvent> batch) {
+        StringBuilder sb = new StringBuilder(batch.size() * 48);
+        for (SimEvent e : batch) {
+            if (colors) {
+                sb.append(color(e.kind)).append(e.format()).append(RESET).append('\n');
+            } else {
+                sb.append(e.format()).append('\n');
+            }
+        }
+        out.print(sb);
+        out.flush();
+    }
+
+    private static String color(EventKind kind) {
+        switch (kind) {
+            case ARRIVED_WAITING:
+                return BRIGHT_YELLOW;
+            case REJECTED:
+            case BALKED:
+            case RENEGED:
+                return YELLOW;
+            case OCCUPIED:
+                return CYAN;
+            case LOGIN:
+                return BLUE;
+            case BAY_FREE:
+            case BAY_OPENED:
+                return GREEN;
+            case BAY_CLOSED:
+            case INFO:
+                return PURPLE;
+            case ERROR:
+                return RED;
+            default:
+                return BRIGHT_GREEN;
+        }
+    }
+}
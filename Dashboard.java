@@ -0,0 +1,423 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// ===================================================================
+// Dashboard
+// A live view of the station for headless boxes: an embedded HTTP
+// server (the JDK's com.sun.net.httpserver) that streams the pumps,
+// the waiting count and the metrics as server-sent events.
+//   GET /          a small page that draws the stream
+//   GET /events    the stream; ?interval_ms=N asks for at most one
+//                  update every N ms (never faster than interval_ms)
+//   GET /metrics   the metrics snapshot as text
+// State is kept the way CoalescingRenderer keeps it: the log's drainer
+// thread overwrites each pump's latest state and stamps it with a
+// version. Every client's thread wakes at its own rate and sends only
+// what changed after the version it saw last (everything on connect),
+// or nothing at all. Pumps and the producer never call in here, so
+// viewers cost the simulation nothing; the drainer does a few stores
+// per event, however many pumps and viewers there are.
+//
+// -Dcarwash.dashboard="port=8080 host=0.0.0.0 interval_ms=250 metrics_ms=1000 max_clients=200"
+// ===================================================================
+class Dashboard implements StationListener {
+
+    static final String PROPERTY = "carwash.dashboard";
+    static final long KEEPALIVE_MS = 15_000; // A comment line, so idle streams stay open
+
+    int port = 8080;
+    String host = "localhost"; // 0.0.0.0 to be seen from other machines
+    long interval_ms = 250;    // The fastest a client may ask for
+    long metrics_ms = 1000;
+    int max_clients = 200;
+
+    private StationMetrics metrics; // Null when replaying a trace
+    private HttpServer server;
+    private ExecutorService executor; // One thread per connected stream
+    private final AtomicInteger clients = new AtomicInteger(); // Streams open now
+    private final AtomicInteger viewers = new AtomicInteger();  // Streams ever opened
+    private volatile boolean closed = false;
+
+    // --- Written by the drainer thread only; read by the clients ---
+    // Each pump's state as a JSON fragment, and the version it changed at
+    private AtomicReferenceArray<String> pumps = new AtomicReferenceArray<>(0);
+    private AtomicLongArray pump_changed = new AtomicLongArray(0);
+    private volatile int waiting = 0;
+    private volatile long waiting_changed = 0;
+    private volatile long version = 0; // Everything up to here is published
+
+    // Metrics JSON, made at most once per metrics_ms for all clients
+    private volatile String metrics_json;
+    private volatile long metrics_made = 0;
+
+    /** Null unless -Dcarwash.dashboard is set. */
+    static Dashboard fromProperty() {
+        String spec = System.getProperty(PROPERTY);
+        return spec == null ? null : parse(spec);
+    }
+
+    static Dashboard parse(String spec) {
+        Dashboard d = new Dashboard();
+        for (String token : spec.trim().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue; // -Dcarwash.dashboard alone: the defaults
+            }
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + token);
+            }
+            String key = token.substring(0, eq);
+            String value = token.substring(eq + 1);
+            switch (key) {
+                case "port":
+                    d.port = Integer.parseInt(value);
+                    break;
+                case "host":
+                    d.host = value;
+                    break;
+                case "interval_ms":
+                    d.interval_ms = Long.parseLong(value);
+                    break;
+                case "metrics_ms":
+                    d.metrics_ms = Long.parseLong(value);
+                    break;
+                case "max_clients":
+                    d.max_clients = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown dashboard key: " + key);
+            }
+        }
+        if (d.interval_ms <= 0 || d.metrics_ms <= 0 || d.max_clients <= 0) {
+            throw new IllegalArgumentException("interval_ms, metrics_ms and max_clients must be positive: " + spec);
+        }
+        return d;
+    }
+
+    /** Serves the station if -Dcarwash.dashboard is set; call before the pumps start. */
+    static Dashboard startFromProperty(shared_queue sq, EventLog log) throws IOException {
+        Dashboard d = fromProperty();
+        if (d != null) {
+            d.start(sq.maxBays(), sq.num_of_service_bays, sq.metrics, log);
+        }
+        return d;
+    }
+
+    // pumps slots, the first open ones open; the log feeds it from now on
+    void start(int pumps, int open, StationMetrics metrics, EventLog log) throws IOException {
+        serve(pumps, open, metrics);
+        log.addSink(this);
+        log.info("Dashboard: " + getUrl());
+    }
+
+    // The server alone; whoever calls write() drives it (TraceReplayer --dashboard)
+    void serve(int pumps, int open, StationMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.pumps = new AtomicReferenceArray<>(pumps);
+        this.pump_changed = new AtomicLongArray(pumps);
+        for (int i = 0; i < pumps; i++) {
+            this.pumps.set(i, pumpJson(i, i < open ? "FREE" : "CLOSED", i < open ? "free" : "closed"));
+        }
+        if (metrics != null) {
+            waiting = metrics.getQueueDepth(); // Not 0 when resumed from a snapshot
+        }
+
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/", this::page);
+        server.createContext("/events", this::stream);
+        server.createContext("/metrics", this::metricsText);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // Virtual threads where there are any, so many viewers stay cheap
+    private static ExecutorService newExecutor() {
+        try {
+            return ExecutionMode.parse("virtual").newExecutor();
+        } catch (UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "Dashboard");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    String getUrl() {
+        return "http://" + host + ":" + server.getAddress().getPort() + "/";
+    }
+
+    // -----------------------------------------------------------------
+    //  State (drainer thread)
+    // -----------------------------------------------------------------
+
+    @Override
+    public void arrived(Object car) {
+        setWaiting(waiting + 1);
+    }
+
+    @Override
+    public void left(Object car, EventKind why) {
+        setWaiting(Math.max(0, waiting - 1));
+    }
+
+    @Override
+    public void bayTaken(String pump, int pump_index, Object car, int bay) {
+        setWaiting(Math.max(0, waiting - 1));
+        setPump(pump_index, car.toString(), "busy");
+    }
+
+    @Override
+    public void bayFreed(String pump, int pump_index, Object car, int bay) {
+        setPump(pump_index, "FREE", "free");
+    }
+
+    @Override
+    public void bayOpened(String pump, int pump_index, int bay) {
+        setPump(pump_index, "FREE", "free");
+    }
+
+    @Override
+    public void bayClosed(String pump, int pump_index, int bay) {
+        setPump(pump_index, "CLOSED", "closed");
+    }
+
+    // Store first, then stamp with the next version, then publish it: a
+    // client that reads version v never misses a change stamped <= v
+    private void setPump(int i, String text, String state) {
+        if (i < 0 || i >= pumps.length()) {
+            return; // Not one of this station's pumps
+        }
+        long next = version + 1;
+        pumps.set(i, pumpJson(i, text, state));
+        pump_changed.set(i, next);
+        version = next;
+    }
+
+    private void setWaiting(int n) {
+        long next = version + 1;
+        waiting = n;
+        waiting_changed = next;
+        version = next;
+    }
+
+    private static String pumpJson(int i, String text, String state) {
+        return "[" + i + "," + quote(text) + ",\"" + state + "\"]";
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Everything that changed after version since and up to upto, as one
+     * JSON object: {"v":upto,"waiting":n,"pumps":[[i,text,state],...]}.
+     * since = -1 gives the whole state.
+     */
+    String delta(long since, long upto) {
+        StringBuilder sb = new StringBuilder("{\"v\":").append(upto);
+        if (waiting_changed > since) {
+            sb.append(",\"waiting\":").append(waiting);
+        }
+        sb.append(",\"pumps\":[");
+        boolean first = true;
+        for (int i = 0; i < pumps.length(); i++) {
+            long changed = pump_changed.get(i);
+            if (changed > since && changed <= upto) { // Later ones go in the next frame
+                sb.append(first ? "" : ",").append(pumps.get(i));
+                first = false;
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    private String metricsJson() {
+        long now = System.nanoTime();
+        String json = metrics_json;
+        if (json == null || now - metrics_made >= TimeUnit.MILLISECONDS.toNanos(metrics_ms)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "{\"arrivals\":%d,\"served\":%d,\"lost\":%d,\"queue\":%d,\"max_queue\":%d,",
+                    metrics.getArrivals(), metrics.getServed(),
+                    metrics.getRejected() + metrics.getBalked() + metrics.getReneged(), metrics.getQueueDepth(),
+                    metrics.getMaxQueueDepth()));
+            sb.append(String.format(Locale.ROOT, "\"throughput\":%.3f,\"queue_p50_ms\":%.1f,\"queue_p99_ms\":%.1f,\"utilization\":[",
+                    metrics.getThroughputPerSecond(), metrics.getTimeInQueueP50Micros() / 1e3,
+                    metrics.getTimeInQueueP99Micros() / 1e3));
+            double[] u = metrics.getBayUtilization();
+            for (int i = 0; i < u.length; i++) {
+                sb.append(i > 0 ? "," : "").append(String.format(Locale.ROOT, "%.3f", u[i]));
+            }
+            json = sb.append("]}").toString();
+            metrics_json = json;
+            metrics_made = now;
+        }
+        return json;
+    }
+
+    // -----------------------------------------------------------------
+    //  HTTP (one server thread per request; a stream keeps its thread)
+    // -----------------------------------------------------------------
+
+    private void stream(HttpExchange ex) throws IOException {
+        if (clients.incrementAndGet() > max_clients) {
+            clients.decrementAndGet();
+            send(ex, 503, "text/plain", "Too many viewers\n");
+            return;
+        }
+        viewers.incrementAndGet();
+        try {
+            long every = Math.max(interval_ms, queryLong(ex, "interval_ms", interval_ms));
+            ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            ex.sendResponseHeaders(200, 0);
+            OutputStream out = ex.getResponseBody();
+
+            long seen = -1; // Version this client has; -1 = nothing yet
+            long next_metrics = 0;
+            long last_write = System.nanoTime();
+            while (!closed) {
+                // 1. What changed since the last frame, if anything
+                long upto = version;
+                StringBuilder frame = new StringBuilder();
+                if (upto != seen) {
+                    frame.append("event: state\ndata: ").append(delta(seen, upto)).append("\n\n");
+                    seen = upto;
+                }
+                // 2. Metrics at their own, slower pace
+                long now = System.nanoTime();
+                if (metrics != null && now >= next_metrics) {
+                    frame.append("event: metrics\ndata: ").append(metricsJson()).append("\n\n");
+                    next_metrics = now + TimeUnit.MILLISECONDS.toNanos(metrics_ms);
+                }
+                if (frame.length() == 0 && now - last_write >= TimeUnit.MILLISECONDS.toNanos(KEEPALIVE_MS)) {
+                    frame.append(": keepalive\n\n");
+                }
+                if (frame.length() > 0) {
+                    out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    last_write = now;
+                }
+                Thread.sleep(every);
+            }
+            // The run is over: the last state, then tell the page
+            String last = "event: state\ndata: " + delta(seen, version) + "\n\n"
+                    + (metrics != null ? "event: metrics\ndata: " + metricsJson() + "\n\n" : "")
+                    + "event: end\ndata: {}\n\n";
+            out.write(last.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // The viewer went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.decrementAndGet();
+            ex.close();
+        }
+    }
+
+    private void metricsText(HttpExchange ex) throws IOException {
+        send(ex, metrics != null ? 200 : 404, "text/plain",
+                metrics != null ? metrics.getSnapshot() + "\n" : "No metrics while replaying a trace\n");
+    }
+
+    private void page(HttpExchange ex) throws IOException {
+        if (!ex.getRequestURI().getPath().equals("/")) {
+            send(ex, 404, "text/plain", "Not found\n");
+            return;
+        }
+        send(ex, 200, "text/html", PAGE);
+    }
+
+    private static void send(HttpExchange ex, int status, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static long queryLong(HttpExchange ex, String key, long otherwise) {
+        String query = ex.getRequestURI().getQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                if (pair.startsWith(key + "=")) {
+                    try {
+                        return Long.parseLong(pair.substring(key.length() + 1));
+                    } catch (NumberFormatException e) {
+                        return otherwise;
+                    }
+                }
+            }
+        }
+        return otherwise;
+    }
+
+    /** Ends every stream (after its last frame) and stops the server; EventLog.close calls it last. */
+    @Override
+    public void close() {
+        if (server == null || closed) {
+            return;
+        }
+        closed = true;
+        server.stop((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(2 * interval_ms) + 1));
+        executor.shutdownNow();
+    }
+
+    public String getSummary() {
+        return "Dashboard: " + viewers.get() + " viewers, " + clients.get() + " still watching at the end";
+    }
+
+    // The whole front end: applies each delta to its pump boxes
+    private static final String PAGE = "<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\">"
+            + "<title>Car Wash</title>\n<style>\n"
+            + "body{font-family:Arial,sans-serif;margin:16px}\n"
+            + "#pumps{display:flex;flex-wrap:wrap;gap:6px}\n"
+            + ".pump{padding:8px 10px;font-weight:bold;min-width:110px}\n"
+            + ".free{background:#4c4}.busy{background:#e44;color:#fff}.closed{background:#ccc}\n"
+            + "pre{background:#f4f4f4;padding:8px}\n"
+            + "</style></head><body>\n"
+            + "<h2>Waiting cars: <span id=\"waiting\">0</span> <small id=\"status\">connecting...</small></h2>\n"
+            + "<div id=\"pumps\"></div>\n<pre id=\"metrics\"></pre>\n<script>\n"
+            + "const pumps = document.getElementById('pumps'), boxes = [];\n"
+            + "const es = new EventSource('events' + location.search);\n"
+            + "es.addEventListener('state', e => {\n"
+            + "  const d = JSON.parse(e.data);\n"
+            + "  document.getElementById('status').textContent = 'live';\n"
+            + "  if (d.waiting !== undefined) document.getElementById('waiting').textContent = d.waiting;\n"
+            + "  for (const [i, text, state] of d.pumps) {\n"
+            + "    while (boxes.length <= i) { const b = document.createElement('div'); pumps.appendChild(b); boxes.push(b); }\n"
+            + "    boxes[i].textContent = 'Pump ' + (i + 1) + ': ' + text;\n"
+            + "    boxes[i].className = 'pump ' + state;\n"
+            + "  }\n"
+            + "});\n"
+            + "es.addEventListener('metrics', e => {\n"
+            + "  document.getElementById('metrics').textContent = JSON.stringify(JSON.parse(e.data), null, 1);\n"
+            + "});\n"
+            + "es.addEventListener('end', () => {\n"
+            + "  document.getElementById('status').textContent = 'run finished'; es.close();\n"
+            + "});\n"
+            + "</script></body></html>\n";
+}
@@ -0,0 +1,531 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// ===================================================================
+// DeterministicScheduler
+// Makes a threaded run reproducible. With -Dcarwash.schedule every
+// producer lane and pump still gets its own thread and runs the same
+// code, but only one of them runs at a time. A thread hands over only
+// where it would block anyway: in a sleep (arrival gap, login, wash)
+// or on a Semaphore (a spot, a car, a bay). Time is virtual, so a
+// sleep costs nothing and 100k cars take seconds, not hours.
+// When several threads could go on at the same instant, a seeded
+// generator picks one. Those picks are the only choices the OS used
+// to make, so the same seed gives the same bay assignments, the same
+// log and the same metrics, down to the nanosecond. record= writes
+// every pick to a file and replay= follows the file again, e.g. to
+// replay a recorded run on the build being bisected. If the station
+// no longer offers the same choices, the replay says where and goes
+// on with the seed.
+//   seed=N         how ties are picked (default 1)
+//   record=<path>  write the picks
+//   replay=<path>  follow a recording (and use its seed)
+// The threads only wait through Semaphore and sleep(), so this needs
+// the array waiting area and identical bays. It can't be combined
+// with the autoscaler, the watchdog or checkpoints, which act on the
+// station in real time.
+//
+// -Dcarwash.schedule="seed=42 record=run.sched"
+// ===================================================================
+final class DeterministicScheduler {
+
+    static final String PROPERTY = "carwash.schedule";
+    // Where virtual time starts: the same every run, and far from 0,
+    // which Car reads as "not arrived", even for a resumed car's age
+    static final long START_NANOS = 1_000_000_000_000L;
+
+    private static final int MAGIC = 0x43575343; // "CWSC"
+    private static final short VERSION = 1;
+
+    private static volatile DeterministicScheduler active; // Owns the clock once installed
+
+    long seed = 1;
+    Path record, replay;
+
+    private EventLog log;
+    private SplitMix64 rng;
+    private DataOutputStream recording;
+    private DataInputStream replaying;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // --- Only touched by the thread whose turn it is (main before start) ---
+    private volatile long now = START_NANOS; // Read by anyone through nanoTime()
+    private final List<Worker> ready = new ArrayList<>(); // Can go on now, in the order they could
+    private final TreeSet<Worker> sleeping = new TreeSet<>(
+            Comparator.comparingLong((Worker w) -> w.wake_at).thenComparingLong(w -> w.timer));
+    private final Map<Object, List<Worker>> waiting = new IdentityHashMap<>(); // Semaphore -> its waiters
+    private boolean started = false;
+    private int threads = 0, live = 0;
+    private long timers = 0;
+    private long turns = 0, ties = 0;
+    private String diverged; // Where a replay stopped following its recording
+
+    // A thread that runs only on its turn
+    private static final class Worker extends Thread {
+        final DeterministicScheduler scheduler;
+        final Runnable task;
+        volatile boolean turn = false;
+        long wake_at = Long.MAX_VALUE; // While in sleeping
+        long timer;                    // Orders sleepers that wake together
+        Object waiting_for;            // While in waiting
+        boolean deadlocked = false;    // Woken to end a deadlock: throws InterruptedException
+
+        Worker(DeterministicScheduler scheduler, Runnable task, int n) {
+            super("Scheduled " + n);
+            setDaemon(true);
+            this.scheduler = scheduler;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            awaitTurn();
+            try {
+                task.run();
+            } finally {
+                scheduler.finished(this);
+            }
+        }
+
+        void awaitTurn() {
+            while (!turn) {
+                LockSupport.park(scheduler);
+            }
+            turn = false;
+        }
+    }
+
+    /** Null unless -Dcarwash.schedule is set. */
+    static DeterministicScheduler fromProperty() {
+        String spec = System.getProperty(PROPERTY);
+        return spec == null ? null : parse(spec);
+    }
+
+    static DeterministicScheduler parse(String spec) {
+        DeterministicScheduler s = new DeterministicScheduler();
+        for (String token : spec.trim().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue; // -Dcarwash.schedule alone: seed 1, nothing recorded
+            }
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + token);
+            }
+            String key = token.substring(0, eq);
+            String value = token.substring(eq + 1);
+            switch (key) {
+                case "seed":
+                    s.seed = Long.parseLong(value);
+                    break;
+                case "record":
+                    s.record = Paths.get(value);
+                    break;
+                case "replay":
+                    s.replay = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown schedule key: " + key);
+            }
+        }
+        if (s.record != null && s.record.equals(s.replay)) {
+            throw new IllegalArgumentException("Can't record over the schedule being replayed: " + spec);
+        }
+        return s;
+    }
+
+    /**
+     * Takes over the clock if -Dcarwash.schedule is set. Call it before
+     * the station is built, so every time it reads is virtual.
+     */
+    static DeterministicScheduler installFromProperty(EventLog log) throws IOException {
+        DeterministicScheduler s = fromProperty();
+        if (s != null) {
+            s.install(log);
+        }
+        return s;
+    }
+
+    void install(EventLog log) throws IOException {
+        this.log = log;
+        if (replay != null) {
+            replaying = new DataInputStream(new BufferedInputStream(Files.newInputStream(replay)));
+            if (replaying.readInt() != MAGIC || replaying.readShort() != VERSION) {
+                replaying.close();
+                throw new IOException(replay + " is not a car wash schedule");
+            }
+            seed = replaying.readLong();
+        }
+        if (record != null) {
+            recording = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(record)));
+            recording.writeInt(MAGIC);
+            recording.writeShort(VERSION);
+            recording.writeLong(seed);
+        }
+        rng = new SplitMix64(seed);
+        log.serialized(); // One thread at a time logs, so the log keeps their exact order
+        active = this;
+        log.info("Schedule: deterministic, seed " + seed + (replay != null ? ", replaying " + replay : "")
+                + (record != null ? ", recording to " + record : ""));
+    }
+
+    /** Fails for a station whose threads would wait where the scheduler can't see it. */
+    void check(shared_queue sq) {
+        if (!sq.waitsOnSemaphores()) {
+            throw new IllegalArgumentException(
+                    "-Dcarwash.schedule needs the array waiting area and identical bays (no -Dcarwash.bays)");
+        }
+        for (String option : new String[] { Autoscaler.PROPERTY, Watchdog.PROPERTY, Checkpointer.PROPERTY }) {
+            if (System.getProperty(option) != null) {
+                throw new IllegalArgumentException("-Dcarwash.schedule can't be combined with -D" + option);
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  The clock and the waits (any thread)
+    // -----------------------------------------------------------------
+
+    /** Virtual time while a schedule is installed, System.nanoTime() otherwise. */
+    static long nanoTime() {
+        DeterministicScheduler s = active;
+        return s == null ? System.nanoTime() : s.now;
+    }
+
+    /** Thread.sleep, in virtual time on a scheduled thread. */
+    static void sleep(long ms) throws InterruptedException {
+        Thread t = Thread.currentThread();
+        if (t instanceof Worker) {
+            Worker me = (Worker) t;
+            me.scheduler.sleepFor(me, ms);
+        } else {
+            Thread.sleep(ms);
+        }
+    }
+
+    /** True on a scheduled thread: it must wait through await(), never park. */
+    static boolean controls(Thread t) {
+        return t instanceof Worker;
+    }
+
+    // Gives up the turn until on is released() or, in virtual time,
+    // deadline passes. Callers check their condition again after it.
+    static void await(Object on, long deadline) throws InterruptedException {
+        Worker me = (Worker) Thread.currentThread();
+        me.scheduler.block(me, on, deadline);
+    }
+
+    // Wakes the scheduled threads waiting on on; they try again in turn
+    static void released(Object on) {
+        DeterministicScheduler s = active;
+        if (s != null && Thread.currentThread() instanceof Worker) {
+            s.wake(on);
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  Threads
+    // -----------------------------------------------------------------
+
+    /** Gives every task its own scheduled thread; none of them runs before start(). */
+    ExecutorService newExecutor() {
+        return new AbstractExecutorService() {
+            private volatile boolean shutdown = false;
+
+            @Override
+            public void execute(Runnable task) {
+                if (shutdown || started) {
+                    throw new RejectedExecutionException("Scheduled threads must be added before start()");
+                }
+                Worker w = new Worker(DeterministicScheduler.this, task, ++threads);
+                live++;
+                ready.add(w); // In the order the front end adds them, so that is fixed too
+                w.start();
+            }
+
+            @Override
+            public void shutdown() {
+                shutdown = true;
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                shutdown = true;
+                return Collections.emptyList();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return shutdown;
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return shutdown && done.getCount() == 0;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                return done.await(timeout, unit);
+            }
+        };
+    }
+
+    /** Hands the first turn out; call once every thread has been added. */
+    void start() {
+        if (started) {
+            throw new IllegalStateException("The schedule has already started");
+        }
+        started = true;
+        Worker first = next();
+        if (first == null) {
+            finish();
+        } else {
+            handOver(null, first);
+        }
+    }
+
+    private void sleepFor(Worker me, long ms) throws InterruptedException {
+        me.wake_at = now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, ms));
+        me.timer = timers++;
+        sleeping.add(me);
+        pass(me);
+    }
+
+    private void block(Worker me, Object on, long deadline) throws InterruptedException {
+        me.waiting_for = on;
+        waiting.computeIfAbsent(on, k -> new ArrayList<>()).add(me);
+        if (deadline != Long.MAX_VALUE) {
+            me.wake_at = Math.max(now, deadline);
+            me.timer = timers++;
+            sleeping.add(me);
+        }
+        pass(me);
+    }
+
+    private void wake(Object on) {
+        List<Worker> waiters = waiting.remove(on);
+        if (waiters != null) {
+            for (Worker w : waiters) {
+                if (w.wake_at != Long.MAX_VALUE) {
+                    sleeping.remove(w); // Released before its timeout
+                    w.wake_at = Long.MAX_VALUE;
+                }
+                w.waiting_for = null;
+                ready.add(w);
+            }
+        }
+    }
+
+    // Gives the turn to whoever goes next (maybe me again) and waits for mine
+    private void pass(Worker me) throws InterruptedException {
+        handOver(me, nextOrUnblock());
+        if (me.deadlocked) {
+            me.deadlocked = false;
+            throw new InterruptedException();
+        }
+    }
+
+    private void finished(Worker me) {
+        live--;
+        Worker next = nextOrUnblock();
+        if (next == null) {
+            finish();
+        } else {
+            handOver(null, next);
+        }
+    }
+
+    private void handOver(Worker me, Worker next) {
+        if (next == me) {
+            return; // Still my turn
+        }
+        next.turn = true; // Publishes everything done on this turn
+        LockSupport.unpark(next);
+        if (me != null) {
+            me.awaitTurn();
+        }
+    }
+
+    // Whoever can go on now; if nobody can, the earliest sleepers, and
+    // the clock moves to when they wake. A tie is a pick.
+    private Worker next() {
+        if (ready.isEmpty() && !sleeping.isEmpty()) {
+            now = Math.max(now, sleeping.first().wake_at);
+        }
+        while (!sleeping.isEmpty() && sleeping.first().wake_at <= now) {
+            Worker w = sleeping.pollFirst();
+            w.wake_at = Long.MAX_VALUE;
+            if (w.waiting_for != null) {
+                waiting.get(w.waiting_for).remove(w); // Its wait timed out
+                w.waiting_for = null;
+            }
+            ready.add(w);
+        }
+        if (ready.isEmpty()) {
+            return null;
+        }
+        turns++;
+        return ready.remove(ready.size() == 1 ? 0 : pick(ready.size()));
+    }
+
+    // Nobody can go on but threads are left: each waits for another, and
+    // on the OS they would hang for good. Interrupt them so the run ends.
+    private Worker nextOrUnblock() {
+        Worker next = next();
+        if (next == null && live > 0 && !waiting.isEmpty()) {
+            log.error(String.format("Schedule: all %d threads are blocked at %.3f ms; interrupting them", live,
+                    (now - START_NANOS) / 1e6));
+            for (List<Worker> waiters : waiting.values()) {
+                for (Worker w : waiters) {
+                    w.waiting_for = null;
+                    w.deadlocked = true;
+                    ready.add(w);
+                }
+            }
+            waiting.clear();
+            next = next();
+        }
+        return next;
+    }
+
+    // -----------------------------------------------------------------
+    //  Picks: from the seed or from the recording
+    // -----------------------------------------------------------------
+
+    private int pick(int choices) {
+        ties++;
+        int choice = -1;
+        if (replaying != null) {
+            try {
+                int recorded = readVarint(replaying);
+                if (recorded == choices) {
+                    choice = readVarint(replaying);
+                } else {
+                    diverge(recorded == 0 ? "the recording ends at tie " + ties
+                            : String.format("tie %d had %d choices when recorded, %d now", ties, recorded, choices));
+                }
+            } catch (IOException e) {
+                diverge("can't read " + replay + " at tie " + ties + ": " + e.getMessage());
+            }
+        }
+        if (choice < 0) {
+            choice = (int) Math.floorMod(rng.nextLong(), (long) choices);
+        }
+        if (recording != null) {
+            try {
+                writeVarint(recording, choices);
+                writeVarint(recording, choice);
+            } catch (IOException e) {
+                log.error("Schedule: can't record to " + record + ": " + e.getMessage());
+                closeQuietly();
+            }
+        }
+        return choice;
+    }
+
+    private void diverge(String where) {
+        diverged = String.format("%s (at %.3f ms)", where, (now - START_NANOS) / 1e6);
+        log.error("Schedule: the replay diverged: " + diverged + "; going on with seed " + seed);
+        try {
+            replaying.close();
+        } catch (IOException e) {
+            // Only read from
+        }
+        replaying = null;
+    }
+
+    // The last thread is done: seal the recording, check the replay's end
+    private void finish() {
+        if (recording != null) {
+            try {
+                writeVarint(recording, 0); // No more picks
+                recording.writeLong(ties);
+                recording.writeLong(now - START_NANOS);
+                recording.close();
+            } catch (IOException e) {
+                log.error("Schedule: can't record to " + record + ": " + e.getMessage());
+            }
+        }
+        if (replaying != null) {
+            try {
+                if (readVarint(replaying) != 0) {
+                    diverge("the run ended after " + ties + " ties, the recording goes on");
+                } else {
+                    long recorded_ties = replaying.readLong();
+                    long recorded_end = replaying.readLong();
+                    if (recorded_ties != ties || recorded_end != now - START_NANOS) {
+                        diverge(String.format("the recording ended after %d ties at %.3f ms", recorded_ties,
+                                recorded_end / 1e6));
+                    } else {
+                        replaying.close();
+                    }
+                }
+            } catch (IOException e) {
+                diverge("can't read the end of " + replay + ": " + e.getMessage());
+            }
+        }
+        done.countDown();
+    }
+
+    private void closeQuietly() {
+        try {
+            recording.close();
+        } catch (IOException e) {
+            // Already reported
+        }
+        recording = null;
+    }
+
+    // 7 bits a byte: picks are between a handful of threads
+    private static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("the recording is cut short");
+            }
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Bad pick in the recording");
+    }
+
+    public String getSummary() {
+        String s = String.format("Schedule: seed %d, %d threads, %d turns, %d ties picked, virtual time %.3f ms", seed,
+                threads, turns, ties, (now - START_NANOS) / 1e6);
+        if (replay != null) {
+            s += diverged == null ? ", replayed " + replay + " exactly" : ", diverged from " + replay + ": " + diverged;
+        }
+        return record != null ? s + ", recorded to " + record : s;
+    }
+}
@@ -0,0 +1,509 @@
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+// ===================================================================
+// DiscreteEventSimulation (Virtual-Clock Mode)
+// Runs the same Car -> waiting area -> Pump -> bay model as shared_queue,
+// but instead of sleeping it keeps a priority queue of timestamped
+// events and jumps the clock straight to the next one.
+// A million cars finish in seconds, and the log lines are exactly the
+// ones the threaded mode prints, so the two runs can be compared.
+// Its whole state is plain data, so save() can checkpoint it between
+// two events and restore() goes on exactly as the run would have,
+// event for event (see Snapshot).
+// ===================================================================
+public class DiscreteEventSimulation {
+
+    // --- Event types ---
+    private static final int ARRIVAL = 0;        // A car reaches the station
+    private static final int BEGIN_SERVICE = 1;  // Login finished, washing starts
+    private static final int FINISH_SERVICE = 2; // Washing finished, bay is freed
+
+    private static final class Event implements Comparable<Event> {
+        final long time;  // Virtual time in ms
+        final long seq;   // Tie breaker: events at the same time run in creation order
+        final int type;
+        final Car car;
+        final int pump;
+        final int bay;
+
+        Event(long time, long seq, int type, Car car, int pump, int bay) {
+            this.time = time;
+            this.seq = seq;
+            this.type = type;
+            this.car = car;
+            this.pump = pump;
+            this.bay = bay;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    public final int waiting_area_size;
+    public final int num_of_service_bays;
+    private final SimulationTiming timing;
+    private Iterator<?> cars;           // Replaced by save() when it had to read a list
+    private final Consumer<String> log; // null = quiet run
+
+    // --- Model state (mirrors shared_queue) ---
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final ArrayDeque<Car> waiting_area = new ArrayDeque<>();
+    private final ArrayDeque<Integer> idle_pumps = new ArrayDeque<>();
+    private int free_bays;
+    private final boolean[] bay_busy;
+    private int service_inptr = 0; // Round-robin hint, as in shared_queue.reserveBay
+    private Car blocked_car = null; // Car the producer holds while the waiting area is full
+
+    private boolean started = false;
+    private long now = 0;
+    private long next_seq = 0;
+    private long next_car_id = 0;
+    private long cars_served = 0;
+
+    DiscreteEventSimulation(int waiting_area_size, int num_of_service_bays, SimulationTiming timing,
+            Iterator<?> cars, Consumer<String> log) {
+        this.waiting_area_size = waiting_area_size;
+        this.num_of_service_bays = num_of_service_bays;
+        this.timing = timing;
+        this.cars = cars;
+        this.log = log;
+        this.free_bays = num_of_service_bays;
+        this.bay_busy = new boolean[num_of_service_bays];
+        for (int i = 0; i < num_of_service_bays; i++) {
+            idle_pumps.add(i);
+        }
+    }
+
+    /**
+     * Runs until every car has been served and returns the virtual time (ms)
+     * at which the last bay became free.
+     */
+    public long run() {
+        runUntil(Long.MAX_VALUE);
+        log("All cars processed; simulation ends");
+        return now;
+    }
+
+    /**
+     * Handles every event up to virtual time until_ms; true while events
+     * are left, i.e. the run can be saved here and carried on.
+     */
+    public boolean runUntil(long until_ms) {
+        if (!started) {
+            started = true;
+            scheduleNextArrival(0);
+        }
+
+        while (!events.isEmpty() && events.peek().time <= until_ms) {
+            Event e = events.poll();
+            now = e.time;
+
+            switch (e.type) {
+                case ARRIVAL:
+                    arrive(e.car);
+                    break;
+                case BEGIN_SERVICE:
+                    log(pumpName(e.pump) + ": " + e.car + " begins service at Bay " + (e.bay + 1));
+                    schedule(now + serviceMs(e.car), FINISH_SERVICE, e.car, e.pump, e.bay);
+                    break;
+                case FINISH_SERVICE:
+                    log(pumpName(e.pump) + ": " + e.car + " finished service");
+                    log(pumpName(e.pump) + ": " + "Bay " + (e.bay + 1) + " is now free");
+                    cars_served++;
+                    free_bays++;
+                    bay_busy[e.bay] = false;
+                    idle_pumps.add(e.pump);
+                    dispatch();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown event type " + e.type);
+            }
+        }
+        return !events.isEmpty();
+    }
+
+    public long getNow() {
+        return now;
+    }
+
+    public long getCarsServed() {
+        return cars_served;
+    }
+
+    // -----------------------------------------------------------------
+    //  Checkpoint / restore
+    // -----------------------------------------------------------------
+
+    /**
+     * Writes the whole model between two events: clock, counters, bays,
+     * idle pumps, the waiting line, the car the producer holds, every
+     * pending event and how far the car source has got.
+     */
+    public void save(Path file) throws IOException {
+        Snapshot.save(file, Snapshot.DES, out -> {
+            out.writeInt(waiting_area_size);
+            out.writeInt(num_of_service_bays);
+            out.writeLong(timing.arrival_ms);
+            out.writeLong(timing.login_ms);
+            out.writeLong(timing.service_ms);
+            out.writeBoolean(log == null);
+
+            out.writeBoolean(started);
+            out.writeLong(now);
+            out.writeLong(next_seq);
+            out.writeLong(next_car_id);
+            out.writeLong(cars_served);
+            out.writeInt(service_inptr);
+            out.writeInt(free_bays);
+            for (boolean busy : bay_busy) {
+                out.writeBoolean(busy);
+            }
+            out.writeInt(idle_pumps.size());
+            for (int pump : idle_pumps) {
+                out.writeInt(pump);
+            }
+            out.writeInt(waiting_area.size());
+            for (Car car : waiting_area) {
+                Snapshot.writeCar(out, car, 0);
+            }
+            out.writeBoolean(blocked_car != null);
+            if (blocked_car != null) {
+                Snapshot.writeCar(out, blocked_car, 0);
+            }
+            // Any order will do: (time, seq) orders them again on the way in
+            out.writeInt(events.size());
+            for (Event e : events) {
+                writeEvent(out, e);
+            }
+            cars = Snapshot.writeSource(out, cars);
+        });
+    }
+
+    /** Whether the run that saved file logged its events. */
+    static boolean wasQuiet(Path file) throws IOException {
+        try (DataInputStream in = Snapshot.open(file, Snapshot.DES)) {
+            in.skipBytes(4 + 4 + 3 * 8);
+            return in.readBoolean();
+        }
+    }
+
+    /** The run saved in file, ready to go on where it stopped. */
+    static DiscreteEventSimulation restore(Path file, Consumer<String> log) throws IOException {
+        try (DataInputStream in = Snapshot.open(file, Snapshot.DES)) {
+            int waiting_area_size = in.readInt();
+            int num_of_service_bays = in.readInt();
+            SimulationTiming timing = new SimulationTiming(in.readLong(), in.readLong(), in.readLong());
+            in.readBoolean(); // Quiet or not is up to the caller, see wasQuiet()
+            DiscreteEventSimulation sim = new DiscreteEventSimulation(waiting_area_size, num_of_service_bays,
+                    timing, null, log);
+
+            sim.started = in.readBoolean();
+            sim.now = in.readLong();
+            sim.next_seq = in.readLong();
+            sim.next_car_id = in.readLong();
+            sim.cars_served = in.readLong();
+            sim.service_inptr = in.readInt();
+            sim.free_bays = in.readInt();
+            for (int i = 0; i < num_of_service_bays; i++) {
+                sim.bay_busy[i] = in.readBoolean();
+            }
+            sim.idle_pumps.clear();
+            for (int n = in.readInt(); n > 0; n--) {
+                sim.idle_pumps.add(in.readInt());
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                sim.waiting_area.add(Snapshot.readCar(in, 0));
+            }
+            if (in.readBoolean()) {
+                sim.blocked_car = Snapshot.readCar(in, 0);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                sim.events.add(readEvent(in));
+            }
+            sim.cars = Snapshot.readSource(in);
+            return sim;
+        }
+    }
+
+    private static void writeEvent(DataOutput out, Event e) throws IOException {
+        out.writeLong(e.time);
+        out.writeLong(e.seq);
+        out.writeByte(e.type);
+        out.writeInt(e.pump);
+        out.writeInt(e.bay);
+        Snapshot.writeCar(out, e.car, 0);
+    }
+
+    private static Event readEvent(DataInput in) throws IOException {
+        long time = in.readLong();
+        long seq = in.readLong();
+        int type = in.readByte();
+        int pump = in.readInt();
+        int bay = in.readInt();
+        return new Event(time, seq, type, Snapshot.readCar(in, 0), pump, bay);
+    }
+
+    // Same order as shared_queue.produce: announce, then wait for a spot
+    private void arrive(Car car) {
+        log(car + " has arrived");
+        if (free_bays == 0) {
+            log(car + " arrived and waiting");
+        }
+
+        if (waiting_area.size() < waiting_area_size) {
+            waiting_area.add(car);
+            scheduleNextArrival(now);
+            dispatch();
+        } else {
+            blocked_car = car; // Producer blocks until a pump frees a spot
+        }
+    }
+
+    // Same order as shared_queue.consume: take car, take bay, free the spot
+    private void dispatch() {
+        while (!waiting_area.isEmpty() && !idle_pumps.isEmpty() && free_bays > 0) {
+            int pump = idle_pumps.poll();
+            Car car = waiting_area.poll();
+
+            free_bays--;
+            int bay = reserveBay();
+            log(pumpName(pump) + ": " + car + " Occupied");
+
+            // The spot is free now, so a blocked producer gets in
+            if (blocked_car != null) {
+                waiting_area.add(blocked_car);
+                blocked_car = null;
+                scheduleNextArrival(now);
+            }
+
+            log(pumpName(pump) + ": " + car + " login");
+            schedule(now + timing.login_ms, BEGIN_SERVICE, car, pump, bay);
+        }
+    }
+
+    // First free bay at or after the round-robin hint
+    private int reserveBay() {
+        int start = service_inptr;
+        service_inptr = (service_inptr + 1) % num_of_service_bays;
+        for (int i = 0; i < num_of_service_bays; i++) {
+            int bay = (start + i) % num_of_service_bays;
+            if (!bay_busy[bay]) {
+                bay_busy[bay] = true;
+                return bay;
+            }
+        }
+        throw new IllegalStateException("No free bay although free_bays > 0");
+    }
+
+    // Generated cars bring their own gap and wash time; plain names use the fixed timing
+    private void scheduleNextArrival(long from) {
+        if (cars.hasNext()) {
+            Car car = Car.from(cars.next(), ++next_car_id, timing);
+            schedule(from + car.gap_ms, ARRIVAL, car, -1, -1);
+        }
+    }
+
+    private static long serviceMs(Car car) {
+        return BayProfile.STANDARD.serviceMs(car.wash_type, car.service_ms); // All bays identical here
+    }
+
+    private void schedule(long time, int type, Car car, int pump, int bay) {
+        events.add(new Event(time, next_seq++, type, car, pump, bay));
+    }
+
+    private void log(String message) {
+        if (log != null) {
+            log.accept(message);
+        }
+    }
+
+    private static String pumpName(int pump) {
+        return "Pump " + (pump + 1);
+    }
+
+    /**
+     * Lazily names cars C1..Cn so huge runs never build a String[].
+     */
+    static Iterator<String> generatedCars(long count) {
+        return new CountedCars(1, count);
+    }
+
+    // A class of its own so a snapshot can save how far it has got
+    static final class CountedCars implements Iterator<String> {
+        private long next;
+        private final long count;
+
+        CountedCars(long next, long count) {
+            this.next = next;
+            this.count = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next <= count;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return "C" + next++;
+        }
+
+        void save(DataOutput out) throws IOException {
+            out.writeLong(next);
+            out.writeLong(count);
+        }
+
+        static CountedCars load(DataInput in) throws IOException {
+            return new CountedCars(in.readLong(), in.readLong());
+        }
+    }
+
+    // Usage:
+    //   java DiscreteEventSimulation <waiting> <pumps> C1 C2 C3 ...   (prints the event log)
+    //   java DiscreteEventSimulation <waiting> <pumps> --count 1000000 (quiet, prints a summary)
+    //   java DiscreteEventSimulation <waiting> <pumps> --workload "arrivals=poisson:300 cars=1000000"
+    // Checkpoints, in front of any of the above:
+    //   --checkpoint FILE --every MS   saves the run to FILE every MS of simulated time
+    //   --stop-at MS                   saves at MS of simulated time and stops there
+    //   --resume FILE                  goes on from FILE instead of starting a run
+    /**
+     * Refuses the station options this model doesn't have: admission,
+     * bay profiles and dispatch, class priority and reserved bays, lanes,
+     * and the tools that need running threads. Ignoring them would print
+     * a log the threaded station never would.
+     */
+    static void checkOptions() {
+        for (String option : new String[] { AdmissionPolicy.PROPERTY, BayDispatcher.BAYS_PROPERTY,
+                BayDispatcher.POLICY_PROPERTY, "carwash.reserved_bays", CarProducer.LANES_PROPERTY,
+                Autoscaler.PROPERTY, DeterministicScheduler.PROPERTY, Watchdog.PROPERTY, Checkpointer.PROPERTY,
+                Dashboard.PROPERTY }) {
+            if (System.getProperty(option) != null) {
+                throw new IllegalArgumentException("The virtual-clock simulation can't be combined with -D" + option);
+            }
+        }
+        if ("priority".equals(System.getProperty("carwash.waiting_area"))) {
+            throw new IllegalArgumentException("The virtual-clock simulation only has a first come, first served line");
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            checkOptions();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        Path checkpoint = null;
+        Path resume = null;
+        long every_ms = Long.MAX_VALUE;
+        long stop_at = Long.MAX_VALUE;
+        int a = 0;
+        while (a < args.length && args[a].startsWith("--") && !args[a].equals("--count")
+                && !args[a].equals("--workload")) {
+            switch (args[a]) {
+                case "--checkpoint":
+                    checkpoint = Paths.get(args[a + 1]);
+                    break;
+                case "--every":
+                    every_ms = Long.parseLong(args[a + 1]);
+                    break;
+                case "--stop-at":
+                    stop_at = Long.parseLong(args[a + 1]);
+                    break;
+                case "--resume":
+                    resume = Paths.get(args[a + 1]);
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[a]);
+                    return;
+            }
+            a += 2;
+        }
+        if (resume == null && args.length - a < 3 || checkpoint == null && (every_ms != Long.MAX_VALUE
+                || stop_at != Long.MAX_VALUE) || every_ms <= 0) {
+            System.out.println("Usage: java DiscreteEventSimulation [--checkpoint FILE (--every MS | --stop-at MS)] "
+                    + "<waiting> <pumps> (<car names...> | --count N | --workload SPEC)");
+            System.out.println("       java DiscreteEventSimulation --resume FILE [--checkpoint FILE ...]");
+            return;
+        }
+
+        DiscreteEventSimulation sim;
+        boolean quiet;
+        if (resume != null) {
+            try {
+                quiet = wasQuiet(resume);
+                sim = restore(resume, quiet ? null : System.out::println);
+            } catch (IOException e) {
+                System.out.println("Can't resume: " + e.getMessage());
+                return;
+            }
+        } else {
+            int waiting_area_size = Integer.parseInt(args[a]);
+            int num_of_service_bays = Integer.parseInt(args[a + 1]);
+
+            quiet = args[a + 2].equals("--count") || args[a + 2].equals("--workload");
+            Iterator<?> cars;
+            if (args[a + 2].equals("--count")) {
+                cars = generatedCars(Long.parseLong(args[a + 3]));
+            } else if (args[a + 2].equals("--workload")) {
+                cars = WorkloadGenerator.parse(String.join(" ", Arrays.asList(args).subList(a + 3, args.length)));
+            } else {
+                cars = Arrays.asList(args).subList(a + 2, args.length).iterator();
+            }
+
+            sim = new DiscreteEventSimulation(waiting_area_size, num_of_service_bays, SimulationTiming.DEFAULT,
+                    cars, quiet ? null : System.out::println);
+        }
+
+        long wall_start = System.nanoTime();
+        long virtual_end;
+        if (checkpoint == null) {
+            virtual_end = sim.run();
+        } else {
+            // Save every every_ms of simulated time, and at stop_at
+            try {
+                long until = sim.getNow();
+                while (true) {
+                    until = every_ms == Long.MAX_VALUE ? stop_at : Math.min(stop_at, until + every_ms);
+                    if (!sim.runUntil(until)) {
+                        break;
+                    }
+                    sim.save(checkpoint);
+                    if (until == stop_at) {
+                        System.out.println("Saved to " + checkpoint + " at " + until + " ms of simulated time");
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Can't save: " + e.getMessage());
+                return;
+            }
+            virtual_end = sim.run(); // Nothing left but the last log line
+        }
+        long wall_ms = (System.nanoTime() - wall_start) / 1_000_000;
+
+        if (quiet) {
+            System.out.println(sim.getCarsServed() + " cars served in " + virtual_end + " ms of simulated time ("
+                    + wall_ms + " ms wall time)");
+        }
+    }
+}
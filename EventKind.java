@@ -0,0 +1,9 @@
+// ===================================================================
+// EventKind
+// Every state change the station can report. New kinds go at the
+// end: traces store the ordinal.
+// ===================================================================
+enum EventKind {
+    ARRIVED, ARRIVED_WAITING, OCCUPIED, LOGIN, BEGIN_SERVICE, FINISHED, BAY_FREE, INFO, ERROR, BAY_OPENED, BAY_CLOSED,
+    REJECTED, BALKED, RENEGED // Left without a wash, see AdmissionPolicy
+}
@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// ===================================================================
+// EventLog (Asynchronous Event Logging)
+// Pump and car threads append events to one of a few lock-free
+// stripes, picked by thread id, and return immediately; one
+// background drainer collects all stripes, orders each batch by time
+// and hands it to the sinks. The stripe count follows the CPUs, not
+// the threads, so 50k virtual-thread pumps cost no more to drain.
+// When a stripe is full the OverflowPolicy decides whether the event
+// is dropped (counted) or the thread waits for the drainer.
+//
+// Ordering: a thread reads the clock just before it claims its slot,
+// so each stripe is in time order. When a stripe stops at a slot that
+// is claimed but not written yet, the drainer holds back the events
+// of other stripes newer than that stripe's last one until the slot is
+// written. So the sinks see events in time order across batches too,
+// except an event whose thread is preempted between reading the clock
+// and claiming its slot: it may come after events newer than it by up
+// to that preemption.
+// ===================================================================
+class EventLog {
+
+    enum OverflowPolicy {
+        DROP,  // Never wait: count and discard the event
+        BLOCK  // Backpressure: wait until the drainer makes room
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 4096; // Per stripe, power of two
+    private static final int MAX_STRIPES = 64;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    // --- Multi-producer / single-consumer ring shared by the threads of one stripe ---
+    private static final class Stripe {
+        final AtomicReferenceArray<SimEvent> ring; // null = claimed but not written yet
+        final int mask;
+        final AtomicLong head = new AtomicLong(); // Drainer position
+        final AtomicLong tail = new AtomicLong(); // Next slot to claim
+
+        Stripe(int size) {
+            this.ring = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        long last_nanos = Long.MIN_VALUE; // Of the last event drained; drainer only
+
+        // The clock is read after tail and before the claim, so a later slot
+        // never has an older time
+        boolean offer(EventKind kind, String pump, int pump_index, Object car, int bay, String text) {
+            while (true) {
+                long t = tail.get();
+                if (t - head.get() >= ring.length()) {
+                    return false;
+                }
+                long nanos = DeterministicScheduler.nanoTime();
+                if (tail.compareAndSet(t, t + 1)) {
+                    // Publish to the drainer
+                    ring.lazySet((int) (t & mask), new SimEvent(nanos, kind, pump, pump_index, car, bay, text));
+                    return true;
+                }
+            }
+        }
+
+        // Stops at the first slot whose thread hasn't written it yet, and
+        // returns true if it did
+        boolean drainTo(List<SimEvent> out) {
+            long h = head.get();
+            long t = tail.get();
+            boolean unwritten = false;
+            for (; h < t; h++) {
+                int idx = (int) (h & mask);
+                SimEvent e = ring.get(idx);
+                if (e == null) {
+                    unwritten = true;
+                    break;
+                }
+                out.add(e);
+                last_nanos = e.nanos;
+                ring.lazySet(idx, null);
+            }
+            head.lazySet(h);
+            return unwritten;
+        }
+
+        boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+    }
+
+    private OverflowPolicy policy; // BLOCK once serialized() or a trace or analytics is attached
+    private final int buffer_size;
+    private final List<EventSink> sinks = new CopyOnWriteArrayList<>();
+    private volatile Stripe[] stripes; // Power of two; just one once serialized()
+
+    private final Object drain_lock = new Object(); // Sinks see one batch at a time
+    private final List<SimEvent> held = new ArrayList<>(); // Drained, newer than an unwritten slot
+    private final Thread drainer;
+    private volatile boolean drainer_idle = false;
+    private volatile boolean closed = false;
+
+    private final LongAdder dropped = new LongAdder();
+
+    EventLog(EventSink... sinks) {
+        this(OverflowPolicy.DROP, DEFAULT_BUFFER_SIZE, sinks);
+    }
+
+    EventLog(OverflowPolicy policy, int buffer_size, EventSink... sinks) {
+        if (Integer.bitCount(buffer_size) != 1) {
+            throw new IllegalArgumentException("Buffer size must be a power of two");
+        }
+        this.policy = policy;
+        this.buffer_size = buffer_size;
+        this.stripes = newStripes(Math.min(MAX_STRIPES, Integer.highestOneBit(
+                Runtime.getRuntime().availableProcessors() * 4 - 1) << 1));
+        for (EventSink sink : sinks) {
+            this.sinks.add(sink);
+        }
+        drainer = new Thread(this::drainLoop, "EventLog drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Adds -Dcarwash.log_file=path (a rotating file log) and
+     * -Dcarwash.trace=prefix (a binary trace, see TraceWriter) and
+     * -Dcarwash.analytics=prefix (see RunAnalytics) when those
+     * properties are set; both front ends call this. A trace or
+     * analytics must see every event, so either switches the log to
+     * OverflowPolicy.BLOCK.
+     */
+    EventLog withFileSinkFromProperty() {
+        String path = System.getProperty("carwash.log_file");
+        if (path != null) {
+            try {
+                sinks.add(new RotatingFileSink(Path.of(path), 10L * 1024 * 1024, 5));
+            } catch (IOException e) {
+                error("Can't open log file " + path + ": " + e.getMessage());
+            }
+        }
+        String trace = System.getProperty("carwash.trace");
+        if (trace != null) {
+            try {
+                sinks.add(new TraceWriter(Path.of(trace), TraceWriter.DEFAULT_SEGMENT_BYTES));
+                policy = OverflowPolicy.BLOCK;
+            } catch (IOException e) {
+                error("Can't open trace " + trace + ": " + e.getMessage());
+            }
+        }
+        RunAnalytics analytics = RunAnalytics.fromProperty();
+        if (analytics != null) {
+            sinks.add(analytics);
+            policy = OverflowPolicy.BLOCK;
+        }
+        return this;
+    }
+
+    /**
+     * Every thread appends to one stripe, and waits instead of dropping
+     * when it is full: the sinks see events in exactly the order they
+     * were logged. For threads that take turns (DeterministicScheduler),
+     * so the log of a run is reproducible. Call before they log.
+     */
+    EventLog serialized() {
+        policy = OverflowPolicy.BLOCK;
+        stripes = newStripes(1);
+        return this;
+    }
+
+    private Stripe[] newStripes(int n) {
+        Stripe[] s = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            s[i] = new Stripe(buffer_size);
+        }
+        return s;
+    }
+
+    public void addSink(EventSink sink) {
+        sinks.add(sink);
+    }
+
+    // -----------------------------------------------------------------
+    //  HOT PATH: called by car and pump threads
+    // -----------------------------------------------------------------
+
+    public void event(EventKind kind, String pump, int pump_index, Object car, int bay) {
+        append(kind, pump, pump_index, car, bay, null);
+    }
+
+    public void info(String text) {
+        append(EventKind.INFO, null, -1, null, -1, text);
+    }
+
+    public void error(String text) {
+        append(EventKind.ERROR, null, -1, null, -1, text);
+    }
+
+    private void append(EventKind kind, String pump, int pump_index, Object car, int bay, String text) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        Stripe[] s = stripes;
+        Stripe stripe = s[(int) SplitMix64.mix(Thread.currentThread().getId()) & (s.length - 1)];
+        while (!stripe.offer(kind, pump, pump_index, car, bay, text)) {
+            if (policy == OverflowPolicy.DROP) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.unpark(drainer);
+            LockSupport.parkNanos(50_000L); // Backpressure: let the drainer catch up
+        }
+        if (drainer_idle) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  DRAINER
+    // -----------------------------------------------------------------
+
+    private void drainLoop() {
+        while (!closed) {
+            if (drainOnce() == 0) {
+                drainer_idle = true;
+                if (!hasPending()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                drainer_idle = false;
+            }
+        }
+    }
+
+    private boolean hasPending() {
+        if (!held.isEmpty()) {
+            return true;
+        }
+        for (Stripe b : stripes) {
+            if (!b.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects every stripe into one time-ordered batch and writes it,
+     * holding back what may be newer than a slot not written yet.
+     */
+    private int drainOnce() {
+        synchronized (drain_lock) {
+            Stripe[] s = stripes;
+            // A stripe drained to its end can only get events claimed from
+            // now on; with one stripe, slot order is already time order
+            long horizon = closed || s.length == 1 ? Long.MAX_VALUE : DeterministicScheduler.nanoTime();
+            List<SimEvent> all = new ArrayList<>(held);
+            held.clear();
+            for (Stripe b : s) {
+                if (b.drainTo(all)) {
+                    horizon = Math.min(horizon, b.last_nanos);
+                }
+            }
+            List<SimEvent> batch = all;
+            if (horizon != Long.MAX_VALUE) {
+                batch = new ArrayList<>(all.size());
+                for (SimEvent e : all) {
+                    (e.nanos <= horizon ? batch : held).add(e);
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            batch.sort(Comparator.comparingLong(e -> e.nanos));
+            for (EventSink sink : sinks) {
+                try {
+                    sink.write(batch);
+                } catch (IOException | RuntimeException ex) {
+                    System.err.println("Event sink failed: " + ex.getMessage());
+                }
+            }
+            return batch.size();
+        }
+    }
+
+    /** Writes everything logged so far before returning. */
+    public void flush() {
+        while (drainOnce() > 0 || hasPending()) {
+            // Keep going until every stripe is empty
+        }
+    }
+
+    /** Flushes, stops the drainer and closes the sinks. */
+    public void close() {
+        flush();
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainOnce();
+        for (EventSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                System.err.println("Can't close event sink: " + e.getMessage());
+            }
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,15 @@
+import java.io.IOException;
+import java.util.List;
+
+// ===================================================================
+// EventSink
+// Where drained batches end up (console, rotating file, GUI...).
+// Sinks are only ever called from the drainer thread.
+// ===================================================================
+interface EventSink {
+
+    void write(List<SimEvent> batch) throws IOException;
+
+    default void close() throws IOException {
+    }
+}
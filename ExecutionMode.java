@@ -0,0 +1,86 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// ===================================================================
+// ExecutionMode
+// Decides what the Car producer and the Pump consumers run on:
+//   "platform" - one OS thread per producer / pump (the classic setup)
+//   "virtual"  - one Java virtual thread each (needs Java 21+), so a
+//                station with tens of thousands of bays is cheap
+//   "pool:N"   - a fixed pool of N platform threads
+// ===================================================================
+class ExecutionMode {
+
+    public static final String PROPERTY = "carwash.execution";
+
+    private final String kind;
+    private final int pool_size;
+
+    private ExecutionMode(String kind, int pool_size) {
+        this.kind = kind;
+        this.pool_size = pool_size;
+    }
+
+    static ExecutionMode parse(String spec) {
+        String s = spec.trim().toLowerCase();
+        if (s.equals("platform") || s.equals("virtual")) {
+            return new ExecutionMode(s, 0);
+        }
+        if (s.startsWith("pool:")) {
+            int n = Integer.parseInt(s.substring("pool:".length()));
+            if (n < 2) {
+                // One thread for the producer and at least one for the pumps
+                throw new IllegalArgumentException("A pool needs at least 2 threads");
+            }
+            return new ExecutionMode("pool", n);
+        }
+        throw new IllegalArgumentException("Unknown execution mode: " + spec);
+    }
+
+    /** Reads -Dcarwash.execution, defaulting to platform threads. */
+    static ExecutionMode fromProperty() {
+        return parse(System.getProperty(PROPERTY, "platform"));
+    }
+
+    /**
+     * Creates the executor for one simulation run. Submit the Car producer
+     * first: on a pool it must get a thread before the pumps block waiting for it.
+     */
+    ExecutorService newExecutor() {
+        switch (kind) {
+            case "virtual":
+                return newVirtualThreadExecutor();
+            case "pool":
+                return Executors.newFixedThreadPool(pool_size);
+            default:
+                return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Looked up reflectively so the rest of the project still builds on older JDKs
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer (running "
+                    + System.getProperty("java.version") + ")");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+
+    /** Producer lanes take pool threads for good, so the pumps need one more. */
+    void checkProducers(int producers) {
+        if (kind.equals("pool") && pool_size <= producers) {
+            throw new IllegalArgumentException("A pool of " + pool_size + " threads can't run " + producers
+                    + " producer lanes and the pumps");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind.equals("pool") ? "pool:" + pool_size : kind;
+    }
+}
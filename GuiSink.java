@@ -0,0 +1,27 @@
+import java.util.List;
+
+// ===================================================================
+// GuiSink
+// Hands the whole batch to the GUI as one block of text, so the EDT
+// gets one task per batch instead of one per line.
+// ===================================================================
+class GuiSink implements EventSink {
+
+    private final java.util.function.Consumer<String> append_block;
+
+    GuiSink(java.util.function.Consumer<String> append_block) {
+        this.append_block = append_block;
+    }
+
+    @Override
+    public void write(List<SimEvent> batch) {
+        StringBuilder sb = new StringBuilder(batch.size() * 48);
+        for (SimEvent e : batch) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(e.format());
+        }
+        append_block.accept(sb.toString());
+    }
+}
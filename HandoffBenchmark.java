@@ -0,0 +1,445 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// ===================================================================
+// HandoffBenchmark
+// Measures the produce -> consume handoff of the station with the
+// sleeps stubbed out: producers put cars into a WaitingArea, pumps
+// take them and grab / free a bay permit, exactly like shared_queue.
+// Every car carries its put time, so besides ops/sec we also get the
+// handoff latency percentiles (p50 / p99 / p99.9). A plain main with
+// warm-up and median-of-3 rounds stands in for JMH, since the tree is
+// built with javac and has no Maven/Gradle module (see the README).
+//
+// Usage: java HandoffBenchmark [--quick] [--items N]
+//        java HandoffBenchmark --dispatch   (bay concurrency regression check)
+//        java HandoffBenchmark --bays       (round-robin vs shortest-expected-delay)
+//        java HandoffBenchmark --lanes      (publish path: entry lanes x batch size)
+// ===================================================================
+public class HandoffBenchmark {
+
+    private static final String[] IMPLEMENTATIONS = { "array", "ring", "jdk-array", "jdk-abq" };
+    private static final int[] WAITING_SIZES = { 1, 5, 64 };
+    private static final int[] PUMP_COUNTS = { 1, 4, 16 };
+    private static final int[] PRODUCER_COUNTS = { 1, 4 };
+
+    // --- Bay permits: our Semaphore vs java.util.concurrent.Semaphore ---
+    interface Bays {
+        void acquire() throws InterruptedException;
+
+        void release();
+    }
+
+    static Bays customBays(int n) {
+        Semaphore s = new Semaphore(n);
+        return new Bays() {
+            public void acquire() throws InterruptedException {
+                s.acquire();
+            }
+
+            public void release() {
+                s.release();
+            }
+        };
+    }
+
+    static Bays jdkBays(int n) {
+        java.util.concurrent.Semaphore s = new java.util.concurrent.Semaphore(n);
+        return new Bays() {
+            public void acquire() throws InterruptedException {
+                s.acquire();
+            }
+
+            public void release() {
+                s.release();
+            }
+        };
+    }
+
+    static WaitingArea newWaitingArea(String impl, int capacity) {
+        switch (impl) {
+            case "array":
+                return new ArrayWaitingArea(capacity);
+            case "ring":
+                return new RingBufferWaitingArea(capacity);
+            case "jdk-array":
+                return new JdkArrayWaitingArea(capacity);
+            case "jdk-abq":
+                return new BlockingQueueWaitingArea(capacity);
+            default:
+                throw new IllegalArgumentException(impl);
+        }
+    }
+
+    static final class Result {
+        final double ops_per_sec;
+        final long[] latencies; // Sorted, in nanoseconds
+
+        Result(double ops_per_sec, long[] latencies) {
+            this.ops_per_sec = ops_per_sec;
+            this.latencies = latencies;
+        }
+
+        long percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int idx = (int) Math.ceil(p / 100.0 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, idx))];
+        }
+    }
+
+    /** One run: producers x items each, handed to pumps through the waiting area. */
+    static Result run(String impl, int waiting, int pumps, int producers, int items) throws InterruptedException {
+        WaitingArea area = newWaitingArea(impl, waiting);
+        Bays bays = impl.startsWith("jdk") ? jdkBays(pumps) : customBays(pumps);
+
+        int per_producer = items / producers;
+        long[][] latencies = new long[pumps][];
+        int[] counts = new int[pumps];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < pumps; p++) {
+            final int idx = p;
+            latencies[idx] = new long[Math.max(16, per_producer * producers / pumps * 2)];
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    while (true) {
+                        Object car = area.take();
+                        if (car == null) {
+                            break; // Closed and empty
+                        }
+                        long latency = System.nanoTime() - (Long) car;
+                        bays.acquire(); // Same bay handoff as shared_queue.consume
+                        bays.release();
+
+                        if (counts[idx] == latencies[idx].length) {
+                            latencies[idx] = Arrays.copyOf(latencies[idx], counts[idx] * 2);
+                        }
+                        latencies[idx][counts[idx]++] = latency;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Pump " + (p + 1)));
+        }
+
+        CountDownLatch producers_done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < per_producer; i++) {
+                        area.put(System.nanoTime());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    producers_done.countDown();
+                }
+            }, "Car " + (p + 1)));
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        producers_done.await();
+        area.close();
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - t0;
+
+        int total = 0;
+        for (int c : counts) {
+            total += c;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (int p = 0; p < pumps; p++) {
+            System.arraycopy(latencies[p], 0, all, pos, counts[p]);
+            pos += counts[p];
+        }
+        Arrays.sort(all);
+        return new Result(total * 1e9 / elapsed, all);
+    }
+
+    /**
+     * Regression check for the consume path: runs the real shared_queue with
+     * instant arrivals, short washes and more pumps than bays, and measures
+     * how many bays are busy at the same time and how many pumps wait for a
+     * bay permit at once. A pump that holds a lock while it waits for a bay
+     * keeps the other pumps behind that lock, so fewer than pumps - bays of
+     * them ever reach the permit. Returns false if dispatch serializes.
+     */
+    static boolean checkDispatchConcurrency() throws InterruptedException {
+        boolean ok = true;
+        System.out.printf("%5s %5s %5s %12s %12s %14s %8s%n", "bays", "pumps", "cars", "peak busy", "avg busy",
+                "peak bay wait", "result");
+
+        for (int bays : new int[] { 1, 4, 16 }) {
+            int pumps = 2 * bays + 1; // Some pumps always have a car and no bay
+            int cars = pumps * 3;
+            List<long[]> changes = new ArrayList<>(); // {nanos, +1 / -1}
+            EventLog log = new EventLog(EventLog.OverflowPolicy.BLOCK, 1024, batch -> {
+                for (SimEvent e : batch) {
+                    if (e.kind == EventKind.OCCUPIED) {
+                        changes.add(new long[] { e.nanos, 1 });
+                    } else if (e.kind == EventKind.BAY_FREE) {
+                        changes.add(new long[] { e.nanos, -1 });
+                    }
+                }
+            });
+
+            shared_queue sq = new shared_queue(cars, bays, log);
+            sq.timing = new SimulationTiming(0, 0, 100);
+            String[] names = new String[cars];
+            for (int i = 0; i < cars; i++) {
+                names[i] = "C" + (i + 1);
+            }
+
+            ExecutorService executor = Executors.newCachedThreadPool();
+            executor.execute(new CarProducer(sq, names));
+            for (int i = 0; i < pumps; i++) {
+                executor.execute(new Pump(sq, "Pump " + (i + 1)));
+            }
+            executor.shutdown();
+            // Pumps with a car but no bay should all be queued on the bay permit
+            int peak_waiting = 0;
+            while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+                peak_waiting = Math.max(peak_waiting, sq.pumps_Semaphore.getQueueLength());
+            }
+            log.close();
+
+            // Sweep the busy/free events in time order
+            changes.sort((x, y) -> Long.compare(x[0], y[0]));
+            int busy = 0, peak = 0;
+            double busy_nanos = 0;
+            for (int i = 0; i < changes.size(); i++) {
+                if (i > 0) {
+                    busy_nanos += busy * (double) (changes.get(i)[0] - changes.get(i - 1)[0]);
+                }
+                busy += (int) changes.get(i)[1];
+                peak = Math.max(peak, busy);
+            }
+            long span = changes.isEmpty() ? 1 : changes.get(changes.size() - 1)[0] - changes.get(0)[0];
+            double avg = busy_nanos / Math.max(1, span);
+
+            // Every bay used at once and mostly busy, and every spare pump waiting on a bay, not a lock
+            boolean pass = peak == bays && avg >= 0.75 * bays && peak_waiting == pumps - bays;
+            ok &= pass;
+            System.out.printf("%5d %5d %5d %12d %12.2f %14d %8s%n", bays, pumps, cars, peak, avg, peak_waiting,
+                    pass ? "ok" : "FAILED");
+        }
+        return ok;
+    }
+
+    /**
+     * Runs the real shared_queue over mixed bays (two fast touchless, two
+     * slower full-detail) with the same seeded workload under each dispatch
+     * policy, and reports throughput and mean time in the station.
+     */
+    static void compareBayDispatch() throws InterruptedException {
+        String bays = "2*basic@2,2*basic@0.8+detail@1";
+        String workload = "arrivals=poisson:25 service=lognormal:100:0.3 detail=0.3 cars=600 seed=11";
+        System.out.println("bays: " + bays);
+        System.out.println("workload: " + workload);
+        System.out.printf("%-12s %10s %14s %14s%n", "policy", "cars/s", "mean wait ms", "p99 wait ms");
+
+        for (String policy : new String[] { "round-robin", "sed" }) {
+            System.setProperty(BayDispatcher.BAYS_PROPERTY, bays);
+            System.setProperty(BayDispatcher.POLICY_PROPERTY, policy);
+            shared_queue sq = new shared_queue(16, 4, new EventLog());
+            sq.timing = new SimulationTiming(0, 0, 0); // Gaps and washes come from the workload
+
+            ExecutorService executor = Executors.newCachedThreadPool();
+            long start = System.nanoTime();
+            executor.execute(new CarProducer(sq, WorkloadGenerator.parse(workload)));
+            for (int i = 0; i < 4; i++) {
+                executor.execute(new Pump(sq, "Pump " + (i + 1), i));
+            }
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.MINUTES);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sq.metrics.close();
+
+            System.out.printf("%-12s %10.2f %14.1f %14.1f%n", policy, sq.metrics.getServed() / seconds,
+                    sq.metrics.time_to_bay.mean() / 1e6, sq.metrics.time_to_bay.percentile(99) / 1e6);
+        }
+        System.clearProperty(BayDispatcher.BAYS_PROPERTY);
+        System.clearProperty(BayDispatcher.POLICY_PROPERTY);
+    }
+
+    /**
+     * Producer scaling of the waiting area's publish path alone: 1 to 8
+     * lane threads put pre-built cars one at a time (batch 1) or in staged
+     * runs (putAll, batch 16). No pumps, bays, sleeps or EventLog are in the
+     * way. "publish" gives the area a spot for every car, so only the lanes
+     * touch it; "+taker" bounds it at 64 spots and one thread takes cars as
+     * fast as it can, as pumps would. For the array area it also counts how
+     * often a lane found produce_lock taken (in the last of its 3 runs).
+     * Each row is the best of 3 after a warm-up. Lanes can only scale with free
+     * cores: on one CPU they take turns, whatever the area does.
+     */
+    static void compareLanes(int cars) throws InterruptedException {
+        System.out.println(cars + " cars, " + Runtime.getRuntime().availableProcessors() + " CPUs");
+        System.out.printf("%-6s %-8s %5s %5s %14s %9s %16s%n", "impl", "mode", "lanes", "batch", "cars/sec",
+                "vs 1 lane", "lock contended");
+
+        for (String impl : new String[] { "array", "ring" }) {
+            for (int lanes : new int[] { 1, 8 }) { // Warm-up, so 1 lane isn't measured cold
+                publish(newWaitingArea(impl, cars), lanes, 16, cars, false);
+                publish(newWaitingArea(impl, 64), lanes, 1, cars, true);
+            }
+        }
+        for (String impl : new String[] { "array", "ring" }) {
+            for (boolean taker : new boolean[] { false, true }) {
+                for (int batch : new int[] { 1, 16 }) {
+                    double one_lane = 0;
+                    for (int lanes : new int[] { 1, 2, 4, 8 }) {
+                        WaitingArea area = null;
+                        double rate = 0;
+                        for (int run = 0; run < 3; run++) { // Best of 3
+                            area = newWaitingArea(impl, taker ? 64 : cars);
+                            rate = Math.max(rate, cars / publish(area, lanes, batch, cars, taker));
+                        }
+                        one_lane = lanes == 1 ? rate : one_lane;
+                        String contended = area instanceof ArrayWaitingArea
+                                ? Long.toString(((ArrayWaitingArea) area).getProduceContention())
+                                : "-"; // Lock-free
+                        System.out.printf("%-6s %-8s %5d %5d %14.0f %8.2fx %16s%n", impl,
+                                taker ? "+taker" : "publish", lanes, batch, rate, rate / one_lane, contended);
+                    }
+                }
+            }
+        }
+    }
+
+    // Seconds until every car is in the area (and, with a taker, out again)
+    private static double publish(WaitingArea area, int lanes, int batch, int cars, boolean taker)
+            throws InterruptedException {
+        // Each lane's cars, built before the clock starts
+        List<Car[]> per_lane = new ArrayList<>();
+        for (int lane = 0; lane < lanes; lane++) {
+            Car[] mine = new Car[cars / lanes + (lane < cars % lanes ? 1 : 0)];
+            for (int i = 0; i < mine.length; i++) {
+                long id = lane + 1 + (long) i * lanes;
+                mine[i] = new Car(id, "C" + id, 0, 0, ServiceClass.STANDARD, WashType.BASIC);
+            }
+            per_lane.add(mine);
+        }
+
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(lanes + (taker ? 1 : 0));
+        List<Thread> threads = new ArrayList<>();
+        for (Car[] mine : per_lane) {
+            threads.add(new Thread(() -> {
+                try {
+                    go.await();
+                    for (int i = 0; i < mine.length; i += batch) {
+                        int n = Math.min(batch, mine.length - i);
+                        if (n == 1) {
+                            area.put(mine[i]);
+                        } else {
+                            area.putAll(mine, i, n);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "lane"));
+        }
+        if (taker) {
+            threads.add(new Thread(() -> {
+                try {
+                    go.await();
+                    for (int i = 0; i < cars; i++) {
+                        area.take();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "taker"));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (Thread t : threads) {
+            t.join();
+        }
+        return seconds;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("--lanes")) {
+            compareLanes(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bays")) {
+            compareBayDispatch();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--dispatch")) {
+            if (!checkDispatchConcurrency()) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        int items = 200_000;
+        int warmups = 2;
+        int rounds = 3;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--quick")) {
+                items = 20_000;
+                warmups = 1;
+                rounds = 1;
+            } else if (args[i].equals("--items")) {
+                items = Integer.parseInt(args[++i]);
+            }
+        }
+
+        System.out.printf("%-10s %7s %5s %9s %14s %10s %10s %10s%n",
+                "impl", "waiting", "pumps", "producers", "ops/sec", "p50(us)", "p99(us)", "p99.9(us)");
+
+        for (int producers : PRODUCER_COUNTS) {
+            for (int pumps : PUMP_COUNTS) {
+                for (int waiting : WAITING_SIZES) {
+                    for (String impl : IMPLEMENTATIONS) {
+                        for (int w = 0; w < warmups; w++) {
+                            run(impl, waiting, pumps, producers, items);
+                        }
+                        // Keep the round with the median throughput
+                        Result[] results = new Result[rounds];
+                        for (int r = 0; r < rounds; r++) {
+                            results[r] = run(impl, waiting, pumps, producers, items);
+                        }
+                        Arrays.sort(results, (a, b) -> Double.compare(a.ops_per_sec, b.ops_per_sec));
+                        Result res = results[rounds / 2];
+
+                        System.out.printf("%-10s %7d %5d %9d %14.0f %10.1f %10.1f %10.1f%n",
+                                impl, waiting, pumps, producers, res.ops_per_sec,
+                                res.percentile(50) / 1e3, res.percentile(99) / 1e3, res.percentile(99.9) / 1e3);
+                    }
+                }
+            }
+        }
+    }
+}
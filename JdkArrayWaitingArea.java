@@ -0,0 +1,111 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ===================================================================
+// JdkArrayWaitingArea
+// ArrayWaitingArea's algorithm with java.util.concurrent.Semaphore,
+// used to compare our Semaphore against the JDK one.
+// ===================================================================
+class JdkArrayWaitingArea implements WaitingArea {
+
+    private final Object waiting_area[];
+    private int waiting_inptr = 0, waiting_outptr = 0;
+    private final java.util.concurrent.Semaphore free_spots;
+    private final java.util.concurrent.Semaphore waiting_cars = new java.util.concurrent.Semaphore(0);
+    private final ReentrantLock produce_lock = new ReentrantLock();
+    private final ReentrantLock consume_lock = new ReentrantLock();
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    JdkArrayWaitingArea(int capacity) {
+        waiting_area = new Object[capacity];
+        free_spots = new java.util.concurrent.Semaphore(capacity);
+    }
+
+    @Override
+    public boolean put(Object car) throws InterruptedException {
+        free_spots.acquire();
+        return insert(car);
+    }
+
+    @Override
+    public boolean offer(Object car) {
+        return free_spots.tryAcquire() && insert(car);
+    }
+
+    private boolean insert(Object car) {
+        produce_lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            waiting_area[waiting_inptr] = car;
+            waiting_inptr = (waiting_inptr + 1) % waiting_area.length;
+            count.incrementAndGet();
+        } finally {
+            produce_lock.unlock();
+        }
+        waiting_cars.release();
+        return true;
+    }
+
+    @Override
+    public Object take() throws InterruptedException {
+        waiting_cars.acquire();
+        return removeNext();
+    }
+
+    private Object removeNext() {
+        Object car;
+        consume_lock.lock();
+        try {
+            if (count.get() == 0) {
+                return null; // Closed and empty
+            }
+            car = waiting_area[waiting_outptr];
+            waiting_area[waiting_outptr] = null;
+            waiting_outptr = (waiting_outptr + 1) % waiting_area.length;
+            count.decrementAndGet();
+        } finally {
+            consume_lock.unlock();
+        }
+        free_spots.release();
+        return car;
+    }
+
+    @Override
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!waiting_cars.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return removeNext();
+    }
+
+    @Override
+    public void close() {
+        produce_lock.lock();
+        try {
+            closed = true;
+        } finally {
+            produce_lock.unlock();
+        }
+        free_spots.release(ArrayWaitingArea.CLOSE_PERMITS);
+        waiting_cars.release(ArrayWaitingArea.CLOSE_PERMITS);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public int capacity() {
+        return waiting_area.length;
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// ===================================================================
+// LatencyRecorder
+// A lock-free log-linear histogram in the spirit of HdrHistogram:
+// every power of two is split into 32 sub-buckets, so any recorded
+// nanosecond value is kept within ~3% using under 2,000 counters.
+// Histograms can be merged, so per-thread or per-run recorders can be
+// combined afterwards.
+// ===================================================================
+class LatencyRecorder {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(v));
+        total.increment();
+        sum.add(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    static int indexOf(long v) {
+        if (v < SUB_COUNT) {
+            return (int) v;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    // Middle of the value range that lands in bucket idx
+    static long valueOf(int idx) {
+        if (idx < SUB_COUNT) {
+            return idx;
+        }
+        int exp = idx / SUB_COUNT - 1 + SUB_BITS;
+        int sub = idx % SUB_COUNT;
+        long low = (long) (SUB_COUNT + sub) << (exp - SUB_BITS);
+        long width = 1L << (exp - SUB_BITS);
+        return low + width / 2;
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /** Value (ns) at percentile p (0-100). */
+    public long percentile(double p) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(valueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Value (ns) at percentile p of only the samples recorded since
+     * earlier was copied from this recorder; 0 if there were none.
+     */
+    public long percentileSince(LatencyRecorder earlier, double p) {
+        long n = total.sum() - earlier.total.sum();
+        if (n <= 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i) - earlier.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(valueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Samples below nanos (to bucket precision), for histograms with edges of your own. */
+    public long countBelow(long nanos) {
+        int end = indexOf(Math.max(0, nanos));
+        long seen = 0;
+        for (int i = 0; i < end; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    /** A copy of the samples so far, e.g. to diff against later. */
+    public LatencyRecorder copy() {
+        LatencyRecorder c = new LatencyRecorder();
+        c.merge(this);
+        return c;
+    }
+
+    /** Adds every sample of other into this recorder. */
+    public void merge(LatencyRecorder other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    // Only the buckets in use, as (index, count) pairs
+    void save(DataOutput out) throws IOException {
+        out.writeLong(total.sum());
+        out.writeLong(sum.sum());
+        out.writeLong(max.get());
+        int used = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            used += counts.get(i) != 0 ? 1 : 0;
+        }
+        out.writeShort(used);
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                out.writeShort(i);
+                out.writeLong(c);
+            }
+        }
+    }
+
+    // Adds the saved samples, like merge()
+    void restore(DataInput in) throws IOException {
+        total.add(in.readLong());
+        sum.add(in.readLong());
+        long m = in.readLong();
+        max.accumulateAndGet(m, Math::max);
+        for (int n = in.readShort(); n > 0; n--) {
+            int i = in.readShort();
+            counts.addAndGet(i, in.readLong());
+        }
+    }
+
+    /** "n=... mean=... p50=... p99=... p99.9=... max=..." in milliseconds. */
+    public String summary() {
+        return String.format("n=%d mean=%.2fms p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                count(), mean() / 1e6, percentile(50) / 1e6, percentile(99) / 1e6,
+                percentile(99.9) / 1e6, max() / 1e6);
+    }
+}
@@ -0,0 +1,290 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ===================================================================
+// MultiStation
+// A chain of car wash stations simulated together. Every station is
+// its own shared_queue shard (waiting area, bays, pumps, metrics),
+// and all pumps run in parallel on one ForkJoinPool.
+//   - A single arrival stream is routed to a station by a
+//     RoutingPolicy: random, join-shortest-queue or power-of-two-choices,
+//     as the car arrives. A car routed to a full station goes to the
+//     least loaded one with room instead.
+//   - A pump with nothing to do at its own station steals the next
+//     waiting car from the busiest neighbour within steal_radius, the
+//     way a driver reroutes to a nearby site with a free bay.
+//
+// Usage: java MultiStation <stations> <waiting> <bays>
+//            [--route random|jsq|p2c] [--steal RADIUS] [--cars N | --workload SPEC] [--quiet]
+// ===================================================================
+public class MultiStation {
+
+    // How long an idle pump waits on its own queue before looking around again
+    private static final long IDLE_POLL_MS = 20;
+
+    // --- Routing policies ---
+    interface RoutingPolicy {
+        int route(shared_queue[] stations, SplitMix64 rng);
+    }
+
+    static final RoutingPolicy RANDOM = (stations, rng) -> (int) ((rng.nextLong() >>> 1) % stations.length);
+
+    static final RoutingPolicy JOIN_SHORTEST_QUEUE = (stations, rng) -> {
+        // Ties go to a random station so the first one doesn't take all of them
+        int best = RANDOM.route(stations, rng);
+        for (int i = 0; i < stations.length; i++) {
+            if (load(stations[i]) < load(stations[best])) {
+                best = i;
+            }
+        }
+        return best;
+    };
+
+    static final RoutingPolicy POWER_OF_TWO = (stations, rng) -> {
+        int a = RANDOM.route(stations, rng);
+        int b = RANDOM.route(stations, rng);
+        return load(stations[a]) <= load(stations[b]) ? a : b;
+    };
+
+    static RoutingPolicy routing(String name) {
+        switch (name) {
+            case "random":
+                return RANDOM;
+            case "jsq":
+                return JOIN_SHORTEST_QUEUE;
+            case "p2c":
+                return POWER_OF_TWO;
+            default:
+                throw new IllegalArgumentException("Unknown routing policy: " + name);
+        }
+    }
+
+    // Cars waiting plus cars in a bay, per bay
+    static double load(shared_queue station) {
+        int busy = station.num_of_service_bays - station.pumps_Semaphore.availablePermits();
+        return (double) (station.metrics.getQueueDepth() + busy) / station.num_of_service_bays;
+    }
+
+    final shared_queue[] stations;
+    private final RoutingPolicy policy;
+    private final int steal_radius;
+    private final SplitMix64 rng; // Only the arrival task uses it
+    private final EventLog log;
+
+    final AtomicLongArray routed; // Cars routed to each station
+    final AtomicLongArray stolen; // Cars each station's pumps took from a neighbour
+    private volatile boolean arrivals_done = false;
+
+    MultiStation(int num_of_stations, int waiting_area_size, int num_of_service_bays, RoutingPolicy policy,
+            int steal_radius, long seed, EventLog log) {
+        this.stations = new shared_queue[num_of_stations];
+        for (int i = 0; i < num_of_stations; i++) {
+            stations[i] = new shared_queue(waiting_area_size, num_of_service_bays, log);
+        }
+        this.policy = policy;
+        this.steal_radius = Math.min(steal_radius, num_of_stations / 2);
+        this.rng = new SplitMix64(seed);
+        this.log = log;
+        this.routed = new AtomicLongArray(num_of_stations);
+        this.stolen = new AtomicLongArray(num_of_stations);
+    }
+
+    /** Routes every car, serves them all, and returns when the last bay is free. */
+    public void run(Iterator<?> cars) throws InterruptedException {
+        int pumps = 0;
+        for (shared_queue station : stations) {
+            pumps += station.num_of_service_bays;
+        }
+
+        // Pumps block while washing, so give every task its own worker
+        ForkJoinPool pool = new ForkJoinPool(pumps + 1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null,
+                true);
+        pool.execute(() -> arrive(cars));
+        for (int s = 0; s < stations.length; s++) {
+            for (int p = 0; p < stations[s].num_of_service_bays; p++) {
+                int station = s;
+                String pump_name = "Station " + (s + 1) + " Pump " + (p + 1);
+                int pump = p;
+                pool.execute(() -> pump(station, pump, pump_name));
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private void arrive(Iterator<?> cars) {
+        try {
+            long id = 0;
+            while (cars.hasNext()) {
+                Car car = Car.from(cars.next(), ++id, stations[0].timing);
+                // Route on the queues as they are when the car arrives, not a gap earlier
+                DeterministicScheduler.sleep(car.gap_ms);
+                int s = policy.route(stations, rng);
+                if (full(stations[s])) {
+                    s = roomiest(s);
+                }
+                routed.incrementAndGet(s);
+                Car now = new Car(car.id, car.name, 0, car.service_ms, car.service_class, car.wash_type);
+                if (!stations[s].produce(now)) { // Joins that station's queue, or drives away (see AdmissionPolicy)
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Car arrivals were interrupted");
+        } finally {
+            arrivals_done = true;
+            for (shared_queue station : stations) {
+                station.drain();
+            }
+        }
+    }
+
+    // Only this thread adds cars, so a station that has a free spot now still has one when the car gets there
+    private static boolean full(shared_queue station) {
+        return station.metrics.getQueueDepth() >= station.waiting_area_size;
+    }
+
+    // The least loaded station with a free spot; the chosen one when every
+    // station is full, where the admission policy decides (wait or drive away)
+    private int roomiest(int chosen) {
+        int best = chosen;
+        for (int i = 0; i < stations.length; i++) {
+            if (!full(stations[i]) && (full(stations[best]) || load(stations[i]) < load(stations[best]))) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void pump(int s, int p, String pump_name) {
+        try {
+            while (true) {
+                // 1. Own station first, then a neighbour's, then wait a little at home
+                Car car = stations[s].pollCar(0);
+                if (car == null) {
+                    car = steal(s);
+                }
+                if (car == null) {
+                    if (arrivals_done && allEmpty()) {
+                        return;
+                    }
+                    car = stations[s].pollCar(IDLE_POLL_MS);
+                    if (car == null) {
+                        continue;
+                    }
+                }
+
+                // 2. Wash it here, in one of this station's bays
+                stations[s].serve(pump_name, p, car);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error(pump_name + " was interrupted");
+        }
+    }
+
+    // Takes a car from the neighbour with the longest queue, if any is waiting
+    private Car steal(int s) throws InterruptedException {
+        int victim = -1;
+        int longest = 0;
+        for (int d = 1; d <= steal_radius; d++) {
+            for (int n : new int[] { s + d, s - d }) {
+                int v = Math.floorMod(n, stations.length);
+                int depth = stations[v].metrics.getQueueDepth();
+                if (v != s && depth > longest) {
+                    victim = v;
+                    longest = depth;
+                }
+            }
+        }
+        if (victim < 0) {
+            return null;
+        }
+        Car car = stations[victim].pollCar(0);
+        if (car != null) {
+            stolen.incrementAndGet(s);
+        }
+        return car;
+    }
+
+    private boolean allEmpty() {
+        for (shared_queue station : stations) {
+            if (station.metrics.getQueueDepth() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** One line per station plus the chain-wide time in queue. */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%8s %8s %8s %8s %10s %12s%n", "station", "routed", "served", "stolen", "max queue",
+                "p99 wait ms"));
+        LatencyRecorder chain_wait = new LatencyRecorder();
+        for (int s = 0; s < stations.length; s++) {
+            StationMetrics m = stations[s].metrics;
+            chain_wait.merge(m.time_in_queue);
+            sb.append(String.format("%8d %8d %8d %8d %10d %12.1f%n", s + 1, routed.get(s), m.getServed(),
+                    stolen.get(s), m.getMaxQueueDepth(), m.time_in_queue.percentile(99) / 1e6));
+        }
+        sb.append("Chain time in queue ").append(chain_wait.summary());
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Usage: java MultiStation <stations> <waiting> <bays> [--route random|jsq|p2c]"
+                    + " [--steal RADIUS] [--cars N | --workload SPEC] [--quiet]");
+            return;
+        }
+
+        int num_of_stations = Integer.parseInt(args[0]);
+        int waiting_area_size = Integer.parseInt(args[1]);
+        int num_of_service_bays = Integer.parseInt(args[2]);
+        String route = "p2c";
+        int steal_radius = 1;
+        Iterator<?> cars = DiscreteEventSimulation.generatedCars(num_of_stations * num_of_service_bays * 4L);
+        long seed = 1;
+        boolean quiet = false;
+
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--route":
+                    route = args[++i];
+                    break;
+                case "--steal":
+                    steal_radius = Integer.parseInt(args[++i]);
+                    break;
+                case "--cars":
+                    cars = DiscreteEventSimulation.generatedCars(Long.parseLong(args[++i]));
+                    break;
+                case "--workload":
+                    String spec = String.join(" ", Arrays.asList(args).subList(i + 1, args.length));
+                    cars = WorkloadGenerator.parse(spec);
+                    i = args.length;
+                    break;
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        EventLog log = quiet ? new EventLog() : new EventLog(new ConsoleSink(System.out, true));
+        MultiStation chain = new MultiStation(num_of_stations, waiting_area_size, num_of_service_bays,
+                routing(route), steal_radius, seed, log);
+
+        long start = System.nanoTime();
+        chain.run(cars);
+        log.close();
+        System.out.printf("%d stations, %s routing, steal radius %d, %.1f s%n", num_of_stations, route,
+                chain.steal_radius, (System.nanoTime() - start) / 1e9);
+        System.out.println(chain.getSummary());
+    }
+}
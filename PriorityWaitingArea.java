@@ -0,0 +1,230 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// ===================================================================
+// PriorityWaitingArea
+// A bounded waiting area that serves the car with the smallest
+//   key = time it entered - boost of its class
+// instead of the oldest one. Each class has its own lock-free skip
+// list ordered by key, so put and take are O(log n) with no global
+// lock; a pump compares the heads of the classes it serves and takes
+// the best one. Pumps reserved for one class only look at that list,
+// and stop once close() is called and their classes are empty.
+// Free spots are counted with our Semaphore, as in ArrayWaitingArea.
+// ===================================================================
+class PriorityWaitingArea implements WaitingArea {
+
+    private static final class Key implements Comparable<Key> {
+        final long priority_nanos;
+        final long seq; // Same key: first in, first out
+
+        Key(long priority_nanos, long seq) {
+            this.priority_nanos = priority_nanos;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (priority_nanos != other.priority_nanos) {
+                return Long.compare(priority_nanos, other.priority_nanos);
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    private final int capacity;
+    private final Semaphore free_spots;
+    private final ConcurrentSkipListMap<Key, Object>[] by_class;
+    private final AtomicLong next_seq = new AtomicLong();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger inserting = new AtomicInteger(); // Passed the closed check, not in a list yet
+    private final SpinThenParkWaiter not_empty = new SpinThenParkWaiter();
+
+    private static final Object CLOSED = new Object();
+    private volatile boolean closed = false;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    PriorityWaitingArea(int capacity) {
+        this.capacity = capacity;
+        this.free_spots = new Semaphore(capacity);
+        this.by_class = new ConcurrentSkipListMap[ServiceClass.values().length];
+        for (int i = 0; i < by_class.length; i++) {
+            by_class[i] = new ConcurrentSkipListMap<>();
+        }
+    }
+
+    @Override
+    public boolean put(Object car) throws InterruptedException {
+        free_spots.acquire(); // Wait for a spot
+        return insert(car);
+    }
+
+    @Override
+    public boolean offer(Object car) {
+        return free_spots.tryAcquire() && insert(car);
+    }
+
+    // Caller already holds the car's free spot
+    // Announced before closed is checked, so a pump that sees closed either
+    // sees the insert in flight or finds the car in its list
+    private boolean insert(Object car) {
+        inserting.incrementAndGet();
+        try {
+            if (closed) {
+                free_spots.release();
+                return false;
+            }
+
+            ServiceClass cls = ServiceClass.of(car);
+            count.incrementAndGet(); // Before it becomes visible, so size() never dips below zero
+            long key = DeterministicScheduler.nanoTime() - TimeUnit.MILLISECONDS.toNanos(cls.boost_ms);
+            by_class[cls.ordinal()].put(new Key(key, next_seq.getAndIncrement()), car);
+        } finally {
+            inserting.decrementAndGet();
+        }
+
+        // Reserved pumps only want some classes, so wake all of them
+        not_empty.signalAll();
+        return true;
+    }
+
+    // Within a class cars are in arrival order, so the head of each
+    // class is its longest-waiting car
+    @Override
+    public Object pollIf(Predicate<Object> test) {
+        for (ConcurrentSkipListMap<Key, Object> cars : by_class) {
+            Map.Entry<Key, Object> head = cars.firstEntry();
+            if (head != null && test.test(head.getValue()) && cars.remove(head.getKey(), head.getValue())) {
+                count.decrementAndGet();
+                free_spots.release();
+                return head.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Object take() throws InterruptedException {
+        return take(ServiceClass.ALL);
+    }
+
+    /** Blocks until a car of one of the given classes is waiting; null once closed and empty. */
+    public Object take(EnumSet<ServiceClass> classes) throws InterruptedException {
+        Object car = poll(classes);
+        return car != null ? car : unwrap(not_empty.await(() -> pollOrClosed(classes)));
+    }
+
+    @Override
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return poll(ServiceClass.ALL, timeout, unit);
+    }
+
+    /** Like take(classes), but gives up after the timeout and returns null. */
+    public Object poll(EnumSet<ServiceClass> classes, long timeout, TimeUnit unit) throws InterruptedException {
+        Object car = poll(classes);
+        return car != null ? car : unwrap(not_empty.await(() -> pollOrClosed(classes), unit.toNanos(timeout)));
+    }
+
+    // The waiter retries until non-null, so "closed and empty" needs its own value.
+    // Closed only counts once no car is still on its way into a list.
+    private Object pollOrClosed(EnumSet<ServiceClass> classes) {
+        Object car = poll(classes);
+        if (car != null || !closed || inserting.get() > 0) {
+            return car;
+        }
+        car = poll(classes); // One may have landed since the first look
+        return car != null ? car : CLOSED;
+    }
+
+    private static Object unwrap(Object car) {
+        return car == CLOSED ? null : car;
+    }
+
+    // Best waiting car among the given classes, or null if there is none
+    private Object poll(EnumSet<ServiceClass> classes) {
+        while (true) {
+            ConcurrentSkipListMap<Key, Object> best = null;
+            Key best_key = null;
+            for (ServiceClass cls : classes) {
+                Map.Entry<Key, Object> head = by_class[cls.ordinal()].firstEntry();
+                if (head != null && (best_key == null || head.getKey().compareTo(best_key) < 0)) {
+                    best = by_class[cls.ordinal()];
+                    best_key = head.getKey();
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+
+            Object car = best.remove(best_key);
+            if (car == null) {
+                continue; // Another pump took it first; look again
+            }
+            count.decrementAndGet();
+            free_spots.release(); // Signal queue spot is free
+            return car;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        free_spots.release(ArrayWaitingArea.CLOSE_PERMITS); // Wake blocked producers
+        not_empty.signalAll();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void watch(Watchdog dog) {
+        dog.watch(free_spots.watch("free spots", false));
+        dog.watch(not_empty.watch("waiting cars"));
+    }
+
+    // Each car with its key as an age, class by class in key order, so
+    // restored cars keep their priority against each other and against
+    // the cars that come after
+    @Override
+    public void save(DataOutput out, long now_nanos) throws IOException {
+        out.writeInt(count.get());
+        for (ConcurrentSkipListMap<Key, Object> cars : by_class) {
+            for (Map.Entry<Key, Object> e : cars.entrySet()) {
+                out.writeLong(now_nanos - e.getKey().priority_nanos);
+                Snapshot.writeCar(out, (Car) e.getValue(), now_nanos);
+            }
+        }
+    }
+
+    @Override
+    public void restore(DataInput in, long now_nanos) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            long key = now_nanos - in.readLong();
+            Car car = Snapshot.readCar(in, now_nanos);
+            by_class[car.service_class.ordinal()].put(new Key(key, next_seq.getAndIncrement()), car);
+        }
+        count.set(n);
+        free_spots.tryAcquireUpTo(n);
+    }
+}
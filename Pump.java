@@ -1,51 +1,44 @@
-import java.util.Queue;
-
-
-    public class Pump extends Thread {
-    private String name,id;
-    private Queue<Car> queue;
-    private Semaphore mutex, empty, full, pumps;
-
-    public Pump(String name,String id, Queue<Car> queue, Semaphore mutex, Semaphore empty, Semaphore full, Semaphore pumps) {
-        this.name = name;
-        this.id=id;
-        this.queue = queue;
-        this.mutex = mutex;
-        this.empty = empty;
-        this.full = full;
-        this.pumps = pumps;
-
-    }
-
-    public void run() {
-        try {
-            while (true) {
-                full.waitSem();   
-                
-
-                mutex.waitSem();
-                
-                Car car= queue.poll();
-                System.out.println(name +": " + car.getName()+ " login");
-                mutex.signalSem();
-
-  
-                pumps.waitSem();   
-                System.out.println(name +": " + car.getName() + "begins service at Bay "+ id);
-
-                Thread.sleep(2000); 
-
-                System.out.println( name +": " + car.getName() + " finishes service at Bay " + id );
-
-                System.out.println( name +": " + "Bay " + id +" is now free");
-                pumps.signalSem();  
-                empty.signalSem();  
-            }
-        } catch (InterruptedException e) {
-            System.out.println( name +": " + "stopped  " );
-        }
-    }
-}
-
-
-
+// ===================================================================
+// Pump (The Consumer)
+// Serves cars until the station shuts down or its bay is closed. A
+// Runnable, so it can run on a platform or a virtual thread. Every
+// front end runs this same pump.
+// ===================================================================
+class Pump implements Runnable {
+
+    String name;
+    shared_queue sq;
+    int pump_index; // -1 = not tied to a bay reservation
+
+    Pump(shared_queue sq, String name) {
+
+        this(sq, name, -1);
+    }
+
+    Pump(shared_queue sq, String name, int pump_index) {
+
+        this.sq = sq;
+        this.name = name;
+        this.pump_index = pump_index;
+
+    }
+
+    @Override
+    public void run() {
+        Thread thread = Thread.currentThread();
+        String thread_name = thread.getName();
+        thread.setName(name); // So thread dumps and the watchdog show the pump
+        try {
+            while (sq.consume(name, pump_index) != null) {
+                // consume() returns null once the station has shut down
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sq.log.error(name + " was interrupted");
+        } finally {
+            thread.setName(thread_name);
+            sq.pumpStopped();
+        }
+    }
+
+}
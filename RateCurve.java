@@ -0,0 +1,75 @@
+// ===================================================================
+// RateCurve
+// Time-of-day multiplier for the arrival rate, piecewise constant
+// over a 24h day, e.g. "0:0.2,7:1.5,10:1.0,17:2.0,20:0.4". A multiplier
+// of 0 closes those hours: gaps start again at the next open hour.
+// ===================================================================
+final class RateCurve {
+
+    static final long HOUR_MS = 60L * 60 * 1000;
+    static final long DAY_MS = 24 * HOUR_MS;
+
+    static final RateCurve FLAT = new RateCurve(new int[] { 0 }, new double[] { 1.0 });
+
+    private final int[] start_hours;
+    private final double[] multipliers;
+    private final double max_multiplier;
+
+    private RateCurve(int[] start_hours, double[] multipliers) {
+        this.start_hours = start_hours;
+        this.multipliers = multipliers;
+        double max = 0;
+        for (double m : multipliers) {
+            max = Math.max(max, m);
+        }
+        this.max_multiplier = max;
+    }
+
+    static RateCurve parse(String spec) {
+        String[] parts = spec.split(",");
+        int[] hours = new int[parts.length];
+        double[] mults = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] hm = parts[i].split(":");
+            hours[i] = Integer.parseInt(hm[0].trim());
+            mults[i] = Double.parseDouble(hm[1].trim());
+            if (i > 0 && hours[i] <= hours[i - 1]) {
+                throw new IllegalArgumentException("Rate curve hours must increase: " + spec);
+            }
+            if (!(mults[i] >= 0) || Double.isInfinite(mults[i])) {
+                throw new IllegalArgumentException("Rate curve multipliers must be 0 or more: " + spec);
+            }
+        }
+        if (hours[0] != 0) {
+            throw new IllegalArgumentException("Rate curve must start at hour 0: " + spec);
+        }
+        RateCurve curve = new RateCurve(hours, mults);
+        if (curve.max() == 0) {
+            throw new IllegalArgumentException("Rate curve needs at least one hour with cars: " + spec);
+        }
+        return curve;
+    }
+
+    double at(long time_ms) {
+        int hour = (int) ((time_ms % DAY_MS) / HOUR_MS);
+        double m = multipliers[0];
+        for (int i = 0; i < start_hours.length && start_hours[i] <= hour; i++) {
+            m = multipliers[i];
+        }
+        return m;
+    }
+
+    double max() {
+        return max_multiplier;
+    }
+
+    // The first time from time_ms on with a rate above zero: the start of
+    // the next open hour while the station is closed (multiplier 0)
+    double open(double time_ms) {
+        long t = (long) time_ms;
+        for (int h = 0; at(t) == 0 && h < 24; h++) {
+            t = (t / HOUR_MS + 1) * HOUR_MS;
+        }
+        return t == (long) time_ms ? time_ms : t;
+    }
+}
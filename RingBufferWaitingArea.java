@@ -0,0 +1,282 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+// ===================================================================
+// RingBufferWaitingArea (Lock-Free Bounded Buffer)
+// A multi-producer / multi-consumer ring in the Disruptor style:
+// every slot carries a sequence number that says whose turn it is,
+// and producers / consumers claim positions with a single CAS on
+// tail / head. No monitor is entered on the handoff path; threads
+// only park (via SpinThenParkWaiter) when the ring is full or empty.
+// close() sets a bit in tail, so no claim can succeed after it, and
+// consumers keep going until every claimed car has been taken.
+// ===================================================================
+class RingBufferWaitingArea implements WaitingArea {
+
+    // Keeps head and tail on different cache lines
+    @SuppressWarnings("unused")
+    private static final class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private final int capacity;
+    private final int slot_count; // At least 2, or "full" and "free for next lap" look the same
+    private final Object[] slots;
+    // sequences[i] == pos       -> slot free for the producer of position pos
+    // sequences[i] == pos + 1   -> slot holds the car of position pos
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new PaddedAtomicLong(); // Next position to fill, plus CLOSED_BIT
+    private final AtomicLong head = new PaddedAtomicLong(); // Next position to take
+
+    private final SpinThenParkWaiter not_empty = new SpinThenParkWaiter();
+    private final SpinThenParkWaiter not_full = new SpinThenParkWaiter();
+
+    private static final Object CLOSED = new Object();
+    private static final long CLOSED_BIT = 1L << 62; // Set in tail by close()
+
+    RingBufferWaitingArea(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Waiting area capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slot_count = Math.max(2, capacity);
+        this.slots = new Object[slot_count];
+        this.sequences = new AtomicLongArray(slot_count);
+        for (int i = 0; i < slot_count; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /** Non-blocking put; false when the ring is full or closed. */
+    @Override
+    public boolean offer(Object car) {
+        long pos = tail.get();
+        while (true) {
+            if ((pos & CLOSED_BIT) != 0) {
+                return false;
+            }
+            int idx = (int) (pos % slot_count);
+            long dif = sequences.getAcquire(idx) - pos;
+
+            if (dif == 0 && slot_count != capacity && pos - head.get() >= capacity) {
+                return false; // Capacity 1 uses a spare slot, so check the count directly
+            }
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[idx] = car;
+                    sequences.setRelease(idx, pos + 1); // Publish
+                    not_empty.signal();
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false; // Consumer hasn't freed this slot yet: full
+            } else {
+                pos = tail.get(); // Another producer got here first
+            }
+        }
+    }
+
+    /**
+     * Non-blocking batch put: claims the run of free slots at the tail (at
+     * most n) with one CAS, fills them and returns how many; 0 when full
+     * or closed.
+     */
+    @Override
+    public int offerAll(Object[] cars, int from, int n) {
+        while (true) {
+            long pos = tail.get();
+            if ((pos & CLOSED_BIT) != 0) {
+                return 0;
+            }
+            long room = capacity - (pos - head.get());
+            int k = 0;
+            while (k < n && k < room && sequences.getAcquire((int) ((pos + k) % slot_count)) == pos + k) {
+                k++;
+            }
+            if (k == 0) {
+                if (sequences.getAcquire((int) (pos % slot_count)) - pos > 0) {
+                    continue; // Another producer moved the tail: retry
+                }
+                return 0;
+            }
+            if (tail.compareAndSet(pos, pos + k)) {
+                for (int i = 0; i < k; i++) {
+                    int idx = (int) ((pos + i) % slot_count);
+                    slots[idx] = cars[from + i];
+                    sequences.setRelease(idx, pos + i + 1); // Publish
+                }
+                for (int i = 0; i < k; i++) {
+                    not_empty.signal();
+                }
+                return k;
+            }
+        }
+    }
+
+    // The head car, if it passes the test; a CAS on head makes it ours
+    @Override
+    public Object pollIf(Predicate<Object> test) {
+        long pos = head.get();
+        int idx = (int) (pos % slot_count);
+        if (sequences.getAcquire(idx) != pos + 1) {
+            return null; // Empty, or a consumer is taking it right now
+        }
+        Object car = slots[idx];
+        if (car == null || !test.test(car) || !head.compareAndSet(pos, pos + 1)) {
+            return null;
+        }
+        slots[idx] = null;
+        sequences.setRelease(idx, pos + slot_count); // Hand slot to the next lap
+        not_full.signal();
+        return car;
+    }
+
+    /** Non-blocking take; null when the ring is empty. */
+    public Object poll() {
+        long pos = head.get();
+        while (true) {
+            int idx = (int) (pos % slot_count);
+            long dif = sequences.getAcquire(idx) - (pos + 1);
+
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Object car = slots[idx];
+                    slots[idx] = null;
+                    sequences.setRelease(idx, pos + slot_count); // Hand slot to the next lap
+                    not_full.signal();
+                    return car;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return null; // Nothing published here yet: empty
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    @Override
+    public boolean put(Object car) throws InterruptedException {
+        if (isClosed()) {
+            return false;
+        }
+        if (!offer(car)) {
+            return not_full.await(() -> isClosed() ? Boolean.FALSE : offer(car) ? Boolean.TRUE : null);
+        }
+        return true;
+    }
+
+    // Blocks for the first car that doesn't fit, then batches the rest again
+    @Override
+    public int putAll(Object[] cars, int from, int n) throws InterruptedException {
+        int done = 0;
+        while (done < n) {
+            if (isClosed()) {
+                return done;
+            }
+            int k = offerAll(cars, from + done, n - done);
+            if (k == 0) {
+                if (!put(cars[from + done])) {
+                    return done;
+                }
+                k = 1;
+            }
+            done += k;
+        }
+        return done;
+    }
+
+    @Override
+    public Object take() throws InterruptedException {
+        Object car = poll();
+        return car != null ? car : unwrap(not_empty.await(this::pollOrClosed));
+    }
+
+    @Override
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Object car = poll();
+        return car != null ? car : unwrap(not_empty.await(this::pollOrClosed, unit.toNanos(timeout)));
+    }
+
+    // The waiter retries until non-null, so "closed and empty" needs its own value.
+    // A claimed slot may still be being filled, so empty means head caught up with tail.
+    private Object pollOrClosed() {
+        Object car = poll();
+        if (car != null) {
+            return car;
+        }
+        long t = tail.get();
+        return (t & CLOSED_BIT) != 0 && head.get() >= (t & ~CLOSED_BIT) ? CLOSED : null;
+    }
+
+    private static Object unwrap(Object car) {
+        return car == CLOSED ? null : car;
+    }
+
+    @Override
+    public void close() {
+        tail.getAndUpdate(t -> t | CLOSED_BIT); // Claims that lost to this CAS see the bit and fail
+        not_empty.signalAll();
+        not_full.signalAll();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return (tail.get() & CLOSED_BIT) != 0;
+    }
+
+    @Override
+    public int size() {
+        long n = (tail.get() & ~CLOSED_BIT) - head.get();
+        return (int) Math.max(0, Math.min(capacity, n));
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void watch(Watchdog dog) {
+        dog.watch(not_full.watch("free spots"));
+        dog.watch(not_empty.watch("waiting cars"));
+    }
+
+    // head, tail and the cars in between; positions keep counting from
+    // where they were, so slot and sequence numbers match the saved ring
+    @Override
+    public void save(DataOutput out, long now_nanos) throws IOException {
+        long from = head.get();
+        long to = tail.get() & ~CLOSED_BIT;
+        out.writeLong(from);
+        out.writeLong(to);
+        for (long pos = from; pos < to; pos++) {
+            Snapshot.writeCar(out, (Car) slots[(int) (pos % slot_count)], now_nanos);
+        }
+    }
+
+    @Override
+    public void restore(DataInput in, long now_nanos) throws IOException {
+        long from = in.readLong();
+        long to = in.readLong();
+        for (long pos = from; pos < from + slot_count; pos++) {
+            int idx = (int) (pos % slot_count);
+            if (pos < to) {
+                slots[idx] = Snapshot.readCar(in, now_nanos);
+                sequences.set(idx, pos + 1); // Holds the car of position pos
+            } else {
+                sequences.set(idx, pos);     // Free for the producer of position pos
+            }
+        }
+        head.set(from);
+        tail.set(to);
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+// ===================================================================
+// RotatingFileSink
+// Plain-text log that rolls to name.1, name.2 ... once it grows past
+// max_bytes, keeping at most max_files old files.
+// ===================================================================
+class RotatingFileSink implements EventSink {
+
+    private final Path path;
+    private final long max_bytes;
+    private final int max_files;
+    private BufferedWriter writer;
+    private long written;
+
+    RotatingFileSink(Path path, long max_bytes, int max_files) throws IOException {
+        this.path = path;
+        this.max_bytes = max_bytes;
+        this.max_files = max_files;
+        open();
+    }
+
+    private void open() throws IOException {
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        written = 0;
+    }
+
+    @Override
+    public void write(List<SimEvent> batch) throws IOException {
+        for (SimEvent e : batch) {
+            String line = e.format();
+            writer.write(line);
+            writer.newLine();
+            written += line.length() + 1;
+        }
+        writer.flush();
+        if (written >= max_bytes) {
+            rotate();
+        }
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        for (int i = max_files - 1; i >= 1; i--) {
+            Path from = Path.of(path + "." + i);
+            if (Files.exists(from)) {
+                Files.move(from, Path.of(path + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, Path.of(path + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,462 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// ===================================================================
+// RunAnalytics
+// Post-run report built in one pass over the event stream, so it works
+// the same on a live EventLog (as a sink) and on a recorded trace
+// (through TraceReplayer.replay). Memory stays bounded however long
+// the run is:
+//   - the only per-car state is the cars currently in the station;
+//   - events are folded into fixed windows of window_ms, each with its
+//     own counters, time-weighted queue length, busy time per bay and
+//     LatencyRecorder histograms (which merge exactly);
+//   - the last `sliding` windows are merged into a sliding window, and
+//     the worst one seen is kept (p99 time to bay and queue length);
+//   - the queue-over-time series keeps at most MAX_POINTS points; when
+//     it is full, neighbours are merged and the point width doubles.
+// The report also checks Little's law (L = lambda * W) for the queue
+// and for the whole station. It should hold exactly when every car
+// that arrived has left, so a gap points at dropped events.
+//
+// Live:    -Dcarwash.analytics=runs/today [-Dcarwash.analytics_window_ms=1000]
+//          writes runs/today.txt (report) and runs/today.csv (series)
+// Offline: java RunAnalytics <trace prefix> [--window ms] [--sliding N] [--csv file]
+// ===================================================================
+public class RunAnalytics implements EventSink {
+
+    static final String PROPERTY = "carwash.analytics";
+    static final String WINDOW_PROPERTY = "carwash.analytics_window_ms";
+    static final int MAX_POINTS = 64;
+
+    // --- One stretch of the run; the sliding window, series and total are merges of these ---
+    static final class Window {
+        final long start;      // Nanos since the first event
+        final long width;
+        long covered;          // Time actually seen, for the means
+        long arrivals, served;
+        long rejected, balked, reneged; // Arrived, left without a wash
+        double queue_area;     // Cars waiting x nanos
+        int max_queue;
+        long[] bay_busy = new long[0];
+        final LatencyRecorder time_to_bay = new LatencyRecorder();
+        final LatencyRecorder time_in_system = new LatencyRecorder();
+        final LatencyRecorder gave_up = new LatencyRecorder(); // Time in line of the cars that left
+
+        Window(long start, long width) {
+            this.start = start;
+            this.width = width;
+        }
+
+        void addBusy(int bay, long nanos) {
+            if (bay >= bay_busy.length) {
+                bay_busy = Arrays.copyOf(bay_busy, bay + 1);
+            }
+            bay_busy[bay] += nanos;
+        }
+
+        void merge(Window other) {
+            covered += other.covered;
+            arrivals += other.arrivals;
+            served += other.served;
+            rejected += other.rejected;
+            balked += other.balked;
+            reneged += other.reneged;
+            queue_area += other.queue_area;
+            max_queue = Math.max(max_queue, other.max_queue);
+            for (int bay = 0; bay < other.bay_busy.length; bay++) {
+                addBusy(bay, other.bay_busy[bay]);
+            }
+            time_to_bay.merge(other.time_to_bay);
+            time_in_system.merge(other.time_in_system);
+            gave_up.merge(other.gave_up);
+        }
+
+        long lost() {
+            return rejected + balked + reneged;
+        }
+
+        double meanQueue() {
+            return covered == 0 ? 0 : queue_area / covered;
+        }
+
+        double busy(int bay) {
+            return covered == 0 || bay >= bay_busy.length ? 0 : (double) bay_busy[bay] / covered;
+        }
+
+        // Mean number of cars in a bay
+        double meanInBays() {
+            double sum = 0;
+            for (int bay = 0; bay < bay_busy.length; bay++) {
+                sum += busy(bay);
+            }
+            return sum;
+        }
+    }
+
+    private final long window_nanos;
+    private final Window[] sliding; // The last closed windows, oldest overwritten
+    private final Path out;         // Where close() writes the report and series, or null
+
+    // --- Cars in the station ---
+    private final Map<Object, Long> waiting = new HashMap<>(); // Arrived, no bay yet -> arrival
+    private final Set<Object> early = new HashSet<>();         // In a bay before its arrival was logged
+    private long[] bay_since = new long[0];                    // When the bay was taken, -1 = free
+    private long[] bay_arrival = new long[0];                  // When the car in it arrived
+
+    private long first;
+    private boolean started = false; // Times may be negative, e.g. a trace's offsets
+    private long now = 0;
+    private Window slot;
+    private long closed_slots = 0;
+    private final Window total = new Window(0, Long.MAX_VALUE);
+    private final List<Window> series = new ArrayList<>();
+    private long series_width;
+    private boolean finished = false;
+
+    // --- Worst sliding window ---
+    private long worst_wait = -1, worst_wait_at;
+    private double worst_queue = -1;
+    private long worst_queue_at;
+
+    RunAnalytics(long window_ms, int sliding, Path out) {
+        if (window_ms <= 0 || sliding <= 0) {
+            throw new IllegalArgumentException("Analytics window and sliding count must be positive");
+        }
+        this.window_nanos = window_ms * 1_000_000L;
+        this.sliding = new Window[sliding];
+        this.out = out;
+        this.series_width = window_nanos;
+        this.slot = new Window(0, window_nanos);
+    }
+
+    /** Null unless -Dcarwash.analytics is set; EventLog adds it as a sink. */
+    static RunAnalytics fromProperty() {
+        String prefix = System.getProperty(PROPERTY);
+        if (prefix == null || prefix.isEmpty()) {
+            return null;
+        }
+        return new RunAnalytics(Long.getLong(WINDOW_PROPERTY, 1000), 10, Path.of(prefix));
+    }
+
+    // -----------------------------------------------------------------
+    //  Folding events (drainer thread, or the replaying thread)
+    // -----------------------------------------------------------------
+
+    @Override
+    public synchronized void write(List<SimEvent> batch) {
+        for (SimEvent e : batch) {
+            if (e.kind != EventKind.ARRIVED && e.kind != EventKind.OCCUPIED && e.kind != EventKind.BAY_FREE
+                    && e.kind != EventKind.REJECTED && e.kind != EventKind.BALKED && e.kind != EventKind.RENEGED) {
+                continue; // The others don't change who is where
+            }
+            if (!started) {
+                first = e.nanos;
+                started = true;
+            }
+            long t = e.nanos - first;
+            advance(t);
+            t = now; // Batches are ordered, but one can start before the last one ended
+
+            Object key = e.car instanceof Car ? (Object) ((Car) e.car).id : e.car;
+            if (e.kind == EventKind.ARRIVED) {
+                slot.arrivals++;
+                if (!early.remove(key)) {
+                    waiting.put(key, t);
+                    slot.max_queue = Math.max(slot.max_queue, waiting.size());
+                }
+            } else if (e.kind == EventKind.OCCUPIED) {
+                Long arrived = waiting.remove(key);
+                if (arrived == null) {
+                    early.add(key); // Older traces logged arrivals after the pump had the car
+                    arrived = t;
+                }
+                slot.time_to_bay.record(t - arrived);
+                ensureBay(e.bay);
+                bay_since[e.bay] = t;
+                bay_arrival[e.bay] = arrived;
+            } else if (e.kind != EventKind.BAY_FREE) {
+                // Left the line without a wash; it still counts for Little's law
+                Long arrived = waiting.remove(key);
+                slot.gave_up.record(arrived == null ? 0 : t - arrived);
+                if (e.kind == EventKind.REJECTED) {
+                    slot.rejected++;
+                } else if (e.kind == EventKind.BALKED) {
+                    slot.balked++;
+                } else {
+                    slot.reneged++;
+                }
+            } else if (e.bay >= 0 && e.bay < bay_since.length && bay_since[e.bay] >= 0) {
+                slot.time_in_system.record(t - bay_arrival[e.bay]);
+                slot.served++;
+                bay_since[e.bay] = -1;
+            }
+        }
+    }
+
+    private void ensureBay(int bay) {
+        if (bay >= bay_since.length) {
+            int old = bay_since.length;
+            bay_since = Arrays.copyOf(bay_since, bay + 1);
+            bay_arrival = Arrays.copyOf(bay_arrival, bay + 1);
+            Arrays.fill(bay_since, old, bay + 1, -1);
+        }
+    }
+
+    // Moves the clock to t, closing every window it passes
+    private void advance(long t) {
+        if (t <= now) {
+            return;
+        }
+        while (t >= slot.start + slot.width) {
+            integrate(slot.start + slot.width);
+            closeSlot();
+            slot = new Window(slot.start + slot.width, window_nanos);
+        }
+        integrate(t);
+    }
+
+    // Adds the queue and bays as they were since now, up to t
+    private void integrate(long t) {
+        long dt = t - now;
+        if (dt <= 0) {
+            return;
+        }
+        slot.covered += dt;
+        slot.queue_area += (double) waiting.size() * dt;
+        for (int bay = 0; bay < bay_since.length; bay++) {
+            if (bay_since[bay] >= 0) {
+                slot.addBusy(bay, dt);
+            }
+        }
+        now = t;
+    }
+
+    private void closeSlot() {
+        // 1. Sliding window: this slot and the ones before it
+        sliding[(int) (closed_slots++ % sliding.length)] = slot;
+        Window recent = new Window(Math.max(0, slot.start + slot.width - sliding.length * window_nanos), 0);
+        for (Window w : sliding) {
+            if (w != null) {
+                recent.merge(w);
+            }
+        }
+        long p99 = recent.time_to_bay.percentile(99);
+        if (p99 > worst_wait) {
+            worst_wait = p99;
+            worst_wait_at = recent.start;
+        }
+        if (recent.meanQueue() > worst_queue) {
+            worst_queue = recent.meanQueue();
+            worst_queue_at = recent.start;
+        }
+
+        // 2. Series: into the last point, or a new one (halving the series when full)
+        Window last = series.isEmpty() ? null : series.get(series.size() - 1);
+        if (last == null || slot.start >= last.start + last.width) {
+            if (series.size() == MAX_POINTS) {
+                halveSeries();
+                last = series.get(series.size() - 1);
+            }
+            if (last == null || slot.start >= last.start + last.width) {
+                last = new Window(slot.start / series_width * series_width, series_width);
+                series.add(last);
+            }
+        }
+        last.merge(slot);
+
+        // 3. Whole run
+        total.merge(slot);
+    }
+
+    private void halveSeries() {
+        List<Window> merged = new ArrayList<>();
+        series_width *= 2;
+        for (int i = 0; i < series.size(); i += 2) {
+            Window w = new Window(series.get(i).start, series_width);
+            w.merge(series.get(i));
+            if (i + 1 < series.size()) {
+                w.merge(series.get(i + 1));
+            }
+            merged.add(w);
+        }
+        series.clear();
+        series.addAll(merged);
+    }
+
+    // Closes the window still open, once; nothing is folded in afterwards
+    private void finish() {
+        if (!finished) {
+            finished = true;
+            if (slot.covered > 0 || slot.arrivals > 0 || slot.served > 0 || slot.lost() > 0) {
+                closeSlot();
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  Reports
+    // -----------------------------------------------------------------
+
+    public synchronized String report() {
+        finish();
+        StringBuilder sb = new StringBuilder();
+        double span = Math.max(1, total.covered);
+        int bays = bay_since.length;
+        int in_bays = 0;
+        for (long since : bay_since) {
+            in_bays += since >= 0 ? 1 : 0;
+        }
+
+        sb.append(String.format("Run analytics: %.1f s, %d arrivals, %d served, %d still waiting, %d still in a bay%n",
+                span / 1e9, total.arrivals, total.served, waiting.size(), in_bays));
+        if (total.lost() > 0) {
+            sb.append(String.format("  lost customers rejected=%d balked=%d reneged=%d (%.1f%% of arrivals)%n",
+                    total.rejected, total.balked, total.reneged, 100.0 * total.lost() / Math.max(1, total.arrivals)));
+            sb.append("  left after     ").append(total.gave_up.summary()).append('\n');
+        }
+        sb.append(String.format("  queue length   mean %.2f, max %d%n", total.meanQueue(), total.max_queue));
+        sb.append("  time to bay    ").append(total.time_to_bay.summary()).append('\n');
+        sb.append("  time in system ").append(total.time_in_system.summary()).append('\n');
+        sb.append("  bay busy      ").append(busy(total, bays)).append('\n');
+
+        // Little's law, for the queue and for the station as a whole; cars
+        // that left without a wash spent their time in the line only
+        double lambda = total.arrivals / span;
+        sb.append(little("queue  ", total.meanQueue(), lambda, mean(total.time_to_bay, total.gave_up)));
+        sb.append(little("station", total.meanQueue() + total.meanInBays(), lambda,
+                mean(total.time_in_system, total.gave_up)));
+
+        sb.append(String.format("  worst %.0f s     p99 time to bay %.2f s from %.1f s, mean queue %.2f from %.1f s%n",
+                sliding.length * window_nanos / 1e9, worst_wait / 1e9, worst_wait_at / 1e9, worst_queue,
+                worst_queue_at / 1e9));
+
+        sb.append("  time to bay histogram\n");
+        sb.append(histogram(total.time_to_bay));
+
+        sb.append(String.format("  over time (every %.1f s)%n", series_width / 1e9));
+        sb.append("      start  arrived  served  lost  queue  max  p99 wait  bay busy\n");
+        for (Window w : series) {
+            sb.append(String.format("  %7.1f s  %7d  %6d  %4d  %5.2f  %3d  %6.2f s %s%n", w.start / 1e9, w.arrivals,
+                    w.served, w.lost(), w.meanQueue(), w.max_queue, w.time_to_bay.percentile(99) / 1e9,
+                    busy(w, bays)));
+        }
+        return sb.toString();
+    }
+
+    // Mean over both recorders' values together
+    private static double mean(LatencyRecorder a, LatencyRecorder b) {
+        long n = a.count() + b.count();
+        return n == 0 ? 0 : (a.mean() * a.count() + b.mean() * b.count()) / n;
+    }
+
+    private static String little(String what, double l, double lambda, double w) {
+        double lw = lambda * w;
+        double apart = Math.abs(l - lw) / Math.max(1e-9, Math.max(l, lw)) * 100;
+        return String.format("  Little's law   %s L=%.3f, lambda*W = %.3f/s x %.2f s = %.3f (%.1f%% apart)%n", what,
+                l, lambda * 1e9, w / 1e9, lw, apart);
+    }
+
+    private static String busy(Window w, int bays) {
+        StringBuilder sb = new StringBuilder();
+        for (int bay = 0; bay < bays; bay++) {
+            sb.append(String.format(" %d:%.0f%%", bay + 1, w.busy(bay) * 100));
+        }
+        return sb.toString();
+    }
+
+    // One row per power of two milliseconds, up to the longest wait
+    private static String histogram(LatencyRecorder r) {
+        StringBuilder sb = new StringBuilder();
+        long n = r.count();
+        if (n == 0) {
+            return sb.toString();
+        }
+        long below = 0;
+        for (long edge_ms = 1; below < n; edge_ms *= 2) {
+            long count = r.countBelow(edge_ms * 1_000_000L) - below;
+            below += count;
+            String range = edge_ms == 1 ? "under 1 ms" : (edge_ms / 2) + "-" + edge_ms + " ms";
+            sb.append(String.format("    %14s %8d  %s%n", range, count, "#".repeat((int) (40 * count / n))));
+        }
+        return sb.toString();
+    }
+
+    /** The series as CSV: one row per point, times in seconds. */
+    public synchronized void writeCsv(Path path) throws IOException {
+        finish();
+        int bays = bay_since.length;
+        try (PrintStream csv = new PrintStream(new FileOutputStream(path.toFile()), false, "UTF-8")) {
+            StringBuilder header = new StringBuilder(
+                    "start_s,width_s,arrived,served,lost,queue_mean,queue_max,wait_p50_s,wait_p99_s,system_p99_s");
+            for (int bay = 0; bay < bays; bay++) {
+                header.append(",busy_").append(bay + 1);
+            }
+            csv.println(header);
+            for (Window w : series) {
+                StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%.3f,%.3f,%d,%d,%d,%.4f,%d,%.4f,%.4f,%.4f",
+                        w.start / 1e9, w.width / 1e9, w.arrivals, w.served, w.lost(), w.meanQueue(), w.max_queue,
+                        w.time_to_bay.percentile(50) / 1e9, w.time_to_bay.percentile(99) / 1e9,
+                        w.time_in_system.percentile(99) / 1e9));
+                for (int bay = 0; bay < bays; bay++) {
+                    row.append(String.format(Locale.ROOT, ",%.4f", w.busy(bay)));
+                }
+                csv.println(row);
+            }
+        }
+    }
+
+    /** Live runs: writes out.txt and out.csv once the log is closed. */
+    @Override
+    public void close() throws IOException {
+        if (out == null) {
+            return;
+        }
+        try (PrintStream txt = new PrintStream(new FileOutputStream(out + ".txt"), false, "UTF-8")) {
+            txt.print(report());
+        }
+        writeCsv(Path.of(out + ".csv"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java RunAnalytics <trace prefix> [--window ms] [--sliding N] [--csv file]");
+            return;
+        }
+        long window_ms = 1000;
+        int slide = 10;
+        Path csv = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--window":
+                    window_ms = Long.parseLong(args[++i]);
+                    break;
+                case "--sliding":
+                    slide = Integer.parseInt(args[++i]);
+                    break;
+                case "--csv":
+                    csv = Path.of(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        RunAnalytics analytics = new RunAnalytics(window_ms, slide, null);
+        TraceReplayer.replay(Path.of(args[0]), 0, analytics);
+        System.out.print(analytics.report());
+        if (csv != null) {
+            analytics.writeCsv(csv);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+// ===================================================================
+// Semaphore
+// A counting semaphore built on AbstractQueuedSynchronizer.
+// Compared to the old wait()/notify() version it:
+//   - re-checks the count after every wake-up (no lost or spurious wake-ups),
+//   - throws InterruptedException instead of swallowing it,
+//   - supports timed tryAcquire and multi-permit acquire/release,
+//   - can hand out "as many as are free" (tryAcquireUpTo) for batches,
+//   - can shrink without waiting (reducePermits), e.g. to close a bay,
+//   - can be FIFO-fair so no waiter starves under contention,
+//   - counts how often and how long callers had to wait,
+//   - once watch()ed, tells the Watchdog who waits on it and, if the
+//     thread that takes a permit also gives it back, who holds one,
+//   - lets a DeterministicScheduler decide when its threads go on.
+// ===================================================================
+class Semaphore implements Watched {
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean fair;
+
+        Sync(int permits, boolean fair) {
+            this.fair = fair;
+            setState(permits);
+        }
+
+        int permits() {
+            return getState();
+        }
+
+        @Override
+        protected int tryAcquireShared(int acquires) {
+            while (true) {
+                if (fair && hasQueuedPredecessors()) {
+                    return -1; // Someone has been waiting longer
+                }
+                int available = getState();
+                int remaining = available - acquires;
+                if (remaining < 0 || compareAndSetState(available, remaining)) {
+                    return remaining;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int releases) {
+            while (true) {
+                int current = getState();
+                int next = current + releases;
+                if (next < current) {
+                    throw new IllegalStateException("Maximum permit count exceeded");
+                }
+                if (compareAndSetState(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        // Takes whatever is free, at most max, without waiting
+        int drainUpTo(int max) {
+            while (true) {
+                if (fair && hasQueuedPredecessors()) {
+                    return 0;
+                }
+                int available = getState();
+                int taken = Math.min(available, max);
+                if (taken <= 0 || compareAndSetState(available, available - taken)) {
+                    return Math.max(0, taken);
+                }
+            }
+        }
+
+        void reducePermits(int reductions) {
+            while (true) {
+                int current = getState();
+                int next = current - reductions;
+                if (next > current) {
+                    throw new IllegalStateException("Permit count underflow");
+                }
+                if (compareAndSetState(current, next)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private final Sync sync;
+
+    // --- Contention counters ---
+    private final LongAdder waits = new LongAdder();      // Acquires that had to park
+    private final LongAdder wait_nanos = new LongAdder(); // Total time spent parked
+    private final LongAdder timeouts = new LongAdder();   // Timed acquires that gave up
+
+    // --- Watchdog: nothing is recorded until watch() is called ---
+    private volatile boolean watched = false;
+    private boolean owned = false; // Permits are released by the thread that took them
+    private String watch_name = "semaphore";
+    private final Map<Thread, Long> waiting_since = new ConcurrentHashMap<>();
+    private final Map<Thread, Integer> holders = new ConcurrentHashMap<>();
+
+    Semaphore(int permits) {
+        this(permits, false);
+    }
+
+    Semaphore(int permits, boolean fair) {
+        sync = new Sync(permits, fair);
+    }
+
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    public void acquire(int permits) throws InterruptedException {
+        checkPermits(permits);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (sync.tryAcquireShared(permits) >= 0) {
+            held(permits);
+            return; // Fast path: no waiting
+        }
+
+        long start = DeterministicScheduler.nanoTime();
+        waits.increment();
+        waiting(start);
+        try {
+            if (DeterministicScheduler.controls(Thread.currentThread())) {
+                while (sync.tryAcquireShared(permits) < 0) {
+                    DeterministicScheduler.await(this, Long.MAX_VALUE); // Its turn comes after a release
+                }
+            } else {
+                sync.acquireSharedInterruptibly(permits);
+            }
+        } finally {
+            wait_nanos.add(DeterministicScheduler.nanoTime() - start);
+            doneWaiting();
+        }
+        held(permits);
+    }
+
+    public boolean tryAcquire() {
+        if (sync.tryAcquireShared(1) < 0) {
+            return false;
+        }
+        held(1);
+        return true;
+    }
+
+    // Takes up to max permits that are free right now and returns how
+    // many it got (maybe 0). Lets a producer claim a run of spots at once.
+    public int tryAcquireUpTo(int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        int taken = sync.drainUpTo(max);
+        if (taken > 0) {
+            held(taken);
+        }
+        return taken;
+    }
+
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return tryAcquire(1, timeout, unit);
+    }
+
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        checkPermits(permits);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (sync.tryAcquireShared(permits) >= 0) {
+            held(permits);
+            return true;
+        }
+
+        long start = DeterministicScheduler.nanoTime();
+        waits.increment();
+        waiting(start);
+        try {
+            boolean acquired;
+            if (DeterministicScheduler.controls(Thread.currentThread())) {
+                long deadline = start + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+                while (!(acquired = sync.tryAcquireShared(permits) >= 0)
+                        && DeterministicScheduler.nanoTime() < deadline) {
+                    DeterministicScheduler.await(this, deadline);
+                }
+            } else {
+                acquired = sync.tryAcquireSharedNanos(permits, unit.toNanos(timeout));
+            }
+            if (!acquired) {
+                timeouts.increment();
+            } else {
+                held(permits);
+            }
+            return acquired;
+        } finally {
+            wait_nanos.add(DeterministicScheduler.nanoTime() - start);
+            doneWaiting();
+        }
+    }
+
+    public void release() {
+        release(1);
+    }
+
+    public void release(int permits) {
+        checkPermits(permits);
+        if (watched && owned) {
+            holders.computeIfPresent(Thread.currentThread(), (t, n) -> n > permits ? n - permits : null);
+        }
+        sync.releaseShared(permits);
+        DeterministicScheduler.released(this); // Scheduled waiters don't park on sync
+    }
+
+    // Takes permits away without waiting for them to be free. The count
+    // may go negative; later releases pay that back before anyone else
+    // gets a permit, so a busy bay closes once its car is done.
+    public void reducePermits(int reductions) {
+        checkPermits(reductions);
+        sync.reducePermits(reductions);
+    }
+
+    public int availablePermits() {
+        return sync.permits();
+    }
+
+    // True when every permit is taken (e.g. all bays busy)
+    public boolean isFull() {
+        return sync.permits() <= 0;
+    }
+
+    public boolean isFair() {
+        return sync.fair;
+    }
+
+    public int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    public long getWaitCount() {
+        return waits.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long getTotalWaitNanos() {
+        return wait_nanos.sum();
+    }
+
+    public long getAverageWaitNanos() {
+        long n = waits.sum();
+        return n == 0 ? 0 : wait_nanos.sum() / n;
+    }
+
+    // -----------------------------------------------------------------
+    //  Watchdog
+    // -----------------------------------------------------------------
+
+    /**
+     * Starts recording waiters, and holders too when owned (permits are
+     * given back by the thread that took them, like a bay). Call it
+     * before other threads use the semaphore.
+     */
+    Semaphore watch(String name, boolean owned) {
+        this.watch_name = name;
+        this.owned = owned;
+        this.watched = true;
+        return this;
+    }
+
+    private void waiting(long start) {
+        if (watched) {
+            waiting_since.put(Thread.currentThread(), start);
+        }
+    }
+
+    private void doneWaiting() {
+        if (watched) {
+            waiting_since.remove(Thread.currentThread());
+        }
+    }
+
+    private void held(int permits) {
+        if (watched && owned) {
+            holders.merge(Thread.currentThread(), permits, Integer::sum);
+        }
+    }
+
+    @Override
+    public String watchName() {
+        return watch_name;
+    }
+
+    @Override
+    public Map<Thread, Long> waitingSince() {
+        return waiting_since;
+    }
+
+    @Override
+    public Collection<Thread> holders() {
+        return holders.keySet();
+    }
+
+    private static void checkPermits(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("Negative permit count: " + permits);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Semaphore[permits=" + availablePermits() + ", waits=" + getWaitCount()
+                + ", avgWaitNanos=" + getAverageWaitNanos() + "]";
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.EnumSet;
+
+// ===================================================================
+// ServiceClass
+// What kind of wash a car came for. The boost is how far ahead of a
+// standard car it is queued: a premium car that arrives now is served
+// like a standard car that arrived 3 s ago. Because the boost is a
+// fixed amount of time, a car that has waited longer than the biggest
+// boost can't be overtaken any more (aging), so nobody starves.
+// ===================================================================
+enum ServiceClass {
+    PREMIUM(3000),
+    FLEET(2000),
+    EXPRESS(1000),
+    STANDARD(0);
+
+    static final EnumSet<ServiceClass> ALL = EnumSet.allOf(ServiceClass.class);
+
+    final long boost_ms;
+
+    ServiceClass(long boost_ms) {
+        this.boost_ms = boost_ms;
+    }
+
+    static ServiceClass of(Object car) {
+        return car instanceof Car ? ((Car) car).service_class : STANDARD;
+    }
+
+    static ServiceClass parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Reads -Dcarwash.reserved_bays, e.g. "express:1,premium:1", and returns
+     * the class each bay's pump is reserved for (null = serves everyone).
+     * Reserved bays come first; at least one bay must stay unreserved.
+     */
+    static ServiceClass[] reservationsFromProperty(int num_of_service_bays) {
+        ServiceClass[] reserved = new ServiceClass[num_of_service_bays];
+        String spec = System.getProperty("carwash.reserved_bays");
+        if (spec == null || spec.isEmpty()) {
+            return reserved;
+        }
+        int bay = 0;
+        for (String part : spec.split(",")) {
+            String[] kv = part.split(":");
+            ServiceClass cls = parse(kv[0]);
+            int n = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            for (int i = 0; i < n; i++) {
+                if (bay >= num_of_service_bays - 1) {
+                    throw new IllegalArgumentException("Reserved bays must leave at least one bay for everyone");
+                }
+                reserved[bay++] = cls;
+            }
+        }
+        return reserved;
+    }
+}
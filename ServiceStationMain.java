@@ -1,222 +1,10 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Scanner;
-
-class Semaphore {
-
-    protected int counter = 0;
-
-    Semaphore(int init_value) {
-
-        counter = init_value;
-
-    }
-
-    public synchronized void check_if_free() {
-
-        counter--;
-
-        if (counter < 0) {
-
-            try {
-
-                wait();
-
-            } catch (Exception e) {
-
-                System.out
-                        .println(ServiceStationMain.RED + "The error is " + e.getMessage() + ServiceStationMain.RESET);
-            }
-        }
-    }
-
-    public synchronized void check_if_waiting() {
-
-        counter++;
-
-        if (counter <= 0) {
-
-            try {
-
-                notify();
-
-            } catch (Exception e) {
-
-                System.out
-                        .println(ServiceStationMain.RED + "The error is " + e.getMessage() + ServiceStationMain.RESET);
-            }
-        }
-    }
-
-    public synchronized boolean isFull() {
-
-        return counter <= 0;
-    }
-
-}
-
-class Car extends Thread {
-
-    shared_queue sq;
-    public String car_names[];
-
-    Car(shared_queue sq, String car_names[]) {
-
-        this.sq = sq;
-        this.car_names = car_names;
-
-    }
-
-    @Override
-    public void run() {
-
-        for (String car : car_names) {
-
-            sq.produce(car);
-        }
-        for (int i = 0; i < sq.num_of_service_bays; i++) {
-            sq.produce("Stop");
-        }
-    }
-
-}
-
-class Pump extends Thread {
-
-    String name;
-    shared_queue sq;
-
-    Pump(shared_queue sq, String name) {
-
-        this.sq = sq;
-        this.name = name;
-
-    }
-
-    @Override
-    public void run() {
-        while (true) {
-
-            Object consumed_item = sq.consume(name);
-            if (consumed_item.equals("Stop")) {
-                break;
-            }
-        }
-    }
-
-}
-
-class shared_queue {
-
-    public int waiting_area_size = 1;
-    public int num_of_service_bays = 1;
-    public int service_inptr = 0, waiting_inptr = 0, waiting_outptr = 0;
-
-    private Object waiting_area[];
-    private Object service_bays[];
-    Semaphore waiting_area_counter;
-    Semaphore service_bays_counter = new Semaphore(0);
-    Semaphore pumps_Semaphore;
-
-    shared_queue(int waiting_area_size, int num_of_service_bays) {
-
-        this.waiting_area_size = waiting_area_size;
-        this.num_of_service_bays = num_of_service_bays;
-        this.waiting_area = new Object[waiting_area_size];
-        this.service_bays = new Object[num_of_service_bays];
-        waiting_area_counter = new Semaphore(waiting_area_size);
-        pumps_Semaphore = new Semaphore(num_of_service_bays);
-
-    }
-
-    Object produce_lock = new Object();
-    Object consume_lock = new Object();
-
-    public void produce(Object value) {
-
-        try {
-            Thread.sleep(300);
-        } catch (Exception e) {
-            System.out.println(ServiceStationMain.RED + "Can't sleep" + ServiceStationMain.RESET);
-        }
-
-        waiting_area_counter.check_if_free();
-
-        synchronized (produce_lock) {
-
-            waiting_area[waiting_inptr] = value;
-            waiting_inptr = (waiting_inptr + 1) % waiting_area_size;
-
-            if (!value.equals("Stop")) {
-
-                System.out.println(
-                        ServiceStationMain.BRIGHT_GREEN + value + " has arrived" + ServiceStationMain.RESET);
-
-                if (pumps_Semaphore.isFull()) {
-                    System.out.println(
-                            ServiceStationMain.BRIGHT_YELLOW + value + " arrived and waiting"
-                                    + ServiceStationMain.RESET);
-                }
-            }
-        }
-
-        service_bays_counter.check_if_waiting();
-    }
-
-    public Object consume(String pump_name) {
-
-        service_bays_counter.check_if_free();
-        Object car_name;
-        int my_bay_idx = 0;
-        synchronized (consume_lock) {
-
-            car_name = waiting_area[waiting_outptr];
-            if (!car_name.equals("Stop")) {
-
-                pumps_Semaphore.check_if_free();
-                service_bays[service_inptr] = waiting_area[waiting_outptr];
-
-                my_bay_idx = service_inptr;
-                System.out.println(
-                        ServiceStationMain.CYAN + pump_name + ": " + car_name + " Ocuupied" + ServiceStationMain.RESET);
-                service_inptr = (service_inptr + 1) % num_of_service_bays;
-            }
-            waiting_outptr = (waiting_outptr + 1) % waiting_area_size;
-        }
-
-        waiting_area_counter.check_if_waiting();
-        if (!car_name.equals("Stop")) {
-
-            System.out.println(
-                    ServiceStationMain.BLUE + pump_name + ": " + car_name + " login" + ServiceStationMain.RESET);
-            try {
-                Thread.sleep(200);
-            } catch (Exception e) {
-                System.err.println(
-                        ServiceStationMain.RED + "Can't sleep, the error: " + e.getMessage()
-                                + ServiceStationMain.RESET);
-            }
-            System.out.println(ServiceStationMain.BRIGHT_GREEN + pump_name + ": " + car_name + " begins service at Bay "
-                    + (my_bay_idx + 1) + ServiceStationMain.RESET);
-
-            try {
-
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                System.err.println(
-                        ServiceStationMain.RED + "The Service was interrupted " + e.getMessage()
-                                + ServiceStationMain.RESET);
-            }
-            System.out.println(ServiceStationMain.BRIGHT_GREEN + pump_name + ": " + car_name + " finshes service"
-                    + ServiceStationMain.RESET);
-            System.out.println(ServiceStationMain.GREEN + pump_name + ": " + "Bay " + (my_bay_idx + 1) + " is now free"
-                    + ServiceStationMain.RESET);
-            pumps_Semaphore.check_if_waiting();
-        }
-
-        return car_name;
-
-    }
-
-}
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ServiceStationMain {
 
@@ -240,34 +28,151 @@ public class ServiceStationMain {
     public static void main(String[] args) {
 
         java.util.Scanner input_scanner = new Scanner(System.in);
-        System.out.print("Please enter the waiting area capacity: ");
-        int waiting_area_size = input_scanner.nextInt();
-        System.out.print("Now please enter the number of service bays (pumps): ");
-        int num_of_service_bays = input_scanner.nextInt();
-        input_scanner.nextLine();
-        System.out.print("Cars arriving (order): ");
-        car_names = input_scanner.nextLine().split(" ");
+        // -Dcarwash.resume=<file> carries on a saved run instead (see Checkpointer)
+        String resume = System.getProperty(Checkpointer.RESUME_PROPERTY);
+        int waiting_area_size = 0;
+        int num_of_service_bays = 0;
+        Iterator<?> cars = null;
+        if (resume == null) {
+            System.out.print("Please enter the waiting area capacity: ");
+            waiting_area_size = input_scanner.nextInt();
+            System.out.print("Now please enter the number of service bays (pumps): ");
+            num_of_service_bays = input_scanner.nextInt();
+            input_scanner.nextLine();
+
+            // -Dcarwash.workload="arrivals=poisson:300 ..." generates the cars instead
+            String workload = System.getProperty(WorkloadGenerator.PROPERTY);
+            if (workload != null) {
+                cars = WorkloadGenerator.parse(workload);
+            } else {
+                System.out.print("Cars arriving (order): ");
+                car_names = input_scanner.nextLine().split(" ");
+                cars = Arrays.asList(car_names).iterator();
+            }
 
-        shared_queue sq = new shared_queue(waiting_area_size, num_of_service_bays);
+            // Virtual-clock mode: same model and log, no sleeping
+            if (args.length > 0 && args[0].equals("--virtual-clock")) {
+                input_scanner.close();
+                try {
+                    DiscreteEventSimulation.checkOptions();
+                } catch (IllegalArgumentException e) {
+                    System.err.println(ServiceStationMain.RED + e.getMessage() + ServiceStationMain.RESET);
+                    return;
+                }
+                new DiscreteEventSimulation(waiting_area_size, num_of_service_bays, SimulationTiming.DEFAULT,
+                        cars, System.out::println).run();
+                return;
+            }
+        }
+
+        EventLog log = new EventLog(new ConsoleSink(System.out, true)).withFileSinkFromProperty();
+        shared_queue sq;
+        DeterministicScheduler scheduler; // -Dcarwash.schedule: reproducible threads
+        try {
+            scheduler = DeterministicScheduler.installFromProperty(log); // Before the station reads the clock
+            if (resume != null) {
+                sq = shared_queue.restore(Paths.get(resume), log);
+                num_of_service_bays = sq.num_of_service_bays;
+                log.info("Resumed " + resume + ": " + sq.metrics.getServed() + " cars served so far, "
+                        + sq.metrics.getQueueDepth() + " waiting, " + sq.lanes().length + " lanes still arriving");
+            } else {
+                sq = new shared_queue(waiting_area_size, num_of_service_bays, log);
+            }
+            if (scheduler != null) {
+                scheduler.check(sq);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(ServiceStationMain.RED + e.getMessage() + ServiceStationMain.RESET);
+            log.close();
+            return;
+        }
+        sq.metrics.registerMBean("console");
+        sq.metrics.startReporterFromProperty(log::info);
+        if (!sq.admission.blocks() || sq.admission.patience_ms > 0) {
+            log.info(sq.admission.toString()); // -Dcarwash.admission
+        }
+
+        Dashboard dashboard;
+        try {
+            dashboard = Dashboard.startFromProperty(sq, log); // -Dcarwash.dashboard, before the pumps start
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(ServiceStationMain.RED + "Can't start the dashboard: " + e.getMessage()
+                    + ServiceStationMain.RESET);
+            log.close();
+            return;
+        }
+        Watchdog watchdog = Watchdog.startFromProperty(sq, log); // -Dcarwash.watchdog, likewise
+        Checkpointer checkpointer;
+        try {
+            checkpointer = Checkpointer.startFromProperty(sq, log); // -Dcarwash.checkpoint, likewise
+        } catch (IllegalArgumentException e) {
+            System.err.println(ServiceStationMain.RED + e.getMessage() + ServiceStationMain.RESET);
+            abandon(sq, log, watchdog, null);
+            return;
+        }
 
-        Car cars_producer = new Car(sq, car_names);
         Pump pumps_consumer[] = new Pump[num_of_service_bays];
         input_scanner.close();
         for (int i = 0; i < num_of_service_bays; i++) {
 
             String pump_name = "Pump " + (i + 1);
-            pumps_consumer[i] = new Pump(sq, pump_name);
+            pumps_consumer[i] = new Pump(sq, pump_name, i);
+        }
+
+        // Platform, virtual or pooled threads, chosen with -Dcarwash.execution
+        CarProducer cars_producers[]; // One per entry lane, -Dcarwash.lanes
+        ExecutorService executor;
+        try {
+            cars_producers = resume != null ? sq.lanes() : CarProducer.fromProperty(sq, cars);
+            if (scheduler != null) {
+                executor = scheduler.newExecutor(); // A thread each, taking turns
+            } else {
+                ExecutionMode mode = ExecutionMode.fromProperty();
+                mode.checkProducers(cars_producers.length);
+                executor = mode.newExecutor();
+            }
+        } catch (RuntimeException e) {
+            System.err.println(ServiceStationMain.RED + e.getMessage() + ServiceStationMain.RESET);
+            abandon(sq, log, watchdog, checkpointer);
+            return;
+        }
+
+        for (CarProducer lane : cars_producers) {
+
+            executor.execute(lane); // Producers first, so a small pool can't starve them
         }
         for (int i = 0; i < num_of_service_bays; i++) {
 
-            pumps_consumer[i].start();
+            executor.execute(pumps_consumer[i]);
+        }
+        if (scheduler != null) {
+            scheduler.start(); // Every thread is in: the first turn
         }
 
-        cars_producer.start();
+        Autoscaler autoscaler = Autoscaler.startFromProperty(sq, executor, log); // -Dcarwash.autoscale
+
         try {
-            cars_producer.join();
-            for (int i = 0; i < pumps_consumer.length; i++) {
-                pumps_consumer[i].join();
+            // Pumps come and go with the autoscaler, so wait for the station first
+            sq.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (autoscaler != null) {
+                autoscaler.close();
+                log.info(autoscaler.getSummary());
+            }
+            if (watchdog != null) {
+                watchdog.close();
+                log.info(watchdog.getSummary());
+            }
+            if (checkpointer != null) {
+                checkpointer.close();
+                log.info(checkpointer.getSummary());
+            }
+            if (dashboard != null) {
+                log.info(dashboard.getSummary()); // The log closes it, after its last events
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (scheduler != null) {
+                log.info(scheduler.getSummary());
             }
 
         } catch (Exception e) {
@@ -275,8 +180,24 @@ public class ServiceStationMain {
             System.err.println(ServiceStationMain.RED + "Can't join with other threads, the error is: " + e.getMessage()
                     + ServiceStationMain.RESET);
         }
-        System.out
-                .println(ServiceStationMain.PURPLE + "All cars processed; simulation ends" + ServiceStationMain.RESET);
+        log.info("All cars processed; simulation ends");
+        log.info(sq.metrics.getSnapshot());
+        sq.metrics.close();
+        log.close();
+    }
+
+    // A run that can't start: stops what was started for it. The log,
+    // closed last, closes the dashboard
+    private static void abandon(shared_queue sq, EventLog log, Watchdog watchdog, Checkpointer checkpointer) {
+
+        if (watchdog != null) {
+            watchdog.close();
+        }
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+        sq.metrics.close();
+        log.close();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+// ===================================================================
+// SimEvent
+// One structured log record. The text is only built by the drainer,
+// never by the pump or car thread that reported the event.
+// ===================================================================
+final class SimEvent {
+
+    final long nanos;      // System.nanoTime() when it happened (virtual under a DeterministicScheduler)
+    final EventKind kind;
+    final String pump;     // null for car / info events
+    final int pump_index;  // 0-based, as the front ends number their pumps; -1 if none
+    final Object car;
+    final int bay;         // 0-based, -1 if none
+    final String text;     // For INFO / ERROR
+
+    SimEvent(long nanos, EventKind kind, String pump, int pump_index, Object car, int bay, String text) {
+        this.nanos = nanos;
+        this.kind = kind;
+        this.pump = pump;
+        this.pump_index = pump_index;
+        this.car = car;
+        this.bay = bay;
+        this.text = text;
+    }
+
+    /** The same wording the simulation has always printed. */
+    String format() {
+        switch (kind) {
+            case ARRIVED:
+                return car + " has arrived";
+            case ARRIVED_WAITING:
+                return car + " arrived and waiting";
+            case OCCUPIED:
+                return pump + ": " + car + " Occupied";
+            case LOGIN:
+                return pump + ": " + car + " login";
+            case BEGIN_SERVICE:
+                return pump + ": " + car + " begins service at Bay " + (bay + 1);
+            case FINISHED:
+                return pump + ": " + car + " finished service";
+            case BAY_FREE:
+                return pump + ": " + "Bay " + (bay + 1) + " is now free";
+            case BAY_OPENED:
+                return pump + ": " + "Bay " + (bay + 1) + " is open";
+            case BAY_CLOSED:
+                return pump + " stopped: its bay was closed";
+            case REJECTED:
+                return car + " drove away: the waiting area is full";
+            case BALKED:
+                return car + " saw the line and drove away";
+            case RENEGED:
+                return car + " gave up waiting and left";
+            case ERROR:
+                return "Error: " + text;
+            default:
+                return text;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+// ===================================================================
+// SimulationTiming
+// The fixed delays of the station model, in milliseconds.
+// The threaded shared_queue uses them as Thread.sleep durations and
+// the DiscreteEventSimulation uses them as virtual-clock offsets, so
+// both modes always describe the same station.
+// ===================================================================
+class SimulationTiming {
+
+    // The timings the simulation has always used
+    public static final SimulationTiming DEFAULT = new SimulationTiming(300, 200, 1000);
+
+    public final long arrival_ms; // Gap between two car arrivals
+    public final long login_ms;   // Time from "login" to "begins service"
+    public final long service_ms; // Time spent washing the car
+
+    SimulationTiming(long arrival_ms, long login_ms, long service_ms) {
+        this.arrival_ms = arrival_ms;
+        this.login_ms = login_ms;
+        this.service_ms = service_ms;
+    }
+}
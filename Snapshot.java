@@ -0,0 +1,161 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// ===================================================================
+// Snapshot
+// The binary checkpoint format of both engines:
+//   int "CWSN", short version, byte engine (DES or STATION)
+// and then the engine's own state, see DiscreteEventSimulation.save
+// and shared_queue.save. Cars, car sources and histograms are written
+// by the helpers here (and LatencyRecorder), so both engines store
+// them the same way. A file is written next to its target and moved
+// over it, so a JVM that dies while saving leaves the last good
+// snapshot in place.
+// ===================================================================
+final class Snapshot {
+
+    static final int MAGIC = 0x4357534E; // "CWSN"
+    static final short VERSION = 1;
+    static final byte DES = 1;     // DiscreteEventSimulation
+    static final byte STATION = 2; // The threaded shared_queue
+
+    // Car sources (see writeSource)
+    private static final byte NAMES = 1;    // What is left of a list of names or cars
+    private static final byte COUNTED = 2;  // DiscreteEventSimulation.generatedCars
+    private static final byte WORKLOAD = 3; // A WorkloadGenerator part way through
+
+    interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private Snapshot() {
+    }
+
+    /** Writes header and body to file, replacing it only once all of it is written. */
+    static void save(Path file, byte engine, Body body) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(engine);
+            body.write(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Opens file past its header; fails unless the given engine saved it. */
+    static DataInputStream open(Path file, byte engine) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a car wash snapshot");
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException(file + " has snapshot version " + version + ", expected " + VERSION);
+            }
+            byte saved_by = in.readByte();
+            if (saved_by != engine) {
+                throw new IOException(file + " was saved by " + engineName(saved_by) + ", not by "
+                        + engineName(engine));
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    private static String engineName(byte engine) {
+        return engine == DES ? "the virtual-clock simulation" : engine == STATION ? "a threaded station" : "?";
+    }
+
+    // -----------------------------------------------------------------
+    //  Cars
+    // -----------------------------------------------------------------
+
+    // A car that has arrived stores how long ago, so its wait (and its
+    // patience) carries on from the same point when the run resumes
+    static void writeCar(DataOutput out, Car car, long now_nanos) throws IOException {
+        out.writeLong(car.id);
+        out.writeUTF(car.name);
+        out.writeLong(car.gap_ms);
+        out.writeLong(car.service_ms);
+        out.writeByte(car.service_class.ordinal());
+        out.writeByte(car.wash_type.ordinal());
+        out.writeLong(car.arrival_nanos == 0 ? -1 : now_nanos - car.arrival_nanos);
+    }
+
+    static Car readCar(DataInput in, long now_nanos) throws IOException {
+        Car car = new Car(in.readLong(), in.readUTF(), in.readLong(), in.readLong(),
+                ServiceClass.values()[in.readByte()], WashType.values()[in.readByte()]);
+        long age = in.readLong();
+        return age < 0 ? car : car.arrivedAt(now_nanos - age);
+    }
+
+    // -----------------------------------------------------------------
+    //  Car sources
+    // -----------------------------------------------------------------
+
+    /**
+     * Writes how far a car source has got and returns the iterator to go
+     * on with. Generators save their state; a list has to be read to be
+     * saved, so its caller must switch to the returned copy.
+     */
+    static Iterator<?> writeSource(DataOutput out, Iterator<?> cars) throws IOException {
+        if (cars instanceof WorkloadGenerator) {
+            out.writeByte(WORKLOAD);
+            ((WorkloadGenerator) cars).save(out);
+            return cars;
+        }
+        if (cars instanceof DiscreteEventSimulation.CountedCars) {
+            out.writeByte(COUNTED);
+            ((DiscreteEventSimulation.CountedCars) cars).save(out);
+            return cars;
+        }
+        List<Object> rest = new ArrayList<>();
+        cars.forEachRemaining(rest::add);
+        out.writeByte(NAMES);
+        out.writeInt(rest.size());
+        for (Object item : rest) {
+            out.writeBoolean(item instanceof Car);
+            if (item instanceof Car) {
+                writeCar(out, (Car) item, 0);
+            } else {
+                out.writeUTF(item.toString());
+            }
+        }
+        return rest.iterator();
+    }
+
+    static Iterator<?> readSource(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+            case WORKLOAD:
+                return WorkloadGenerator.load(in);
+            case COUNTED:
+                return DiscreteEventSimulation.CountedCars.load(in);
+            case NAMES: {
+                int n = in.readInt();
+                List<Object> rest = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    rest.add(in.readBoolean() ? readCar(in, 0) : in.readUTF());
+                }
+                return rest.iterator();
+            }
+            default:
+                throw new IOException("Unknown car source " + kind);
+        }
+    }
+}
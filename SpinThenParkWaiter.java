@@ -0,0 +1,137 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// ===================================================================
+// SpinThenParkWaiter (Wait Strategy)
+// Retries an operation with a short busy-spin, then a few yields, and
+// finally parks. Parked threads are woken one at a time by signal(),
+// so an idle pump costs no CPU while the ring stays lock-free.
+// Once watch()ed, threads that get as far as parking are recorded
+// for the Watchdog.
+// ===================================================================
+class SpinThenParkWaiter implements Watched {
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 10;
+    private static final long MAX_PARK_NANOS = 10_000_000L; // Safety net against a missed signal
+
+    private final ConcurrentLinkedQueue<Thread> parked = new ConcurrentLinkedQueue<>();
+
+    private volatile String watch_name; // Null until watched
+    private final Map<Thread, Long> waiting_since = new ConcurrentHashMap<>();
+
+    SpinThenParkWaiter watch(String name) {
+        watch_name = name;
+        return this;
+    }
+
+    /** Retries attempt until it returns non-null. */
+    <T> T await(Supplier<T> attempt) throws InterruptedException {
+        return await(attempt, Long.MAX_VALUE);
+    }
+
+    /** Retries attempt until it returns non-null, or returns null after timeout_nanos. */
+    <T> T await(Supplier<T> attempt, long timeout_nanos) throws InterruptedException {
+        if (timeout_nanos <= 0) {
+            return attempt.get();
+        }
+        boolean timed = timeout_nanos != Long.MAX_VALUE; // Long.MAX_VALUE = wait forever
+        long deadline = timed ? System.nanoTime() + timeout_nanos : 0;
+
+        // 1. Spin, then yield: cheapest when the other side is just about to act
+        for (int i = 0; i < SPIN_TRIES + YIELD_TRIES; i++) {
+            T result = attempt.get();
+            if (result != null) {
+                return result;
+            }
+            if (i < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+
+        // 2. Park: register first, re-check, then sleep until signalled
+        Thread me = Thread.currentThread();
+        if (watch_name != null) {
+            waiting_since.put(me, System.nanoTime());
+        }
+        try {
+            return park(attempt, timed, deadline);
+        } finally {
+            if (watch_name != null) {
+                waiting_since.remove(me);
+            }
+        }
+    }
+
+    private <T> T park(Supplier<T> attempt, boolean timed, long deadline) throws InterruptedException {
+        Thread me = Thread.currentThread();
+        while (true) {
+            if (Thread.interrupted()) {
+                signal(); // Don't swallow a wake-up that may have been meant for us
+                throw new InterruptedException();
+            }
+            parked.add(me);
+
+            T result = attempt.get();
+            if (result != null) {
+                if (!parked.remove(me)) {
+                    signal(); // We were already signalled; pass the wake-up on
+                }
+                return result;
+            }
+
+            long park_nanos = MAX_PARK_NANOS;
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (!parked.remove(me)) {
+                        signal(); // Signalled just as we gave up; pass it on
+                    }
+                    return null;
+                }
+                park_nanos = Math.min(park_nanos, remaining);
+            }
+            LockSupport.parkNanos(this, park_nanos);
+            parked.remove(me);
+        }
+    }
+
+    @Override
+    public String watchName() {
+        return watch_name;
+    }
+
+    @Override
+    public Map<Thread, Long> waitingSince() {
+        return waiting_since;
+    }
+
+    // Woken by whichever thread puts or takes next
+    @Override
+    public Collection<Thread> holders() {
+        return Collections.emptyList();
+    }
+
+    /** Wakes one parked thread, if any. */
+    void signal() {
+        Thread t = parked.poll();
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /** Wakes every parked thread, for waiters that retry different operations. */
+    void signalAll() {
+        Thread t;
+        while ((t = parked.poll()) != null) {
+            LockSupport.unpark(t);
+        }
+    }
+}
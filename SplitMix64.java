@@ -0,0 +1,45 @@
+// ===================================================================
+// SplitMix64
+// Small seeded random generator whose whole state is one long, so a
+// run can be reproduced (or checkpointed) exactly.
+// ===================================================================
+final class SplitMix64 {
+
+    private long state;
+
+    SplitMix64(long seed) {
+        this.state = seed;
+    }
+
+    long nextLong() {
+        return mix(state += 0x9E3779B97F4A7C15L);
+    }
+
+    // The output finalizer; also spreads related seeds (seed + 1, seed + 2, ...)
+    // so far apart that their streams share no stretch
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Uniform in (0, 1], never 0 so it is safe inside log(). */
+    double nextDouble() {
+        return ((nextLong() >>> 11) + 1) * 0x1.0p-53;
+    }
+
+    double nextGaussian() {
+        // Box-Muller; one value per call keeps the state simple to save
+        double u1 = nextDouble();
+        double u2 = nextDouble();
+        return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+    }
+
+    long getState() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.List;
+
+// ===================================================================
+// StationListener
+// Typed callbacks for front ends that follow the station's state
+// (pump labels, a waiting count) rather than print its log. It is an
+// EventSink, so it is called on the drainer thread with whole batches;
+// the pumps and the producer never call into a front end. Pumps come
+// with their display name and their 0-based index (-1 for a pump that
+// has none, e.g. a benchmark's).
+// ===================================================================
+interface StationListener extends EventSink {
+
+    default void arrived(Object car) {
+    }
+
+    default void bayTaken(String pump, int pump_index, Object car, int bay) {
+    }
+
+    default void bayFreed(String pump, int pump_index, Object car, int bay) {
+    }
+
+    default void bayOpened(String pump, int pump_index, int bay) {
+    }
+
+    default void bayClosed(String pump, int pump_index, int bay) {
+    }
+
+    /** An arrived car left without a wash: REJECTED, BALKED or RENEGED. */
+    default void left(Object car, EventKind why) {
+    }
+
+    /** INFO and ERROR text. */
+    default void message(SimEvent e) {
+    }
+
+    @Override
+    default void write(List<SimEvent> batch) {
+        for (SimEvent e : batch) {
+            switch (e.kind) {
+                case ARRIVED:
+                    arrived(e.car);
+                    break;
+                case OCCUPIED:
+                    bayTaken(e.pump, e.pump_index, e.car, e.bay);
+                    break;
+                case BAY_FREE:
+                    bayFreed(e.pump, e.pump_index, e.car, e.bay);
+                    break;
+                case BAY_OPENED:
+                    bayOpened(e.pump, e.pump_index, e.bay);
+                    break;
+                case BAY_CLOSED:
+                    bayClosed(e.pump, e.pump_index, e.bay);
+                    break;
+                case REJECTED:
+                case BALKED:
+                case RENEGED:
+                    left(e.car, e.kind);
+                    break;
+                case INFO:
+                case ERROR:
+                    message(e);
+                    break;
+                default:
+                    break; // Steps in between don't change the station's state
+            }
+        }
+    }
+}
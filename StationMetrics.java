@@ -0,0 +1,332 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// ===================================================================
+// StationMetrics
+// Counters and latency histograms for one shared_queue run:
+//   - arrivals / served (striped LongAdders, cheap from any thread)
+//   - lost customers: rejected, balked and reneged
+//   - exact queue depth, read straight from the WaitingArea
+//   - time in queue, time to bay, service time, bay semaphore wait
+//   - time in queue per service class
+//   - busy time per bay, for utilization
+// Exported as a JMX MBean and as a periodic text snapshot.
+// ===================================================================
+public class StationMetrics implements StationMetricsMBean {
+
+    private long start_nanos = DeterministicScheduler.nanoTime(); // Moved back by restore()
+
+    final LongAdder arrivals = new LongAdder();
+    final LongAdder served = new LongAdder();
+    final LongAdder rejected = new LongAdder(); // Lost customers, see AdmissionPolicy
+    final LongAdder balked = new LongAdder();
+    final LongAdder reneged = new LongAdder();
+
+    final LatencyRecorder time_in_queue = new LatencyRecorder();  // Entered queue -> taken by a pump
+    final LatencyRecorder time_to_bay = new LatencyRecorder();    // Entered queue -> bay reserved
+    final LatencyRecorder service_time = new LatencyRecorder();   // Bay reserved -> bay free
+    final LatencyRecorder semaphore_wait = new LatencyRecorder(); // Blocked on the bay semaphore
+    final LatencyRecorder[] class_wait = new LatencyRecorder[ServiceClass.values().length]; // Per class
+
+    private final AtomicLongArray bay_busy_nanos;
+    private final IntSupplier queue_depth;
+    private final AtomicInteger max_queue_depth = new AtomicInteger();
+
+    private ObjectName jmx_name;
+    private ScheduledExecutorService reporter;
+
+    StationMetrics(int num_of_service_bays, IntSupplier queue_depth) {
+        this.bay_busy_nanos = new AtomicLongArray(num_of_service_bays);
+        this.queue_depth = queue_depth;
+        for (int i = 0; i < class_wait.length; i++) {
+            class_wait[i] = new LatencyRecorder();
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  Recording (called by shared_queue)
+    // -----------------------------------------------------------------
+
+    // A producer lane may publish several staged cars at once
+    void recordArrivals(int cars) {
+        arrivals.add(cars);
+        max_queue_depth.accumulateAndGet(queue_depth.getAsInt(), Math::max);
+    }
+
+    void recordLost(EventKind why) {
+        switch (why) {
+            case REJECTED:
+                rejected.increment();
+                break;
+            case BALKED:
+                balked.increment();
+                break;
+            default:
+                reneged.increment();
+                break;
+        }
+    }
+
+    void recordQueueWait(ServiceClass cls, long nanos) {
+        time_in_queue.record(nanos);
+        class_wait[cls.ordinal()].record(nanos);
+    }
+
+    void recordBayBusy(int bay, long nanos) {
+        bay_busy_nanos.addAndGet(bay, nanos);
+        service_time.record(nanos);
+        served.increment();
+    }
+
+    // -----------------------------------------------------------------
+    //  MBean attributes
+    // -----------------------------------------------------------------
+
+    @Override
+    public long getArrivals() {
+        return arrivals.sum();
+    }
+
+    @Override
+    public long getServed() {
+        return served.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getBalked() {
+        return balked.sum();
+    }
+
+    @Override
+    public long getReneged() {
+        return reneged.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue_depth.getAsInt();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return max_queue_depth.get();
+    }
+
+    @Override
+    public double getThroughputPerSecond() {
+        return served.sum() / elapsedSeconds();
+    }
+
+    @Override
+    public double getTimeInQueueP50Micros() {
+        return time_in_queue.percentile(50) / 1e3;
+    }
+
+    @Override
+    public double getTimeInQueueP99Micros() {
+        return time_in_queue.percentile(99) / 1e3;
+    }
+
+    @Override
+    public double getTimeInQueueP999Micros() {
+        return time_in_queue.percentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getTimeToBayP50Micros() {
+        return time_to_bay.percentile(50) / 1e3;
+    }
+
+    @Override
+    public double getTimeToBayP99Micros() {
+        return time_to_bay.percentile(99) / 1e3;
+    }
+
+    @Override
+    public double getServiceTimeP50Micros() {
+        return service_time.percentile(50) / 1e3;
+    }
+
+    @Override
+    public double getServiceTimeP99Micros() {
+        return service_time.percentile(99) / 1e3;
+    }
+
+    @Override
+    public double getSemaphoreWaitP99Micros() {
+        return semaphore_wait.percentile(99) / 1e3;
+    }
+
+    @Override
+    public double[] getTimeInQueueP99MicrosByClass() {
+        double[] p99 = new double[class_wait.length];
+        for (int i = 0; i < p99.length; i++) {
+            p99[i] = class_wait[i].percentile(99) / 1e3;
+        }
+        return p99;
+    }
+
+    @Override
+    public double[] getBayUtilization() {
+        double elapsed = DeterministicScheduler.nanoTime() - start_nanos;
+        double[] u = new double[bay_busy_nanos.length()];
+        for (int i = 0; i < u.length; i++) {
+            u[i] = bay_busy_nanos.get(i) / elapsed;
+        }
+        return u;
+    }
+
+    @Override
+    public String getSnapshot() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Metrics: arrivals=%d served=%d queue=%d (max %d) throughput=%.2f/s%n",
+                getArrivals(), getServed(), getQueueDepth(), getMaxQueueDepth(), getThroughputPerSecond()));
+        long lost = getRejected() + getBalked() + getReneged();
+        if (lost > 0) {
+            sb.append(String.format("  lost customers rejected=%d balked=%d reneged=%d (%.1f%% of %d cars)%n",
+                    getRejected(), getBalked(), getReneged(),
+                    100.0 * lost / (getArrivals() + getRejected() + getBalked()),
+                    getArrivals() + getRejected() + getBalked()));
+        }
+        sb.append("  time in queue  ").append(time_in_queue.summary()).append('\n');
+        sb.append("  time to bay    ").append(time_to_bay.summary()).append('\n');
+        sb.append("  service time   ").append(service_time.summary()).append('\n');
+        sb.append("  semaphore wait ").append(semaphore_wait.summary()).append('\n');
+        if (class_wait[ServiceClass.STANDARD.ordinal()].count() < time_in_queue.count()) {
+            // Only worth a breakdown when some cars were not standard
+            for (ServiceClass cls : ServiceClass.values()) {
+                if (class_wait[cls.ordinal()].count() > 0) {
+                    sb.append(String.format("  %-14s %s%n", cls.name().toLowerCase(), class_wait[cls.ordinal()].summary()));
+                }
+            }
+        }
+        sb.append("  bay utilization");
+        double[] u = getBayUtilization();
+        for (int i = 0; i < u.length; i++) {
+            sb.append(String.format(" %d:%.0f%%", i + 1, u[i] * 100));
+        }
+        return sb.toString();
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-9, (DeterministicScheduler.nanoTime() - start_nanos) / 1e9);
+    }
+
+    // -----------------------------------------------------------------
+    //  Snapshot (see shared_queue.save)
+    // -----------------------------------------------------------------
+
+    // The run time so far, every counter and histogram and the bays'
+    // busy time, so rates and percentiles carry on across a restore
+    void save(DataOutput out, long now_nanos) throws IOException {
+        out.writeLong(now_nanos - start_nanos);
+        out.writeLong(arrivals.sum());
+        out.writeLong(served.sum());
+        out.writeLong(rejected.sum());
+        out.writeLong(balked.sum());
+        out.writeLong(reneged.sum());
+        out.writeInt(max_queue_depth.get());
+        time_in_queue.save(out);
+        time_to_bay.save(out);
+        service_time.save(out);
+        semaphore_wait.save(out);
+        for (LatencyRecorder r : class_wait) {
+            r.save(out);
+        }
+        out.writeInt(bay_busy_nanos.length());
+        for (int i = 0; i < bay_busy_nanos.length(); i++) {
+            out.writeLong(bay_busy_nanos.get(i));
+        }
+    }
+
+    void restore(DataInput in, long now_nanos) throws IOException {
+        start_nanos = now_nanos - in.readLong();
+        arrivals.add(in.readLong());
+        served.add(in.readLong());
+        rejected.add(in.readLong());
+        balked.add(in.readLong());
+        reneged.add(in.readLong());
+        max_queue_depth.set(in.readInt());
+        time_in_queue.restore(in);
+        time_to_bay.restore(in);
+        service_time.restore(in);
+        semaphore_wait.restore(in);
+        for (LatencyRecorder r : class_wait) {
+            r.restore(in);
+        }
+        int bays = in.readInt();
+        for (int i = 0; i < bays; i++) {
+            long busy = in.readLong();
+            if (i < bay_busy_nanos.length()) { // Fewer bays may open this time
+                bay_busy_nanos.set(i, busy);
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  Export
+    // -----------------------------------------------------------------
+
+    /** Registers as carwash:type=StationMetrics,name=<name>. */
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            jmx_name = new ObjectName("carwash:type=StationMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(jmx_name)) {
+                server.unregisterMBean(jmx_name);
+            }
+            server.registerMBean(this, jmx_name);
+        } catch (Exception e) {
+            jmx_name = null;
+            System.err.println("Can't register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /** Hands a text snapshot to out every period_ms, on a daemon thread. */
+    public void startReporter(long period_ms, Consumer<String> out) {
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Metrics reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> out.accept(getSnapshot()), period_ms, period_ms, TimeUnit.MILLISECONDS);
+    }
+
+    /** Reads -Dcarwash.metrics_interval_ms; both front ends call this. */
+    public void startReporterFromProperty(Consumer<String> out) {
+        String period = System.getProperty("carwash.metrics_interval_ms");
+        if (period != null) {
+            startReporter(Long.parseLong(period), out);
+        }
+    }
+
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (jmx_name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmx_name);
+            } catch (Exception e) {
+                // Already gone
+            }
+        }
+    }
+}
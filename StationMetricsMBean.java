@@ -0,0 +1,49 @@
+// ===================================================================
+// StationMetricsMBean
+// What StationMetrics exposes over JMX (jconsole, VisualVM...).
+// Times are in microseconds.
+// ===================================================================
+public interface StationMetricsMBean {
+
+    long getArrivals();
+
+    long getServed();
+
+    /** Cars that drove away because the waiting area was full. */
+    long getRejected();
+
+    /** Cars that drove away at the sight of the line. */
+    long getBalked();
+
+    /** Cars that gave up after waiting too long. */
+    long getReneged();
+
+    int getQueueDepth();
+
+    int getMaxQueueDepth();
+
+    double getThroughputPerSecond();
+
+    double getTimeInQueueP50Micros();
+
+    double getTimeInQueueP99Micros();
+
+    double getTimeInQueueP999Micros();
+
+    double getTimeToBayP50Micros();
+
+    double getTimeToBayP99Micros();
+
+    double getServiceTimeP50Micros();
+
+    double getServiceTimeP99Micros();
+
+    double getSemaphoreWaitP99Micros();
+
+    /** Indexed by ServiceClass.ordinal(). */
+    double[] getTimeInQueueP99MicrosByClass();
+
+    double[] getBayUtilization();
+
+    String getSnapshot();
+}
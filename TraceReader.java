@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// ===================================================================
+// TraceReader
+// Reads a trace back as SimEvents, segment after segment. Cars come
+// back as Car objects (id, name, service class, wash type, wash time)
+// so anything that consumes the live event log can consume a trace.
+// A segment from another run (a different start time or run id in its
+// header, e.g. left over by a longer run that crashed) ends the trace.
+// ===================================================================
+class TraceReader implements Iterator<SimEvent>, AutoCloseable {
+
+    private final Path prefix;
+    private final Map<Integer, String> pump_names = new HashMap<>();
+    private final Map<Integer, Integer> pump_indexes = new HashMap<>();
+    private final Map<Long, String> car_names = new HashMap<>();
+    private int segment = -1;
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+    private SimEvent next;
+    private long start_millis;
+    private long run_id;
+
+    TraceReader(Path prefix) throws IOException {
+        this.prefix = prefix;
+        if (!openNext()) {
+            throw new IOException("No trace at " + TraceWriter.segmentPath(prefix, 0));
+        }
+        next = readNext();
+    }
+
+    /** Wall clock time the recording started, in ms. */
+    public long getStartMillis() {
+        return start_millis;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public SimEvent next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        SimEvent e = next;
+        try {
+            next = readNext();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Can't read trace: " + ex.getMessage(), ex);
+        }
+        return e;
+    }
+
+    private boolean openNext() throws IOException {
+        Path path = TraceWriter.segmentPath(prefix, segment + 1);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        FileChannel next_channel = FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer next_buf = next_channel.map(FileChannel.MapMode.READ_ONLY, 0, next_channel.size());
+        if (next_buf.remaining() < TraceWriter.RECORD || next_buf.getLong() != TraceWriter.MAGIC) {
+            next_channel.close();
+            throw new IOException("Not a car wash trace: " + path);
+        }
+        int version = next_buf.getInt();
+        if (version != TraceWriter.VERSION) {
+            next_channel.close();
+            throw new IOException("Unsupported trace version " + version + ": " + path);
+        }
+        int number = next_buf.getInt();
+        long millis = next_buf.getLong();
+        long id = next_buf.getLong();
+        if (segment >= 0 && (number != segment + 1 || millis != start_millis || id != run_id)) {
+            next_channel.close();
+            return false; // Left over from another run: this one ends here
+        }
+        close();
+        segment++;
+        channel = next_channel;
+        buf = next_buf;
+        start_millis = millis;
+        run_id = id;
+        return true;
+    }
+
+    private SimEvent readNext() throws IOException {
+        while (true) {
+            if (buf.remaining() < TraceWriter.RECORD || buf.get(buf.position() + 8) == 0) {
+                if (!openNext()) {
+                    return null;
+                }
+                continue;
+            }
+            long nanos = buf.getLong();
+            byte kind = buf.get();
+            byte cls = buf.get();
+            byte wash = buf.get();
+            buf.get();
+            int pump = buf.getInt();
+            int bay = buf.getInt();
+            int value = buf.getInt();
+            long car_id = buf.getLong();
+
+            if (kind == TraceWriter.PUMP_NAME) {
+                pump_names.put(pump, readText(value));
+                pump_indexes.put(pump, bay);
+                continue;
+            }
+            if (kind == TraceWriter.CAR_NAME) {
+                car_names.put(car_id, readText(value));
+                continue;
+            }
+            EventKind event_kind = EventKind.values()[kind - 1];
+            String text = event_kind == EventKind.INFO || event_kind == EventKind.ERROR ? readText(value) : null;
+            Object car = null;
+            if (cls > 0) {
+                String name = car_names.getOrDefault(car_id, "C" + car_id);
+                car = new Car(car_id, name, 0, value, ServiceClass.values()[cls - 1], WashType.values()[wash - 1]);
+            } else if (car_id == TraceWriter.UNTYPED_CAR) {
+                car = car_names.get(car_id);
+            }
+            return new SimEvent(nanos, event_kind, pump_names.get(pump), pump_indexes.getOrDefault(pump, -1), car, bay,
+                    text);
+        }
+    }
+
+    private String readText(int length) {
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        int blocks = (length + TraceWriter.RECORD - 1) / TraceWriter.RECORD;
+        buf.position(buf.position() + blocks * TraceWriter.RECORD - length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
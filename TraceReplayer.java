@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// ===================================================================
+// TraceReplayer
+// Offline tools for a recorded trace (-Dcarwash.trace=prefix):
+//   --print      the text log, as it was printed live
+//   --stats      event counts, time to bay, service time and bay
+//                utilization rebuilt from the events
+//   --speed X    replay at X times the recorded speed (default: as
+//                fast as possible)
+//   --bench N    writes N synthetic events and reads them back, to
+//                measure the writer
+// The GUI replays a trace with: java ServiceStation --replay prefix
+//
+// Usage: java TraceReplayer <prefix> [--print] [--stats] [--speed X]
+//        java TraceReplayer --bench N <prefix>
+//        java TraceReplayer --check <prefix>   (a real and a virtual-clock round trip)
+// ===================================================================
+public class TraceReplayer {
+
+    /** Hands every event to sink in batches, pacing them at speed (0 = no pacing). */
+    static long replay(Path prefix, double speed, EventSink sink) throws IOException, InterruptedException {
+        long count = 0;
+        try (TraceReader reader = new TraceReader(prefix)) {
+            long first = 0;
+            boolean started = false; // Offsets may be negative: a batch can start before the first one
+            long start = System.nanoTime();
+            List<SimEvent> batch = new ArrayList<>();
+            while (reader.hasNext()) {
+                SimEvent e = reader.next();
+                if (!started) {
+                    first = e.nanos;
+                    started = true;
+                }
+                if (speed > 0) {
+                    long due = start + (long) ((e.nanos - first) / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 1_000_000) {
+                        sink.write(batch); // Show what is due before sleeping
+                        batch.clear();
+                        Thread.sleep(wait / 1_000_000);
+                    }
+                }
+                batch.add(e);
+                if (batch.size() == 1024) {
+                    sink.write(batch);
+                    batch.clear();
+                }
+                count++;
+            }
+            sink.write(batch);
+        }
+        return count;
+    }
+
+    // Rebuilds the station's latency numbers from the events alone
+    static final class Stats implements EventSink {
+        final long[] kinds = new long[EventKind.values().length];
+        final LatencyRecorder time_to_bay = new LatencyRecorder();
+        final LatencyRecorder service_time = new LatencyRecorder();
+        private final Map<Object, Long> arrived = new HashMap<>();
+        private final Map<Object, Long> taken = new HashMap<>(); // In a bay before its arrival was logged
+        private final Map<Integer, Long> occupied = new HashMap<>();
+        private final Map<Integer, Long> bay_busy = new HashMap<>();
+        private long first, last;
+        private boolean any = false;
+
+        @Override
+        public void write(List<SimEvent> batch) {
+            for (SimEvent e : batch) {
+                kinds[e.kind.ordinal()]++;
+                if (!any) {
+                    first = e.nanos;
+                    any = true;
+                }
+                last = e.nanos;
+                Object key = e.car instanceof Car ? (Object) ((Car) e.car).id : e.car;
+                if (e.kind == EventKind.ARRIVED) {
+                    if (taken.remove(key) != null) {
+                        time_to_bay.record(0); // Older traces logged arrivals after the pump had the car
+                    } else {
+                        arrived.put(key, e.nanos);
+                    }
+                } else if (e.kind == EventKind.OCCUPIED) {
+                    Long t = arrived.remove(key);
+                    if (t != null) {
+                        time_to_bay.record(e.nanos - t);
+                    } else {
+                        taken.put(key, e.nanos);
+                    }
+                    occupied.put(e.bay, e.nanos);
+                } else if (e.kind == EventKind.REJECTED || e.kind == EventKind.BALKED
+                        || e.kind == EventKind.RENEGED) {
+                    arrived.remove(key); // Left without a wash
+                } else if (e.kind == EventKind.BAY_FREE) {
+                    Long t = occupied.remove(e.bay);
+                    if (t != null) {
+                        service_time.record(e.nanos - t);
+                        bay_busy.merge(e.bay, e.nanos - t, Long::sum);
+                    }
+                }
+            }
+        }
+
+        String summary() {
+            StringBuilder sb = new StringBuilder();
+            double span = Math.max(1, last - first);
+            sb.append(String.format("%.1f s recorded%n", span / 1e9));
+            for (EventKind k : EventKind.values()) {
+                sb.append(String.format("  %-16s %d%n", k, kinds[k.ordinal()]));
+            }
+            sb.append("  time to bay    ").append(time_to_bay.summary()).append('\n');
+            sb.append("  service time   ").append(service_time.summary()).append('\n');
+            sb.append("  bay utilization");
+            for (int bay = 0; bay <= bay_busy.keySet().stream().mapToInt(b -> b).max().orElse(-1); bay++) {
+                sb.append(String.format(" %d:%.0f%%", bay + 1, 100.0 * bay_busy.getOrDefault(bay, 0L) / span));
+            }
+            return sb.toString();
+        }
+    }
+
+    // Writes n events the way the drainer would, then reads them back
+    static void bench(long n, Path prefix) throws IOException {
+        String[] pumps = { "Pump 1", "Pump 2", "Pump 3", "Pump 4" };
+        List<SimEvent> batch = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            Car car = new Car(i + 1, "C" + (i + 1), 0, 1000, ServiceClass.STANDARD, WashType.BASIC);
+            batch.add(new SimEvent(System.nanoTime(), EventKind.values()[i % 7], pumps[i % 4], i % 4, car, i % 4,
+                    null));
+        }
+
+        TraceWriter writer = new TraceWriter(prefix, TraceWriter.DEFAULT_SEGMENT_BYTES);
+        long start = System.nanoTime();
+        for (long written = 0; written < n; written += batch.size()) {
+            writer.write(batch);
+        }
+        writer.close();
+        double write_s = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        long read = 0;
+        try (TraceReader reader = new TraceReader(prefix)) {
+            while (reader.hasNext()) {
+                reader.next();
+                read++;
+            }
+        }
+        double read_s = (System.nanoTime() - start) / 1e9;
+        System.out.printf("wrote %d records in %.2f s (%.1f M events/s, %.0f MB/s)%n", writer.getRecords(), write_s,
+                writer.getRecords() / write_s / 1e6, writer.getRecords() * TraceWriter.RECORD / write_s / 1e6);
+        System.out.printf("read %d events in %.2f s (%.1f M events/s)%n", read, read_s, read / read_s / 1e6);
+    }
+
+    // Writes a short run on the real clock and one on a DeterministicScheduler's
+    // virtual clock, reads both back and compares every event's offset, kind,
+    // pump, pump index and car, and the span Stats reports
+    static void check(Path prefix) throws IOException, InterruptedException {
+        long[] bases = { System.nanoTime(), DeterministicScheduler.START_NANOS };
+        String[] clocks = { "real clock", "virtual clock" };
+        for (int c = 0; c < bases.length; c++) {
+            List<SimEvent> written = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                Car car = new Car(i / 3 + 1, "C" + (i / 3 + 1), 0, 1000, ServiceClass.STANDARD, WashType.BASIC);
+                EventKind kind = i % 3 == 0 ? EventKind.ARRIVED : i % 3 == 1 ? EventKind.OCCUPIED : EventKind.BAY_FREE;
+                String pump = i % 3 == 0 ? null : "Pump " + (i / 3 % 2 + 1);
+                int pump_index = pump == null ? -1 : i / 3 % 2;
+                written.add(new SimEvent(bases[c] + i * 10_000_000L, kind, pump, pump_index, car, pump_index, null));
+            }
+            Path path = Path.of(prefix + "-" + c);
+            TraceWriter writer = new TraceWriter(path, 64 * 1024);
+            writer.write(written);
+            writer.close();
+
+            List<SimEvent> read = new ArrayList<>();
+            Stats stats = new Stats();
+            replay(path, 0, batch -> {
+                read.addAll(batch);
+                stats.write(batch);
+            });
+            if (read.size() != written.size()) {
+                throw new IllegalStateException(clocks[c] + ": wrote " + written.size() + " events, read "
+                        + read.size());
+            }
+            for (int i = 0; i < read.size(); i++) {
+                SimEvent w = written.get(i), r = read.get(i);
+                if (r.nanos - read.get(0).nanos != w.nanos - bases[c] || r.kind != w.kind
+                        || !String.valueOf(r.pump).equals(String.valueOf(w.pump)) || r.pump_index != w.pump_index
+                        || !r.car.toString().equals(w.car.toString())) {
+                    throw new IllegalStateException(clocks[c] + ": event " + i + " came back different");
+                }
+            }
+            if (stats.last - stats.first != written.get(written.size() - 1).nanos - bases[c]) {
+                throw new IllegalStateException(clocks[c] + ": Stats spans " + (stats.last - stats.first) + " ns");
+            }
+            System.out.printf("%s: %d events round trip, %.2f s recorded%n", clocks[c], read.size(),
+                    (stats.last - stats.first) / 1e9);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java TraceReplayer <prefix> [--print] [--stats] [--speed X] [--dashboard]");
+            System.out.println("       java TraceReplayer --bench N <prefix>");
+            System.out.println("       java TraceReplayer --check <prefix>");
+            return;
+        }
+        if (args[0].equals("--check")) {
+            check(Path.of(args[1]));
+            return;
+        }
+        if (args[0].equals("--bench")) {
+            bench(Long.parseLong(args[1]), Path.of(args[2]));
+            return;
+        }
+
+        Path prefix = Path.of(args[0]);
+        boolean print = false, stats = false, dashboard = false;
+        double speed = 0;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--print":
+                    print = true;
+                    break;
+                case "--stats":
+                    stats = true;
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(args[++i]);
+                    break;
+                case "--dashboard":
+                    dashboard = true; // Serves the replay, -Dcarwash.dashboard for the port
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (!print && !stats && !dashboard) {
+            print = true;
+        }
+
+        // A dashboard needs the number of pumps up front: one pass to count them
+        Dashboard view = null;
+        if (dashboard) {
+            int pumps = 1;
+            try (TraceReader reader = new TraceReader(prefix)) {
+                while (reader.hasNext()) {
+                    SimEvent e = reader.next();
+                    pumps = Math.max(pumps, e.pump_index + 1);
+                }
+            }
+            view = Dashboard.fromProperty();
+            if (view == null) {
+                view = Dashboard.parse(""); // The defaults
+            }
+            view.serve(pumps, pumps, null);
+            System.out.println("Dashboard: " + view.getUrl());
+        }
+
+        Stats summary = new Stats();
+        ConsoleSink console = new ConsoleSink(System.out, false);
+        boolean show = print;
+        Dashboard shown = view;
+        replay(prefix, speed, batch -> {
+            if (show) {
+                console.write(batch);
+            }
+            if (shown != null) {
+                shown.write(batch);
+            }
+            summary.write(batch);
+        });
+        if (view != null) {
+            view.close(); // Viewers get the last frame and "run finished"
+        }
+        if (stats) {
+            System.out.print(summary.summary());
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// ===================================================================
+// TraceWriter
+// An EventSink that records every event as a 32-byte binary record in
+// memory-mapped segment files prefix.000000.trace, prefix.000001.trace
+// ... of segment_bytes each (a new one is mapped when one is full).
+// Queue and bay events are written with a few puts into the mapped
+// buffer and allocate nothing. Pump names (with the pump's index) are
+// written the first time they are seen, car names only when they aren't the default "C<id>",
+// and INFO / ERROR text follows its record in 32-byte blocks.
+// close() deletes higher-numbered segments an earlier, longer run left
+// under the same prefix; TraceReader also stops at a segment whose
+// header belongs to another run.
+//
+// Segment header (first record):
+//    0 long magic "CWTRACE1"   8 int version   12 int segment
+//   16 long wall clock ms at start             24 long run id (random)
+// Event record:
+//    0 long nanos since start   8 byte kind+1 (0 = end of segment)
+//    9 byte service class+1    10 byte wash type+1
+//   12 int pump id (-1)        16 int bay (-1)
+//   20 int service ms, or the text length for text records
+//   24 long car id (-1)
+// ===================================================================
+class TraceWriter implements EventSink {
+
+    static final int RECORD = 32;
+    static final long MAGIC = 0x4357545241434531L; // "CWTRACE1"
+    static final int VERSION = 1;
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static final int MAX_TEXT = 4096;
+
+    // Record kinds besides EventKind.ordinal() + 1
+    static final byte PUMP_NAME = 100;
+    static final byte CAR_NAME = 101;
+    static final long UNTYPED_CAR = -2; // Car id of a car that is not a Car, e.g. a plain name
+
+    private final Path prefix;
+    private final long segment_bytes;
+    private long base_nanos;       // Time of the first event; virtual under -Dcarwash.schedule
+    private boolean based = false;
+    private final long base_millis = System.currentTimeMillis();
+    private final long run_id = new java.util.Random().nextLong(); // Same in every segment of this run
+    private final Map<String, Integer> pump_ids = new HashMap<>();
+
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+    private int segment = -1;
+    private long records = 0;
+    private long last_named = -1; // Car whose name was written last
+
+    TraceWriter(Path prefix, long segment_bytes) throws IOException {
+        if (segment_bytes < 64 * 1024 || segment_bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 64 KB and 2 GB");
+        }
+        this.prefix = prefix;
+        this.segment_bytes = segment_bytes;
+        roll();
+    }
+
+    static Path segmentPath(Path prefix, int segment) {
+        return Path.of(prefix + String.format(".%06d.trace", segment));
+    }
+
+    @Override
+    public void write(List<SimEvent> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            write(batch.get(i));
+        }
+    }
+
+    private void write(SimEvent e) throws IOException {
+        if (!based) {
+            base_nanos = e.nanos; // Same clock as every event, real or the scheduler's
+            based = true;
+        }
+        int pump = e.pump == null ? -1 : pumpId(e.pump, e.pump_index, e.nanos);
+        long car_id = -1;
+        int service_ms = 0;
+        byte cls = 0, wash = 0;
+        if (e.car instanceof Car) {
+            Car car = (Car) e.car;
+            car_id = car.id;
+            service_ms = (int) Math.min(Integer.MAX_VALUE, car.service_ms);
+            cls = (byte) (car.service_class.ordinal() + 1);
+            wash = (byte) (car.wash_type.ordinal() + 1);
+            if (car.id != last_named && !isDefaultName(car.name, car.id)) {
+                // Events of different cars interleave (a pump may log before the
+                // producer does), so a changed car gets its name again
+                last_named = car.id;
+                writeText(CAR_NAME, e.nanos, -1, -1, car.id, car.name);
+            }
+        } else if (e.car != null) {
+            car_id = UNTYPED_CAR; // Just a name: record it, and refer to it as "the last untyped car"
+            writeText(CAR_NAME, e.nanos, -1, -1, car_id, e.car.toString());
+        }
+
+        if (e.text != null) {
+            writeText((byte) (e.kind.ordinal() + 1), e.nanos, pump, -1, car_id, e.text);
+            return;
+        }
+        ensure(RECORD);
+        putRecord(e.nanos, (byte) (e.kind.ordinal() + 1), cls, wash, pump, e.bay, service_ms, car_id);
+    }
+
+    private void putRecord(long nanos, byte kind, byte cls, byte wash, int pump, int bay, int value, long car_id) {
+        buf.putLong(nanos - base_nanos);
+        buf.put(kind);
+        buf.put(cls);
+        buf.put(wash);
+        buf.put((byte) 0);
+        buf.putInt(pump);
+        buf.putInt(bay);
+        buf.putInt(value);
+        buf.putLong(car_id);
+        records++;
+    }
+
+    // A record followed by the UTF-8 text, padded to whole records
+    private void writeText(byte kind, long nanos, int pump, int bay, long car_id, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_TEXT);
+        int blocks = (length + RECORD - 1) / RECORD;
+        ensure(RECORD * (1 + blocks));
+        putRecord(nanos, kind, (byte) 0, (byte) 0, pump, bay, length, car_id);
+        buf.put(bytes, 0, length);
+        buf.position(buf.position() + blocks * RECORD - length);
+    }
+
+    // A pump's name record carries its index in the bay field
+    private int pumpId(String pump, int pump_index, long nanos) throws IOException {
+        Integer id = pump_ids.get(pump);
+        if (id == null) {
+            id = pump_ids.size();
+            pump_ids.put(pump, id);
+            writeText(PUMP_NAME, nanos, id, pump_index, -1, pump);
+        }
+        return id;
+    }
+
+    // Generated cars are named "C" + id; only other names are recorded
+    private static boolean isDefaultName(String name, long id) {
+        if (name.length() < 2 || name.charAt(0) != 'C') {
+            return false;
+        }
+        long n = 0;
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9' || n > Long.MAX_VALUE / 10) {
+                return false;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n == id && name.charAt(1) != '0';
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            roll();
+        }
+    }
+
+    private void roll() throws IOException {
+        finishSegment();
+        segment++;
+        channel = FileChannel.open(segmentPath(prefix, segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, segment_bytes);
+        buf.putLong(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(segment);
+        buf.putLong(base_millis);
+        buf.putLong(run_id);
+    }
+
+    // Flushes the segment and cuts the file down to what was written
+    private void finishSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        int written = buf.position();
+        buf.force();
+        try {
+            // Keep one zero record after the last one: kind 0 marks the end
+            channel.truncate(Math.min(segment_bytes, written + RECORD));
+        } catch (IOException e) {
+            // Some platforms can't truncate a mapped file; the zeros mark the end anyway
+        }
+        channel.close();
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finishSegment();
+        channel = null;
+        // An earlier run under this prefix may have had more segments
+        for (int old = segment + 1; Files.deleteIfExists(segmentPath(prefix, old)); old++) {
+            // Deleted; try the next one
+        }
+    }
+}
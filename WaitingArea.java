@@ -0,0 +1,134 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+// ===================================================================
+// WaitingArea (The Bounded Buffer)
+// The queue between the Car producer and the Pump consumers.
+// shared_queue only talks to this interface, so the classic
+// array + semaphores version and the lock-free ring buffer can be
+// swapped without touching the rest of the simulation.
+// ===================================================================
+interface WaitingArea {
+
+    /**
+     * Blocks while the waiting area is full. Returns false, without adding
+     * the car, once the waiting area is closed.
+     */
+    boolean put(Object car) throws InterruptedException;
+
+    /**
+     * Puts cars[from .. from + n) in order, blocking while the waiting area
+     * is full. Returns how many got in: fewer than n only once it is closed.
+     * Implementations may claim several spots at once.
+     */
+    default int putAll(Object[] cars, int from, int n) throws InterruptedException {
+        for (int i = 0; i < n; i++) {
+            if (!put(cars[from + i])) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /** Never blocks: false, without adding the car, when full or closed. */
+    boolean offer(Object car);
+
+    /** Like putAll(), but never blocks: puts as many as fit, in order, and returns how many. */
+    default int offerAll(Object[] cars, int from, int n) {
+        for (int i = 0; i < n; i++) {
+            if (!offer(cars[from + i])) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Never blocks: takes the car at the head of the line if it passes
+     * the test, otherwise returns null. Used to let cars that ran out of
+     * patience go; a waiting area that can't look at its head returns
+     * null and the pumps find those cars when they take them.
+     */
+    default Object pollIf(Predicate<Object> test) {
+        return null;
+    }
+
+    /** Blocks while the waiting area is empty; null once it is closed and empty. */
+    Object take() throws InterruptedException;
+
+    /**
+     * Like take(), but gives up after the timeout and returns null.
+     * A zero timeout never blocks.
+     */
+    Object poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Lets no more cars in and wakes every blocked thread. Cars already
+     * waiting can still be taken; after that take() returns null.
+     */
+    void close();
+
+    boolean isClosed();
+
+    /** Number of cars currently waiting. */
+    int size();
+
+    int capacity();
+
+    /** Lets the watchdog see what producers and pumps block on. */
+    default void watch(Watchdog dog) {
+    }
+
+    /**
+     * Writes the waiting cars, head first, and the positions they sit
+     * at, for a snapshot. Only consistent while nobody puts or takes,
+     * see shared_queue.pause(). Only the kinds create() makes implement
+     * it; Checkpointer.start refuses a station with any other.
+     */
+    default void save(DataOutput out, long now_nanos) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't be saved");
+    }
+
+    /** Fills this new, empty waiting area (same type and capacity) from save(). */
+    default void restore(DataInput in, long now_nanos) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't be restored");
+    }
+
+    /**
+     * Picks the implementation from the "carwash.waiting_area" system
+     * property: "array" (default), "ring" or "priority".
+     */
+    static WaitingArea create(int capacity) {
+        return create(System.getProperty("carwash.waiting_area", "array"), capacity);
+    }
+
+    static WaitingArea create(String kind, int capacity) {
+        switch (kind) {
+            case "array":
+                return new ArrayWaitingArea(capacity);
+            case "ring":
+                return new RingBufferWaitingArea(capacity);
+            case "priority":
+                return new PriorityWaitingArea(capacity);
+            default:
+                throw new IllegalArgumentException("Unknown waiting area type: " + kind);
+        }
+    }
+
+    /** The name create() knows the waiting area by; null if it doesn't make it. */
+    static String kindOf(WaitingArea area) {
+        if (area instanceof ArrayWaitingArea) {
+            return "array";
+        }
+        if (area instanceof RingBufferWaitingArea) {
+            return "ring";
+        }
+        if (area instanceof PriorityWaitingArea) {
+            return "priority";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+// ===================================================================
+// WashType
+// The service a car asks for. work is how much longer than a basic
+// wash it takes on a bay running at rate 1.
+// ===================================================================
+enum WashType {
+    BASIC(1.0),
+    DETAIL(2.5);
+
+    final double work;
+
+    WashType(double work) {
+        this.work = work;
+    }
+
+    static WashType of(Object car) {
+        return car instanceof Car ? ((Car) car).wash_type : BASIC;
+    }
+}
@@ -0,0 +1,291 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ===================================================================
+// Watchdog
+// Finds stuck threads in a running station. Every interval_ms a daemon
+// thread reads who waits on each watched resource (locks, semaphores,
+// spin-then-park waiters, the bay dispatcher) and who holds it, which
+// gives a wait-for graph: waiter -> resource -> holders. It reports
+//   - deadlock: waiting threads whose every holder is itself stuck
+//     waiting, seen at two checks in a row (so a half-updated snapshot
+//     can't fake one), with the cycle;
+//   - stall: a thread blocked on the same wait for threshold_ms or
+//     more, e.g. a producer that never gets a free spot;
+//   - cycles the JVM finds on monitors and locks we don't watch.
+// Every finding is logged once, with the whole graph and the stuck
+// threads' stacks.
+//
+// -Dcarwash.watchdog                      (defaults)
+// -Dcarwash.watchdog="interval_ms=1000 threshold_ms=10000"
+// ===================================================================
+class Watchdog {
+
+    static final String PROPERTY = "carwash.watchdog";
+    private static final int STACK_FRAMES = 6;
+
+    long interval_ms = 1000;
+    long threshold_ms = 10000;
+
+    private final List<Watched> watched = new CopyOnWriteArrayList<>();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private EventLog log;
+    private ScheduledExecutorService ticker;
+
+    // --- Only touched on the ticker thread ---
+    private Map<Thread, Long> suspects = new HashMap<>();          // Stuck at the last check -> wait start
+    private Set<Thread> reported_deadlock = new HashSet<>();
+    private final Map<Thread, Long> reported_stall = new HashMap<>(); // Wait start already reported
+    private long[] reported_jvm = new long[0];
+    private long checks = 0, deadlocks = 0, stalls = 0;
+
+    /** Null unless -Dcarwash.watchdog is set. */
+    static Watchdog fromProperty() {
+        String spec = System.getProperty(PROPERTY);
+        return spec == null ? null : parse(spec);
+    }
+
+    static Watchdog parse(String spec) {
+        Watchdog w = new Watchdog();
+        if (spec.trim().isEmpty()) {
+            return w;
+        }
+        for (String token : spec.trim().split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + token);
+            }
+            String key = token.substring(0, eq);
+            long value = Long.parseLong(token.substring(eq + 1));
+            switch (key) {
+                case "interval_ms":
+                    w.interval_ms = value;
+                    break;
+                case "threshold_ms":
+                    w.threshold_ms = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown watchdog key: " + key);
+            }
+        }
+        if (w.interval_ms <= 0 || w.threshold_ms <= 0) {
+            throw new IllegalArgumentException("Watchdog times must be positive: " + spec);
+        }
+        return w;
+    }
+
+    /**
+     * Reads -Dcarwash.watchdog and starts watching sq; null if it isn't
+     * set. Call it before the pumps start, so they are seen taking bays.
+     */
+    static Watchdog startFromProperty(shared_queue sq, EventLog log) {
+        Watchdog dog = fromProperty();
+        if (dog != null) {
+            sq.watch(dog);
+            dog.start(log);
+        }
+        return dog;
+    }
+
+    Watchdog watch(Watched resource) {
+        watched.add(resource);
+        return this;
+    }
+
+    void start(EventLog log) {
+        this.log = log;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::check, interval_ms, interval_ms, TimeUnit.MILLISECONDS);
+        log.info(String.format("Watchdog: watching %d resources every %d ms, stall after %d ms", watched.size(),
+                interval_ms, threshold_ms));
+    }
+
+    void check() {
+        try {
+            checks++;
+            long now = System.nanoTime();
+
+            // 1. Snapshot: who waits on what since when, and who holds it
+            Map<Thread, Watched> waits_on = new HashMap<>();
+            Map<Thread, Long> since = new HashMap<>();
+            Map<Watched, Collection<Thread>> held_by = new IdentityHashMap<>();
+            for (Watched w : watched) {
+                for (Map.Entry<Thread, Long> e : w.waitingSince().entrySet()) {
+                    waits_on.put(e.getKey(), w);
+                    since.put(e.getKey(), e.getValue());
+                }
+                held_by.put(w, new ArrayList<>(w.holders()));
+            }
+
+            // 2. Deadlock: drop every waiter that has a holder able to move
+            Set<Thread> stuck = new HashSet<>();
+            for (Map.Entry<Thread, Watched> e : waits_on.entrySet()) {
+                if (!held_by.get(e.getValue()).isEmpty()) {
+                    stuck.add(e.getKey());
+                }
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = stuck.removeIf(t -> !stuck.containsAll(held_by.get(waits_on.get(t))));
+            }
+            Set<Thread> confirmed = new HashSet<>();
+            for (Thread t : stuck) {
+                if (since.get(t).equals(suspects.get(t))) {
+                    confirmed.add(t); // Same wait as at the last check
+                }
+            }
+            suspects = new HashMap<>();
+            for (Thread t : stuck) {
+                suspects.put(t, since.get(t));
+            }
+            if (!confirmed.isEmpty() && !confirmed.equals(reported_deadlock)) {
+                deadlocks++;
+                log.error("Watchdog: deadlock: " + cycle(confirmed, waits_on, held_by) + "\n"
+                        + graph(waits_on, since, held_by, confirmed, now));
+            }
+            reported_deadlock = confirmed;
+
+            // 3. Stalls: one wait that has gone on too long
+            long threshold = TimeUnit.MILLISECONDS.toNanos(threshold_ms);
+            List<Thread> stalled = new ArrayList<>();
+            for (Map.Entry<Thread, Long> e : since.entrySet()) {
+                Thread t = e.getKey();
+                if (now - e.getValue() >= threshold && !confirmed.contains(t)
+                        && !e.getValue().equals(reported_stall.get(t))) {
+                    stalled.add(t);
+                    reported_stall.put(t, e.getValue());
+                }
+            }
+            reported_stall.keySet().retainAll(since.keySet());
+            if (!stalled.isEmpty()) {
+                stalls += stalled.size();
+                StringBuilder sb = new StringBuilder("Watchdog: stalled");
+                for (Thread t : stalled) {
+                    sb.append(String.format(" %s (%.1f s on %s)", name(t), (now - since.get(t)) / 1e9,
+                            waits_on.get(t).watchName()));
+                }
+                log.error(sb + "\n" + graph(waits_on, since, held_by, new HashSet<>(stalled), now));
+            }
+
+            // 4. Cycles on monitors and locks the station doesn't watch. The JVM
+            // also sees the ones on watched locks, which step 2 reports: skip those
+            long[] ids = threads.findDeadlockedThreads();
+            Set<Long> ours = new HashSet<>();
+            for (Thread t : stuck) {
+                ours.add(t.getId());
+            }
+            ids = ids == null ? new long[0] : Arrays.stream(ids).filter(id -> !ours.contains(id)).toArray();
+            Arrays.sort(ids);
+            if (ids.length > 0 && !Arrays.equals(ids, reported_jvm)) {
+                deadlocks++;
+                StringBuilder sb = new StringBuilder("Watchdog: the JVM reports a deadlock\n");
+                for (ThreadInfo info : threads.getThreadInfo(ids, true, true)) {
+                    if (info != null) {
+                        sb.append(info);
+                    }
+                }
+                log.error(sb.toString());
+            }
+            reported_jvm = ids;
+        } catch (RuntimeException e) {
+            log.error("Watchdog: " + e); // Keep checking; a thrown task would stop the schedule
+        }
+    }
+
+    // "Pump 1 -> bays -> Pump 2 -> scale_lock -> Pump 1"
+    private static String cycle(Set<Thread> stuck, Map<Thread, Watched> waits_on,
+            Map<Watched, Collection<Thread>> held_by) {
+        List<Thread> path = new ArrayList<>();
+        Thread t = Collections.min(stuck, Comparator.comparing(Watchdog::name));
+        while (!path.contains(t)) {
+            path.add(t);
+            Thread next = null;
+            for (Thread h : held_by.get(waits_on.get(t))) {
+                if (stuck.contains(h) && (next == null || path.contains(next))) {
+                    next = h; // Prefer a holder not on the path yet
+                }
+            }
+            t = next;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Thread p : path.subList(path.indexOf(t), path.size())) {
+            sb.append(name(p)).append(" -> ").append(waits_on.get(p).watchName()).append(" -> ");
+        }
+        return sb.append(name(t)).toString();
+    }
+
+    // Every waiter, what it waits on and who holds that; marked threads get their stacks
+    private static String graph(Map<Thread, Watched> waits_on, Map<Thread, Long> since,
+            Map<Watched, Collection<Thread>> held_by, Set<Thread> marked, long now) {
+        List<Thread> waiters = new ArrayList<>(waits_on.keySet());
+        waiters.sort(Comparator.comparing(Watchdog::name));
+        StringBuilder sb = new StringBuilder("  wait-for graph:");
+        for (Thread t : waiters) {
+            Collection<Thread> holders = held_by.get(waits_on.get(t));
+            List<String> names = new ArrayList<>();
+            for (Thread h : holders) {
+                names.add(name(h));
+            }
+            sb.append(String.format("%n  %s %s -> %s -> %s (%.1f s)", marked.contains(t) ? "*" : " ", name(t),
+                    waits_on.get(t).watchName(), holders.isEmpty() ? "anyone" : String.join(", ", names),
+                    (now - since.get(t)) / 1e9));
+        }
+        for (Thread t : waiters) {
+            if (marked.contains(t)) {
+                sb.append(String.format("%n  %s:", name(t)));
+                StackTraceElement[] stack = t.getStackTrace();
+                int first = 0;
+                while (first < stack.length - 1 && isJdk(stack[first])) {
+                    first++; // Skip the parking machinery, show where our code waits
+                }
+                for (int i = first; i < Math.min(first + STACK_FRAMES, stack.length); i++) {
+                    sb.append(String.format("%n      at %s", stack[i]));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isJdk(StackTraceElement frame) {
+        return frame.getClassName().startsWith("java.") || frame.getClassName().startsWith("jdk.");
+    }
+
+    private static String name(Thread t) {
+        return t.getName().isEmpty() ? "thread #" + t.getId() : t.getName();
+    }
+
+    public String getSummary() {
+        return String.format("Watchdog: %d checks, %d deadlocks, %d stalled waits", checks, deadlocks, stalls);
+    }
+
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            try {
+                ticker.awaitTermination(1, TimeUnit.SECONDS); // So getSummary() sees the last check
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+import java.util.Collection;
+import java.util.Map;
+
+// ===================================================================
+// Watched
+// Something threads can block on that the Watchdog can look into.
+// Waits are recorded on the slow path only (a thread that is about
+// to park anyway), so a resource nobody waits on costs nothing.
+// ===================================================================
+interface Watched {
+
+    String watchName();
+
+    /** Threads blocked on it right now -> System.nanoTime() they started waiting. */
+    Map<Thread, Long> waitingSince();
+
+    /** Threads that must act before a waiter can go on; empty when unknown (e.g. "any consumer"). */
+    Collection<Thread> holders();
+}
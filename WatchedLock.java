@@ -0,0 +1,74 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ===================================================================
+// WatchedLock
+// A non-fair ReentrantLock that remembers since when each blocked
+// thread has been waiting. tryLock() first, so the uncontended path
+// is what it always was; ReentrantLock already knows its owner.
+// Also counts how often lock() found it taken, for the benchmarks.
+// ===================================================================
+class WatchedLock extends ReentrantLock implements Watched {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final transient Map<Thread, Long> waiting_since = new ConcurrentHashMap<>();
+    private final transient LongAdder contended = new LongAdder(); // lock() calls that found it taken
+
+    WatchedLock(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void lock() {
+        if (tryLock()) {
+            return;
+        }
+        contended.increment();
+        waiting_since.put(Thread.currentThread(), System.nanoTime());
+        try {
+            super.lock();
+        } finally {
+            waiting_since.remove(Thread.currentThread());
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (tryLock()) {
+            return;
+        }
+        contended.increment();
+        waiting_since.put(Thread.currentThread(), System.nanoTime());
+        try {
+            super.lockInterruptibly();
+        } finally {
+            waiting_since.remove(Thread.currentThread());
+        }
+    }
+
+    long getContendedCount() {
+        return contended.sum();
+    }
+
+    @Override
+    public String watchName() {
+        return name;
+    }
+
+    @Override
+    public Map<Thread, Long> waitingSince() {
+        return waiting_since;
+    }
+
+    @Override
+    public Collection<Thread> holders() {
+        Thread owner = getOwner();
+        return owner == null ? Collections.emptyList() : Collections.singletonList(owner);
+    }
+}
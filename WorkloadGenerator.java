@@ -0,0 +1,271 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// ===================================================================
+// WorkloadGenerator
+// Lazily streams Cars (C1, C2, ...) so millions of cars never
+// sit in memory. Built from a spec such as
+//   "arrivals=poisson:300 service=lognormal:1000:0.4 curve=0:0.5,8:2 seed=42 cars=100000"
+// arrivals: constant:<ms> | poisson:<mean gap ms> | erlang:<k>:<mean gap ms>
+// service:  constant:<ms> | lognormal:<median ms>:<sigma>
+// curve:    optional time-of-day rate multipliers (see RateCurve)
+// classes:  optional mix of service classes, e.g. premium:0.1,express:0.2
+//           (the rest are standard)
+// detail:   optional share of cars asking for a full-detail wash
+// cars:     how many cars; omit for an endless stream
+// ===================================================================
+class WorkloadGenerator implements Iterator<Car> {
+
+    static final String PROPERTY = "carwash.workload";
+
+    private final String arrival_kind;
+    private final int erlang_k;
+    private final double mean_gap_ms;
+    private final String service_kind;
+    private final double service_ms;   // Constant value or log-normal median
+    private final double service_sigma;
+    private final RateCurve curve;
+    private final ServiceClass[] classes; // Picked with the matching cumulative share
+    private final double[] class_shares;
+    private final double detail_share;
+    private final long cars;           // -1 = endless
+    private final long seed;
+    private final int lane, lanes;     // One of several entry lanes, see lane()
+    final SplitMix64 rng;
+    private String spec;               // What parse() was given, so save() can rebuild it
+
+    private long generated = 0;
+    private double clock_ms = 0;       // Arrival time of the last car
+
+    private WorkloadGenerator(String arrival_kind, int erlang_k, double mean_gap_ms, String service_kind,
+            double service_ms, double service_sigma, RateCurve curve, ServiceClass[] classes,
+            double[] class_shares, double detail_share, long cars, long seed, int lane, int lanes) {
+        this.arrival_kind = arrival_kind;
+        this.erlang_k = erlang_k;
+        this.mean_gap_ms = mean_gap_ms;
+        this.service_kind = service_kind;
+        this.service_ms = service_ms;
+        this.service_sigma = service_sigma;
+        this.curve = curve;
+        this.classes = classes;
+        this.class_shares = class_shares;
+        this.detail_share = detail_share;
+        this.cars = cars;
+        this.seed = seed;
+        this.lane = lane;
+        this.lanes = lanes;
+        this.rng = new SplitMix64(seed);
+    }
+
+    /**
+     * This workload's share for one of several entry lanes: the same mix
+     * at 1/lanes of the arrival rate, lanes * the mean gap, with its own
+     * random stream. Lane i numbers its cars i + 1, i + 1 + lanes, ... so
+     * every car of the whole workload keeps a unique name. Lane 0 of 1 is
+     * this workload itself.
+     */
+    WorkloadGenerator lane(int lane, int lanes) {
+        long share = cars < 0 ? -1 : cars / lanes + (lane < cars % lanes ? 1 : 0);
+        // Not seed + lane * the generator's own step: that would be lane 0's stream, lane draws later
+        long lane_seed = lane == 0 ? seed : SplitMix64.mix(seed ^ SplitMix64.mix(lane));
+        WorkloadGenerator g = new WorkloadGenerator(arrival_kind, erlang_k, mean_gap_ms * lanes, service_kind,
+                service_ms, service_sigma, curve, classes, class_shares, detail_share, share, lane_seed, lane, lanes);
+        g.spec = spec;
+        return g;
+    }
+
+    static WorkloadGenerator parse(String spec) {
+        String arrivals = "constant:" + SimulationTiming.DEFAULT.arrival_ms;
+        String service = "constant:" + SimulationTiming.DEFAULT.service_ms;
+        RateCurve curve = RateCurve.FLAT;
+        String mix = "";
+        double detail = 0;
+        long cars = -1;
+        long seed = 1;
+
+        for (String token : spec.trim().split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + token);
+            }
+            String key = token.substring(0, eq);
+            String value = token.substring(eq + 1);
+            switch (key) {
+                case "arrivals":
+                    arrivals = value;
+                    break;
+                case "service":
+                    service = value;
+                    break;
+                case "curve":
+                    curve = RateCurve.parse(value);
+                    break;
+                case "classes":
+                    mix = value;
+                    break;
+                case "detail":
+                    detail = Double.parseDouble(value);
+                    break;
+                case "cars":
+                    cars = Long.parseLong(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown workload key: " + key);
+            }
+        }
+
+        String[] a = arrivals.split(":");
+        int k = 1;
+        double mean_gap;
+        switch (a[0]) {
+            case "constant":
+            case "poisson":
+                mean_gap = Double.parseDouble(a[1]);
+                break;
+            case "erlang":
+                k = Integer.parseInt(a[1]);
+                mean_gap = Double.parseDouble(a[2]);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown arrival process: " + a[0]);
+        }
+
+        String[] sv = service.split(":");
+        double sigma = 0;
+        if (sv[0].equals("lognormal")) {
+            sigma = Double.parseDouble(sv[2]);
+        } else if (!sv[0].equals("constant")) {
+            throw new IllegalArgumentException("Unknown service distribution: " + sv[0]);
+        }
+
+        String[] parts = mix.isEmpty() ? new String[0] : mix.split(",");
+        ServiceClass[] classes = new ServiceClass[parts.length];
+        double[] shares = new double[parts.length];
+        double total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String[] cs = parts[i].split(":");
+            classes[i] = ServiceClass.parse(cs[0]);
+            total += Double.parseDouble(cs[1]);
+            shares[i] = total;
+        }
+        if (total > 1) {
+            throw new IllegalArgumentException("Class shares add up to more than 1: " + mix);
+        }
+
+        WorkloadGenerator g = new WorkloadGenerator(a[0], k, mean_gap, sv[0], Double.parseDouble(sv[1]), sigma,
+                curve, classes, shares, detail, cars, seed, 0, 1);
+        g.spec = spec;
+        return g;
+    }
+
+    /**
+     * Writes the spec, the lane and how far the stream has got (cars
+     * generated, clock, random state), so load() goes on with exactly
+     * the cars this generator would have produced next.
+     */
+    void save(DataOutput out) throws IOException {
+        out.writeUTF(spec);
+        out.writeInt(lane);
+        out.writeInt(lanes);
+        out.writeLong(generated);
+        out.writeDouble(clock_ms);
+        out.writeLong(rng.getState());
+    }
+
+    static WorkloadGenerator load(DataInput in) throws IOException {
+        WorkloadGenerator g = parse(in.readUTF());
+        int lane = in.readInt();
+        int lanes = in.readInt();
+        if (lanes > 1) {
+            g = g.lane(lane, lanes);
+        }
+        g.generated = in.readLong();
+        g.clock_ms = in.readDouble();
+        g.rng.setState(in.readLong());
+        return g;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cars < 0 || generated < cars;
+    }
+
+    @Override
+    public Car next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        double gap = nextGap();
+        clock_ms += gap;
+        generated++;
+        long id = (generated - 1) * lanes + lane + 1;
+        return new Car(id, "C" + id, Math.round(gap), nextServiceMs(), nextClass(), nextWashType());
+    }
+
+    private double nextGap() {
+        switch (arrival_kind) {
+            case "poisson": {
+                // Thinning: candidates at the peak rate, kept with probability rate(t) / peak
+                // Closed hours (rate 0) are skipped, which memorylessness allows
+                double peak = curve.max();
+                double t = clock_ms;
+                while (true) {
+                    t = curve.open(t) - Math.log(rng.nextDouble()) * mean_gap_ms / peak;
+                    if (rng.nextDouble() * peak < curve.at((long) t)) {
+                        return t - clock_ms;
+                    }
+                }
+            }
+            case "erlang": {
+                // Sum of k exponentials with the same overall mean, stretched by the curve
+                double sum = 0;
+                for (int i = 0; i < erlang_k; i++) {
+                    sum += -Math.log(rng.nextDouble()) * mean_gap_ms / erlang_k;
+                }
+                double open = curve.open(clock_ms); // No cars while the rate is 0
+                return open - clock_ms + sum / curve.at((long) open);
+            }
+            default: {
+                double open = curve.open(clock_ms);
+                return open - clock_ms + mean_gap_ms / curve.at((long) open);
+            }
+        }
+    }
+
+    private long nextServiceMs() {
+        if (service_kind.equals("lognormal")) {
+            return Math.round(service_ms * Math.exp(service_sigma * rng.nextGaussian()));
+        }
+        return Math.round(service_ms);
+    }
+
+    private ServiceClass nextClass() {
+        if (classes.length == 0) {
+            return ServiceClass.STANDARD; // Keeps the random sequence of older specs unchanged
+        }
+        double u = rng.nextDouble();
+        for (int i = 0; i < classes.length; i++) {
+            if (u <= class_shares[i]) {
+                return classes[i];
+            }
+        }
+        return ServiceClass.STANDARD;
+    }
+
+    private WashType nextWashType() {
+        if (detail_share == 0) {
+            return WashType.BASIC; // Keeps the random sequence of older specs unchanged
+        }
+        return rng.nextDouble() <= detail_share ? WashType.DETAIL : WashType.BASIC;
+    }
+
+    long getGenerated() {
+        return generated;
+    }
+}
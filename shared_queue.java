@@ -0,0 +1,664 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ===================================================================
+// shared_queue (The Simulation Core)
+// The one engine behind the console, the GUI, MultiStation and the
+// benchmarks: a waiting area, the bays and the pumps' protocol for
+// taking a car and a bay. It knows nothing about any front end.
+// Everything that happens is reported as a SimEvent to the EventLog,
+// whose sinks (console, GUI, file, trace, analytics) are the
+// listeners, and they run on the log's drainer thread, never on a
+// pump's or the producer's.
+// A station can be paused at a safe point, saved to a snapshot and
+// restored from it (see pause(), save() and Checkpointer).
+// ===================================================================
+class shared_queue {
+
+    public int waiting_area_size = 1;
+    public volatile int num_of_service_bays = 1; // Bays open now, see openBay/closeBay
+    // Round-robin hint: where the next bay search starts
+    final AtomicInteger service_inptr = new AtomicInteger();
+
+    private WaitingArea waiting_area; // Array or lock-free ring, see WaitingArea.create
+    private AtomicReferenceArray<Car> service_bays; // Car in each bay, null = free
+    Semaphore pumps_Semaphore; // One permit per free bay
+    final StationMetrics metrics;
+    private final ServiceClass[] reserved_bays; // Class each pump is reserved for, null = anyone
+    private final BayDispatcher dispatcher;      // Null while all bays are identical
+    AdmissionPolicy admission;                   // Whether cars wait, drive away or give up
+
+    // Shutdown: drain() closes the waiting area, shutdownNow() also stops
+    // pumps from taking more cars; awaitTermination() waits for the pumps
+    private volatile boolean stopping = false;
+    private final ConcurrentLinkedQueue<Car> not_served = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger live_pumps = new AtomicInteger();
+    private final CountDownLatch pumps_done = new CountDownLatch(1);
+
+    // Resizing: which bays have a pump, guarded by scale_lock
+    private final WatchedLock scale_lock = new WatchedLock("scale_lock");
+    private final boolean[] pump_running;
+
+    // Pausing for a snapshot: lanes and pumps wait at their safe point
+    // (safePoint) while pausing is set. Pumps only wait for cars in
+    // slices of SAFE_POINT_MS once allowPausing() was called.
+    static final long SAFE_POINT_MS = 100;
+    private volatile boolean pausable = false;
+    private volatile boolean pausing = false;
+    private final ReentrantLock pause_lock = new ReentrantLock();
+    private final Condition parked_changed = pause_lock.newCondition();
+    private final Condition resumed = pause_lock.newCondition();
+    private int pauses = 0;                         // pause() calls not yet resumed, guarded by pause_lock
+    private int parked_lanes = 0, parked_pumps = 0; // Guarded by pause_lock
+    private final List<CarProducer> lanes = new CopyOnWriteArrayList<>(); // Producer lanes still running
+
+    SimulationTiming timing = SimulationTiming.DEFAULT;
+    final EventLog log; // Printing happens on the log's drainer thread, not here
+
+    shared_queue(int waiting_area_size, int num_of_service_bays, EventLog log) {
+
+        this(num_of_service_bays, WaitingArea.create(waiting_area_size), log);
+    }
+
+    shared_queue(int num_of_service_bays, WaitingArea waiting_area, EventLog log) {
+
+        this.waiting_area_size = waiting_area.capacity();
+        this.num_of_service_bays = num_of_service_bays;
+        this.waiting_area = waiting_area;
+        int max_service_bays = Autoscaler.maxBaysFromProperty(num_of_service_bays); // Slots for every bay that may open
+        this.service_bays = new AtomicReferenceArray<>(max_service_bays);
+        pumps_Semaphore = new Semaphore(num_of_service_bays);
+        metrics = new StationMetrics(max_service_bays, waiting_area::size);
+        reserved_bays = ServiceClass.reservationsFromProperty(num_of_service_bays);
+        dispatcher = BayDispatcher.fromProperty(num_of_service_bays);
+        admission = AdmissionPolicy.fromProperty();
+        if (dispatcher != null && System.getProperty(Autoscaler.PROPERTY) != null) {
+            throw new IllegalArgumentException("Autoscaling needs identical bays (no -Dcarwash.bays)");
+        }
+        pump_running = new boolean[max_service_bays];
+        Arrays.fill(pump_running, 0, num_of_service_bays, true);
+        live_pumps.set(num_of_service_bays);
+        if (reserved_bays.length > 0 && reserved_bays[0] != null
+                && !(waiting_area instanceof PriorityWaitingArea)) {
+            throw new IllegalArgumentException("Reserved bays need -Dcarwash.waiting_area=priority");
+        }
+        this.log = log;
+
+    }
+
+    /** Returns false, without queueing the car, once the station is shutting down. */
+    public boolean produce(Car car) throws InterruptedException {
+
+        Car[] staged = new Car[1];
+        int n = arrive(car, staged, 0);
+        return n >= 0 && (n == 0 || publish(staged, n));
+    }
+
+    // Sleeps the car's gap, logs its arrival and stages it in staged[n]
+    // unless it drives away (see AdmissionPolicy). Returns how many cars
+    // are staged now, or -1 once the station is shutting down.
+    // ARRIVED is logged before the car waits for a spot, so it always
+    // comes before the car's OCCUPIED and at the time its wait starts.
+    int arrive(Car car, Car[] staged, int n) throws InterruptedException {
+
+        DeterministicScheduler.sleep(car.gap_ms);
+        if (waiting_area.isClosed()) {
+            return -1;
+        }
+        long now = DeterministicScheduler.nanoTime();
+        reneged(now); // Cars that ran out of patience free their spots first
+
+        Car arrived = car.arrivedAt(now);
+        log.event(EventKind.ARRIVED, null, -1, arrived, -1);
+        EventKind why = admission.turnAway(arrived, waiting_area.size() + n, waiting_area_size);
+        if (why != null) {
+            lost(why, arrived);
+            return n;
+        }
+        if (pumps_Semaphore.isFull()) {
+            log.event(EventKind.ARRIVED_WAITING, null, -1, arrived, -1);
+        }
+        staged[n] = arrived;
+        return n + 1;
+    }
+
+    // Puts a lane's staged cars into the waiting area in one go (see
+    // CarProducer). Unless cars wait for a spot, the ones that don't
+    // fit drive away. False once the station is shutting down.
+    boolean publish(Car[] cars, int n) throws InterruptedException {
+
+        int published = admission.blocks() ? waiting_area.putAll(cars, 0, n) : waiting_area.offerAll(cars, 0, n);
+        if (published > 0) {
+            metrics.recordArrivals(published);
+        }
+        if (published == n) {
+            return true;
+        }
+        if (waiting_area.isClosed()) {
+            return false;
+        }
+        for (int i = published; i < n; i++) {
+            lost(admission.whenFull(), cars[i]); // Another lane took the last spots
+        }
+        return true;
+    }
+
+    // Lets every car at the head of the line that has run out of patience go
+    private void reneged(long now) {
+
+        if (admission.patience_ms > 0) {
+            Object car;
+            while ((car = waiting_area.pollIf(c -> admission.outOfPatience(c, now))) != null) {
+                lost(EventKind.RENEGED, (Car) car);
+            }
+        }
+    }
+
+    private void lost(EventKind why, Car car) {
+
+        log.event(why, null, -1, car, -1);
+        metrics.recordLost(why);
+    }
+
+    public Car consume(String pump_name) throws InterruptedException {
+
+        return consume(pump_name, -1);
+    }
+
+    /** Serves the next car and returns it; null once the station has shut down. */
+    public Car consume(String pump_name, int pump_index) throws InterruptedException {
+
+        if (retire(pump_index)) {
+            log.event(EventKind.BAY_CLOSED, pump_name, pump_index, null, pump_index);
+            return null;
+        }
+        safePoint(true); // Between two cars
+
+        // Phase 1: take the next car out of the queue, skipping cars
+        // that have given up on it
+        Car car = stopping ? null : takeFor(pump_index);
+        while (car != null && admission.outOfPatience(car, DeterministicScheduler.nanoTime())) {
+            lost(EventKind.RENEGED, car);
+            car = stopping ? null : takeFor(pump_index);
+        }
+        if (car == null) {
+            return null;
+        }
+        if (stopping) {
+            not_served.add(car); // shutdownNow() raced us for it
+            return null;
+        }
+        return serve(pump_name, pump_index, car);
+    }
+
+    // Pumps reserved for a class only take cars of that class
+    private Car takeFor(int pump_index) throws InterruptedException {
+
+        EnumSet<ServiceClass> only = null;
+        if (pump_index >= 0 && pump_index < reserved_bays.length && reserved_bays[pump_index] != null) {
+            only = EnumSet.of(reserved_bays[pump_index]);
+        }
+        if (!pausable) {
+            return (Car) (only == null ? waiting_area.take() : ((PriorityWaitingArea) waiting_area).take(only));
+        }
+        // In slices, so an empty line can't keep pause() waiting
+        while (true) {
+            Car car = pollFor(only, SAFE_POINT_MS);
+            if (car != null || stopping) {
+                return car;
+            }
+            if (waiting_area.isClosed()) {
+                return pollFor(only, 0); // Null once closed and empty
+            }
+            safePoint(true);
+        }
+    }
+
+    private Car pollFor(EnumSet<ServiceClass> only, long timeout_ms) throws InterruptedException {
+
+        if (only == null) {
+            return (Car) waiting_area.poll(timeout_ms, TimeUnit.MILLISECONDS);
+        }
+        return (Car) ((PriorityWaitingArea) waiting_area).poll(only, timeout_ms, TimeUnit.MILLISECONDS);
+    }
+
+    // Next waiting car within timeout_ms, or null. MultiStation pumps
+    // use this on their own station and on the neighbours they steal from.
+    Car pollCar(long timeout_ms) throws InterruptedException {
+
+        Car car = (Car) waiting_area.poll(timeout_ms, TimeUnit.MILLISECONDS);
+        while (car != null && admission.outOfPatience(car, DeterministicScheduler.nanoTime())) {
+            lost(EventKind.RENEGED, car);
+            car = (Car) waiting_area.poll(0, TimeUnit.MILLISECONDS);
+        }
+        return car;
+    }
+
+    // Phase 2 onwards for a car taken from this (or another) station
+    Car serve(String pump_name, int pump_index, Car car_name) throws InterruptedException {
+
+        metrics.recordQueueWait(car_name.service_class, DeterministicScheduler.nanoTime() - car_name.arrival_nanos);
+
+        // Phase 2: wait for a bay with no lock held, then claim it
+        long wait_start = DeterministicScheduler.nanoTime();
+        int my_bay_idx = claimBay(car_name);
+        long bay_start = DeterministicScheduler.nanoTime();
+        metrics.semaphore_wait.record(bay_start - wait_start);
+        metrics.time_to_bay.record(bay_start - car_name.arrival_nanos);
+        log.event(EventKind.OCCUPIED, pump_name, pump_index, car_name, my_bay_idx);
+
+        try {
+
+            log.event(EventKind.LOGIN, pump_name, pump_index, car_name, my_bay_idx);
+            DeterministicScheduler.sleep(timing.login_ms);
+            log.event(EventKind.BEGIN_SERVICE, pump_name, pump_index, car_name, my_bay_idx);
+
+            DeterministicScheduler.sleep(washMs(my_bay_idx, car_name));
+            log.event(EventKind.FINISHED, pump_name, pump_index, car_name, my_bay_idx);
+            log.event(EventKind.BAY_FREE, pump_name, pump_index, car_name, my_bay_idx);
+        } finally {
+            metrics.recordBayBusy(my_bay_idx, DeterministicScheduler.nanoTime() - bay_start);
+            service_bays.set(my_bay_idx, null);
+            pumps_Semaphore.release();
+            if (dispatcher != null) {
+                dispatcher.release(my_bay_idx);
+            }
+        }
+
+        return car_name;
+
+    }
+
+    // Identical bays: any permit will do and the slot is claimed with a
+    // CAS. Heterogeneous bays (-Dcarwash.bays): the dispatcher picks one.
+    private int claimBay(Car car) throws InterruptedException {
+
+        if (dispatcher == null) {
+            pumps_Semaphore.acquire();
+            return reserveBay(car);
+        }
+        int bay = dispatcher.acquire(car, car.service_ms);
+        pumps_Semaphore.acquire(); // Never blocks: the dispatcher only hands out free bays
+        service_bays.set(bay, car);
+        return bay;
+    }
+
+    // Wash time on the given bay: detail washes take longer, fast bays less
+    private long washMs(int bay, Car car) {
+
+        if (dispatcher == null) {
+            return BayProfile.STANDARD.serviceMs(car.wash_type, car.service_ms);
+        }
+        return dispatcher.serviceMs(bay, car, car.service_ms);
+    }
+
+    // A held permit guarantees a null slot; start at the round-robin hint
+    private int reserveBay(Car car) {
+
+        int open = num_of_service_bays;
+        int start = Math.floorMod(service_inptr.getAndIncrement(), open);
+        while (true) {
+            // Open bays first; a bay that was just closed may still be the free one
+            for (int i = 0; i < service_bays.length(); i++) {
+                int bay = i < open ? (start + i) % open : i;
+                if (service_bays.get(bay) == null && service_bays.compareAndSet(bay, null, car)) {
+                    return bay;
+                }
+            }
+            Thread.onSpinWait(); // A bay is being handed back right now
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  Resizing (called by the Autoscaler)
+    // -----------------------------------------------------------------
+
+    // Pumps and lanes wait only on Semaphores and in sleeps: the array
+    // waiting area and identical bays. DeterministicScheduler needs that.
+    boolean waitsOnSemaphores() {
+
+        return waiting_area instanceof ArrayWaitingArea && dispatcher == null;
+    }
+
+    // Bays that may ever open: num_of_service_bays up to this
+    int maxBays() {
+
+        return service_bays.length();
+    }
+
+    // Opens the next bay. Returns the Pump to start for it, or null when
+    // that bay's pump hasn't retired since it was closed and just stays.
+    Pump openBay() {
+
+        scale_lock.lock();
+        try {
+            int bay = num_of_service_bays;
+            if (bay == service_bays.length()) {
+                throw new IllegalStateException("All " + bay + " bays are already open");
+            }
+            num_of_service_bays = bay + 1;
+            pumps_Semaphore.release();
+            log.event(EventKind.BAY_OPENED, "Pump " + (bay + 1), bay, null, bay);
+            if (pump_running[bay]) {
+                return null;
+            }
+            pump_running[bay] = true;
+            live_pumps.incrementAndGet();
+            return new Pump(this, "Pump " + (bay + 1), bay);
+        } finally {
+            scale_lock.unlock();
+        }
+    }
+
+    // Closes the last open bay: one bay permit fewer (paid back by the
+    // next car to finish if all are busy), and its pump retires before
+    // taking another car.
+    void closeBay() {
+
+        scale_lock.lock();
+        try {
+            if (num_of_service_bays == 1) {
+                throw new IllegalStateException("Can't close the last bay");
+            }
+            num_of_service_bays--;
+            pumps_Semaphore.reducePermits(1);
+        } finally {
+            scale_lock.unlock();
+        }
+    }
+
+    // True when this pump's bay has been closed; the pump then stops
+    private boolean retire(int pump_index) {
+
+        if (pump_index < 0 || pump_index < num_of_service_bays) {
+            return false; // Fast path: no lock
+        }
+        scale_lock.lock();
+        try {
+            if (pump_index < num_of_service_bays) {
+                return false; // Reopened meanwhile
+            }
+            pump_running[pump_index] = false;
+            return true;
+        } finally {
+            scale_lock.unlock();
+        }
+    }
+
+    // Only the waiting areas WaitingArea.create makes can be saved
+    boolean canSave() {
+
+        return WaitingArea.kindOf(waiting_area) != null;
+    }
+
+    // Lets the watchdog see the bays, the scaling lock, the waiting area
+    // and the dispatcher. Pumps give back the bay permit they took, so
+    // the bay semaphore knows who holds it.
+    void watch(Watchdog dog) {
+
+        dog.watch(pumps_Semaphore.watch("bays", true));
+        dog.watch(scale_lock);
+        waiting_area.watch(dog);
+        if (dispatcher != null) {
+            dog.watch(dispatcher);
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  Pausing and snapshots (see Snapshot and Checkpointer)
+    // -----------------------------------------------------------------
+
+    /** Lets pause() work; call before the pumps start. */
+    void allowPausing() {
+
+        pausable = true;
+    }
+
+    /**
+     * Brings the station to a safe point and holds it there until
+     * resume(): every producer lane between two arrivals and every pump
+     * between two cars, so no car is in a bay or on its way to one and
+     * the waiting area holds every car there is. Lanes stop first while
+     * the pumps go on, so a lane waiting for a spot still gets one; the
+     * pumps then stop as they finish their washes. Returns false, and
+     * the station runs on, if that takes longer than timeout_ms.
+     * Pauses nest: the station runs again once each got its resume().
+     */
+    boolean pause(long timeout_ms) throws InterruptedException {
+
+        if (!pausable) {
+            throw new IllegalStateException("allowPausing() must be called before the pumps start");
+        }
+        pause_lock.lock();
+        try {
+            pauses++;
+            pausing = true;
+            long left = TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+            while (parked_lanes < lanes.size() || parked_pumps < live_pumps.get()) {
+                if (left <= 0) {
+                    resume();
+                    return false;
+                }
+                left = parked_changed.awaitNanos(left);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            resume();
+            throw e;
+        } finally {
+            pause_lock.unlock();
+        }
+    }
+
+    void resume() {
+
+        pause_lock.lock();
+        try {
+            if (pauses > 0 && --pauses == 0) {
+                pausing = false;
+                resumed.signalAll();
+            }
+        } finally {
+            pause_lock.unlock();
+        }
+    }
+
+    boolean isPausing() {
+
+        return pausing;
+    }
+
+    // Lanes call this between two arrivals, pumps between two cars. A
+    // pump only stops once every lane has, see pause().
+    void safePoint(boolean pump) throws InterruptedException {
+
+        if (!pausing) {
+            return; // Fast path: one volatile read
+        }
+        pause_lock.lock();
+        try {
+            if (pump && parked_lanes < lanes.size()) {
+                return;
+            }
+            if (pump) {
+                parked_pumps++;
+            } else {
+                parked_lanes++;
+            }
+            parked_changed.signalAll();
+            try {
+                while (pausing) {
+                    resumed.await();
+                }
+            } finally {
+                if (pump) {
+                    parked_pumps--;
+                } else {
+                    parked_lanes--;
+                }
+            }
+        } finally {
+            pause_lock.unlock();
+        }
+    }
+
+    // Called by each CarProducer when it is made and when it finishes
+    void laneStarted(CarProducer lane) {
+
+        lanes.add(lane);
+    }
+
+    void laneFinished(CarProducer lane) {
+
+        lanes.remove(lane);
+        participantLeft();
+    }
+
+    /** The producer lanes that haven't finished, e.g. the ones restore() made. */
+    CarProducer[] lanes() {
+
+        return lanes.toArray(new CarProducer[0]);
+    }
+
+    // A lane or pump that pause() may be waiting for is gone
+    private void participantLeft() {
+
+        if (pausing) {
+            pause_lock.lock();
+            try {
+                parked_changed.signalAll();
+            } finally {
+                pause_lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the paused station to file: the clock (run time so far) and
+     * metrics, the waiting area with its pointers, every unfinished lane
+     * with its car source and random state, and the bays. The bays are
+     * all empty at the safe point, so what is saved of them is how many
+     * are open and service_inptr, where the next bay search starts.
+     */
+    void save(Path file) throws IOException {
+
+        if (!canSave()) {
+            throw new IllegalStateException(waiting_area.getClass().getSimpleName() + " can't be saved");
+        }
+        if (!pausing) {
+            throw new IllegalStateException("Only a paused station can be saved");
+        }
+        long now = DeterministicScheduler.nanoTime();
+        Snapshot.save(file, Snapshot.STATION, out -> {
+            out.writeUTF(WaitingArea.kindOf(waiting_area));
+            out.writeInt(waiting_area_size);
+            scale_lock.lock(); // The autoscaler may be opening a bay
+            try {
+                out.writeInt(num_of_service_bays);
+                out.writeInt(service_inptr.get());
+            } finally {
+                scale_lock.unlock();
+            }
+            out.writeLong(timing.arrival_ms);
+            out.writeLong(timing.login_ms);
+            out.writeLong(timing.service_ms);
+            metrics.save(out, now);
+            waiting_area.save(out, now);
+            CarProducer[] running = lanes();
+            out.writeInt(running.length);
+            for (CarProducer lane : running) {
+                lane.save(out);
+            }
+        });
+    }
+
+    /**
+     * The station saved in file, ready to run: start pumps for its open
+     * bays and its lanes(). Options such as -Dcarwash.autoscale or
+     * -Dcarwash.admission come from the properties, as for a new run.
+     */
+    static shared_queue restore(Path file, EventLog log) throws IOException {
+
+        try (DataInputStream in = Snapshot.open(file, Snapshot.STATION)) {
+            WaitingArea area = WaitingArea.create(in.readUTF(), in.readInt());
+            shared_queue sq = new shared_queue(in.readInt(), area, log);
+            sq.service_inptr.set(in.readInt());
+            sq.timing = new SimulationTiming(in.readLong(), in.readLong(), in.readLong());
+            long now = DeterministicScheduler.nanoTime();
+            sq.metrics.restore(in, now);
+            area.restore(in, now);
+            int lanes = in.readInt();
+            AtomicInteger open_lanes = new AtomicInteger(lanes);
+            for (int i = 0; i < lanes; i++) {
+                CarProducer.restore(sq, in, open_lanes);
+            }
+            if (lanes == 0) {
+                sq.drain(); // Saved while the last cars were served
+            }
+            return sq;
+        }
+    }
+
+    // -----------------------------------------------------------------
+    //  Shutdown (no sentinel cars go through the queue)
+    // -----------------------------------------------------------------
+
+    /** Stops arrivals; pumps finish every waiting car, then stop. */
+    public void drain() {
+
+        waiting_area.close();
+    }
+
+    /**
+     * Stops arrivals and stops pumps as soon as their current wash is done.
+     * Returns the cars that were still waiting and will not be served.
+     */
+    public List<Car> shutdownNow() {
+
+        stopping = true;
+        waiting_area.close();
+        Car car;
+        try {
+            while ((car = (Car) waiting_area.poll(0, TimeUnit.MILLISECONDS)) != null) {
+                not_served.add(car);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new ArrayList<>(not_served);
+    }
+
+    /** Waits for every pump to stop; false if the timeout passed first. */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+
+        return pumps_done.await(timeout, unit);
+    }
+
+    public boolean isShutdown() {
+
+        return waiting_area.isClosed();
+    }
+
+    // Called by each Pump as it exits
+    void pumpStopped() {
+
+        if (live_pumps.decrementAndGet() == 0) {
+            pumps_done.countDown();
+        }
+        participantLeft();
+    }
+
+}